@@ -1,36 +1,106 @@
 package com.xinchang.common.cache;
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.commons.collections4.MapUtils;
-import org.apache.commons.collections4.Transformer;
 import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
 import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.support.atomic.RedisAtomicLong;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 
+import com.alibaba.fastjson.JSON;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+import com.xinchang.common.page.PageParam;
+import com.xinchang.common.web.FastJsonRedisSerializer;
 
-public abstract class AbstractCache<K, V> implements ICache<K, V> {
+public abstract class AbstractCache<K, V> implements ICache<K, V>, IAsyncCache<K, V> {
     private long UNSET_INT = 0;
 
+    /**
+     * 数据库中无数据或数据库异常时放入redis的无效参数，不经过value的序列化，只占几个字节
+     */
+    private static final byte[] NONE_DATA_BYTES = new byte[] { 0, 'N', 'O', 'N', 'E' };
+
+    /**
+     * 从redis中读到无效参数时返回的标记对象
+     */
+    private static final Object NONE_DATA = new Object();
+
+    /**
+     * 请求内缓存在request属性中的名称前缀，后面加上key前缀
+     */
+    private static final String REQUEST_MEMO_ATTRIBUTE = AbstractCache.class.getName()
+                                                         + ".REQUEST_MEMO.";
+
+    protected Logger logger = LoggerFactory.getLogger(this.getClass());
+
     @Resource
     private RedisConnectionFactory jedisConnectionFactory;
 
+    /**
+     * 本地缓存的实现方式，可选caffeine、guava和offheap
+     */
+    @Value("${cache.local.engine:caffeine}")
+    private String localCacheEngine = "caffeine";
+
+    /**
+     * 本地缓存使用offheap时每个缓存占用的堆外内存，单位字节，默认64M
+     */
+    @Value("${cache.local.offheap.capacity:67108864}")
+    private long offHeapCapacity = 64L * 1024 * 1024;
+
+    /**
+     * 本地缓存快照文件的目录，不配置表示不写快照
+     */
+    @Value("${cache.local.snapshot.dir:}")
+    private String localSnapshotDir;
+
+    /**
+     * 本地缓存快照，开启了快照时在初始化时创建
+     */
+    private LocalSnapshotStore<V> snapshotStore;
+
     /**
      * 缓存key前缀和真实key之间的分隔符
      */
@@ -38,50 +108,101 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
 
     private Map<String, RedisAtomicLong> redisCounterMap = new ConcurrentHashMap<>();
 
-    protected RedisAtomicLong getRedisCounter(K key) {
-        String realKey = this.getKeyPrefix() + "_COUNTER" + keySeparator + key;
-        RedisAtomicLong redisCounter = redisCounterMap.get(realKey);
-        if (redisCounter == null) {
-            synchronized (redisCounterMap) {
-                redisCounter = redisCounterMap.get(realKey);
-                if (redisCounter == null) {
-                    redisCounter = new RedisAtomicLong(realKey, jedisConnectionFactory);
-                    redisCounterMap.put(realKey, redisCounter);
-                }
-            }
-        }
+    /**
+     * 只使用redis缓存时，正在从server加载中的key，保证同一个key的并发加载只执行一次
+     */
+    private InFlightRegistry<V> inFlightLoads = new InFlightRegistry<>();
 
-        return redisCounter;
+    /**
+     * 本地缓存中的无效参数，value是无效参数的失效时间点，和本地缓存分开存放以便使用单独的失效时间
+     */
+    private Cache<String, Long> noneDataCache;
+
+    /**
+     * 本地缓存异步刷新时，把一小段时间内到期的key合并成一次批量加载
+     */
+    private BatchLoadDispatcher<V> refreshDispatcher;
+
+    /**
+     * 观察到的从server加载数据的耗时，单位毫秒，用于redis数据的提前刷新
+     */
+    private volatile long loadCostMillis;
+
+    /**
+     * 该key前缀的缓存指标
+     */
+    private CacheMetrics metrics;
+
+    /**
+     * 只使用redis缓存时的热点key探测，没有开启时为null
+     */
+    private HotKeyDetector<V> hotKeyDetector;
+
+    /**
+     * 只使用redis缓存时，把一小段时间内并发的单个key读取合并成一次批量读取，没有开启时为null
+     */
+    private BatchLoadDispatcher<V> getBatchDispatcher;
+
+    /**
+     * write-behind模式下等待写入server的数据，其它模式下为null
+     */
+    private WriteBehindBuffer<K, V> writeBehindBuffer;
+
+    /**
+     * write-through模式下按key分段的锁，保证同一个key的写入串行执行，其它模式下为null
+     */
+    private Striped<Lock> writeThroughLocks;
+
+    /**
+     * 开启缓冲计数时本地缓冲的自增增量，没有开启时为null
+     */
+    private BufferedCounters bufferedCounters;
+
+    /**
+     * 按标签或key前缀批量删除redis中的数据，第一次使用时创建
+     */
+    private volatile RedisKeyInvalidator keyInvalidator;
+
+    /**
+     * 批量读写redis，第一次使用时创建
+     */
+    private volatile RedisBatchOperations redisBatch;
+
+    /**
+     * 写入租约，第一次使用时创建
+     */
+    private volatile RedisWriteLease writeLease;
+
+    /**
+     * 是否已经提示过redis cluster不支持写入租约
+     */
+    private AtomicBoolean writeLeaseWarned = new AtomicBoolean();
+
+    /**
+     * 影子key，第一次使用时创建
+     */
+    private volatile RedisStaleStore staleStore;
+
+    protected RedisAtomicLong getRedisCounter(K key) {
+        return getRedisCounter(key, "_COUNTER");
     }
     //重载方法,根据不同key值存储
     protected RedisAtomicLong getRedisCounter(K key,String keyFlag) {
         String realKey = this.getKeyPrefix() + keyFlag + keySeparator + key;
         RedisAtomicLong redisCounter = redisCounterMap.get(realKey);
         if (redisCounter == null) {
-            synchronized (redisCounterMap) {
-                redisCounter = redisCounterMap.get(realKey);
-                if (redisCounter == null) {
-                    redisCounter = new RedisAtomicLong(realKey, jedisConnectionFactory);
-                    redisCounterMap.put(realKey, redisCounter);
-                }
-            }
+            // 只锁住同一个key，不同key的计数器可以并发创建
+            redisCounter = redisCounterMap.computeIfAbsent(realKey,
+                new Function<String, RedisAtomicLong>() {
+                    @Override
+                    public RedisAtomicLong apply(String counterKey) {
+                        return new RedisAtomicLong(counterKey, jedisConnectionFactory);
+                    }
+                });
         }
         return redisCounter;
     }
 
-    private Transformer<K, String> OriginalKeyToRealKeyTransformer = new Transformer<K, String>() {
-        public String transform(K originalKey) {
-            return new StringBuilder(32).append(getKeyPrefix()).append(keySeparator)
-                .append(originalKey).toString();
-        }
-    };
-
-    private Transformer<String, K> RealKeyTOOriginalKeyTransformer = new Transformer<String, K>() {
-        public K transform(String realKey) {
-            return restoreToOrigKey(realKey);
-        }
-    };
-
     /* ==================================对外提供的api=============================================== */
     @Override
     public V getIfPresent(K key) {
@@ -92,11 +213,24 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
         V value = null;
         String realKey = getRealKey(key);
         if (isUseLocalCache()) {
+            if (isNoneDataInLocal(realKey)) {
+                return null;
+            }
+
             value = cache.getIfPresent(realKey);
+            getMetrics().recordLocalRequests(1);
+            if (value == null) {
+                getMetrics().recordLocalMisses(1);
+            }
+        }
+
+        else if (hotKeyDetector != null) {
+            value = hotKeyDetector.getIfPresent(realKey);
         }
 
         if (value == null && isUseRedisCache()) {
-            value = getRedisTemplate().opsForValue().get(realKey);
+            value = noneDataToNull(getFromRedis(realKey));
+            recordHotKey(realKey, value);
         }
 
         return value;
@@ -109,8 +243,13 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
         }
 
         if (isUseLocalCache()) {
+            String realKey = getRealKey(key);
+            if (isNoneDataInLocal(realKey)) {
+                return false;
+            }
+
             try {
-                return cache.get(getRealKey(key)) != null;
+                return cache.get(realKey) != null;
             }
             catch (Exception e) {
                 return false;
@@ -118,13 +257,22 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
         }
         else {
             String realKey = getRealKey(key);
-            boolean result = getRedisTemplate().hasKey(realKey);
-            if (!result) {
-                V value = doLoadFromServer(realKey);
-                if (value != null) {
-                    setToRedis(realKey, value);
-                    result = true;
+            boolean result;
+            // 无效参数和租约标记都需要读出内容才能判断
+            if (isUseNoneDataCache() || useWriteLease()) {
+                Object value = getFromRedis(realKey);
+                if (value == NONE_DATA) {
+                    return false;
                 }
+
+                result = value != null;
+            }
+            else {
+                result = getRedisTemplate().hasKey(realKey);
+            }
+
+            if (!result) {
+                result = loadFromServerAndSetToRedis(realKey) != null;
             }
 
             return result;
@@ -142,10 +290,38 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
             return null;
         }
 
+        return get(key, getRequestMemo());
+    }
+
+    /**
+     * memo是请求内缓存，在请求线程中取得后可以交给其它线程使用，null表示不使用
+     */
+    private V get(K key, Map<String, Object> memo) {
+        if (memo == null) {
+            return getValue(key);
+        }
+
+        String realKey = getRealKey(key);
+        Object memoValue = memo.get(realKey);
+        if (memoValue == null) {
+            memoValue = getValue(key);
+            memo.put(realKey, memoValue == null ? NONE_DATA : memoValue);
+        }
+
+        return noneDataToNull(memoValue);
+    }
+
+    private V getValue(K key) {
         V value = null;
         if (isUseLocalCache()) {
+            String realKey = getRealKey(key);
+            if (isNoneDataInLocal(realKey)) {
+                return null;
+            }
+
             try {
-                value = cache.getUnchecked(getRealKey(key));
+                getMetrics().recordLocalRequests(1);
+                value = cache.get(realKey);
                 return value;
             }
             catch (Exception e) {
@@ -153,16 +329,49 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
         }
         else {
             String realKey = getRealKey(key);
-            value = getRedisTemplate().opsForValue().get(realKey);
-            if (value == null) {
-                value = doLoadFromServer(realKey);
+            if (hotKeyDetector != null) {
+                value = hotKeyDetector.getIfPresent(realKey);
                 if (value != null) {
-                    setToRedis(realKey, value);
+                    hotKeyDetector.record(realKey);
+                    return value;
                 }
-                else {
-                    value = getRedisTemplate().opsForValue().get(realKey);
+            }
+
+            if (getBatchDispatcher != null) {
+                try {
+                    return InFlightRegistry.join(getBatchDispatcher.submit(realKey));
+                }
+                catch (RejectedExecutionException e) {
+                    // 线程池已满，退回到逐个读取
+                }
+            }
+
+            Object redisValue;
+            if (earlyExpirationBeta() > 0) {
+                Object[] valueAndTtl = getWithTtlFromRedis(realKey);
+                redisValue = valueAndTtl[0];
+                if (redisValue != null && redisValue != NONE_DATA
+                    && shouldRefreshEarly((Long) valueAndTtl[1])) {
+                    refreshEarly(realKey);
+                }
+            }
+            else {
+                redisValue = getFromRedis(realKey);
+            }
+
+            if (redisValue == NONE_DATA) {
+                return null;
+            }
+
+            value = noneDataToNull(redisValue);
+            if (value == null) {
+                value = loadFromServerAndSetToRedis(realKey);
+                if (value == null) {
+                    value = noneDataToNull(getFromRedis(realKey));
                 }
             }
+
+            recordHotKey(realKey, value);
         }
 
         return value;
@@ -175,13 +384,26 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
         }
 
         String realKey = getRealKey(key);
+        forgetInRequestMemo(Arrays.asList(realKey));
         if (isUseLocalCache()) {
             cache.invalidate(realKey);
+            invalidateNoneDataInLocal(realKey);
+        }
+
+        else if (hotKeyDetector != null) {
+            hotKeyDetector.invalidate(realKey);
         }
 
         if (isUseRedisCache()) {
-            getRedisTemplate().delete(realKey);
+            if (isUseStaleCache()) {
+                getRedisTemplate().delete(Arrays.asList(realKey, getStaleStore().getStaleKey(realKey)));
+            }
+            else {
+                getRedisTemplate().delete(realKey);
+            }
         }
+
+        publishInvalidation(Arrays.asList(realKey));
     }
 
     @Override
@@ -189,16 +411,118 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
         if (CollectionUtils.isEmpty(keys))
             return;
 
-        List<String> realKeys = (List<String>) CollectionUtils.collect(keys,
-            OriginalKeyToRealKeyTransformer);
+        List<String> realKeys = new ArrayList<>(keys.size());
+        for (K key : keys) {
+            realKeys.add(getRealKey(key));
+        }
+
+        forgetInRequestMemo(realKeys);
+        invalidateInLocal(realKeys);
+
+        if (isUseRedisCache()) {
+            deleteFromRedis(realKeys);
+            if (isUseStaleCache()) {
+                deleteFromRedis(getStaleStore().getStaleKeys(realKeys));
+            }
+        }
+
+        publishInvalidation(realKeys);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void put(K key, V value, Collection<String> tags) {
+        put(key, value);
+        if (key == null || CollectionUtils.isEmpty(tags) || !isUseRedisCache()) {
+            return;
+        }
+
+        RedisTemplate<String, V> redisTemplate = getRedisTemplate();
+        final RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate
+            .getKeySerializer();
+        final byte[] rawKey = keySerializer.serialize(getRealKey(key));
+        final List<byte[]> rawTagKeys = new ArrayList<>(tags.size());
+        for (String tag : tags) {
+            rawTagKeys.add(keySerializer.serialize(getTagKey(tag)));
+        }
+        // 标签比数据多保留一个失效时间的抖动范围，数据失效前标签不会先失效；
+        // 数据不失效时按tagExpireSeconds失效，避免标签集合无限增长
+        final long expireMillis = Math.max(getRedisExpireMillis() > UNSET_INT
+            ? getRedisExpireMillis() + TimeUnit.SECONDS.toMillis(redisExpireJitter())
+            : UNSET_INT, TimeUnit.SECONDS.toMillis(tagExpireSeconds()));
+
+        getRedisBatch().execute(new RedisBatchOperations.BatchCallback() {
+            @Override
+            public void doInRedis(RedisConnection connection, List<Object> results) {
+                for (byte[] rawTagKey : rawTagKeys) {
+                    connection.sAdd(rawTagKey, rawKey);
+                    if (expireMillis > UNSET_INT) {
+                        connection.pExpire(rawTagKey, expireMillis);
+                    }
+                }
+            }
+        });
+    }
+
+    @Override
+    public long invalidateTag(String tag) {
+        clearRequestMemo();
+        if (!isUseRedisCache()) {
+            return 0;
+        }
+
+        return getKeyInvalidator().deleteMembers(getTagKey(tag),
+            new RedisKeyInvalidator.DeletedKeysListener() {
+                @Override
+                public void onDeleted(List<String> realKeys) {
+                    invalidateInLocal(realKeys);
+                    publishInvalidation(realKeys);
+                    if (isUseStaleCache()) {
+                        deleteFromRedis(getStaleStore().getStaleKeys(realKeys));
+                    }
+                }
+            });
+    }
 
+    @Override
+    public long invalidatePrefix() {
+        clearRequestMemo();
         if (isUseLocalCache()) {
-            cache.invalidateAll(realKeys);
+            // 先清理本节点本地缓存中的所有数据，redis中的数据在下面按批删除时再通知其它节点
+            final List<String> localKeys = new ArrayList<>();
+            cache.forEach(new BiConsumer<String, V>() {
+                @Override
+                public void accept(String key, V value) {
+                    localKeys.add(key);
+                }
+            });
+            for (List<String> realKeys : Lists.partition(localKeys, redisBatchSize())) {
+                invalidateInLocal(realKeys);
+                publishInvalidation(realKeys);
+            }
+            if (noneDataCache != null) {
+                noneDataCache.invalidateAll();
+            }
         }
 
-        if (isUseRedisCache()) {
-            getRedisTemplate().delete(realKeys);
+        if (!isUseRedisCache()) {
+            return 0;
+        }
+
+        if (isUseStaleCache()) {
+            getKeyInvalidator().deleteMatching(
+                escapeScanPattern(getStaleStore().getStaleKeyPrefix() + keySeparator) + "*", null);
         }
+
+        String pattern = escapeScanPattern(getKeyPrefix() + keySeparator) + "*";
+        return getKeyInvalidator().deleteMatching(pattern,
+            new RedisKeyInvalidator.DeletedKeysListener() {
+                @Override
+                public void onDeleted(List<String> realKeys) {
+                    invalidateInLocal(realKeys);
+                    publishInvalidation(realKeys);
+                }
+            });
     }
 
     @Override
@@ -207,99 +531,89 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
             return;
         }
 
+        if (writeThroughLocks != null) {
+            Lock lock = writeThroughLocks.get(key);
+            lock.lock();
+            try {
+                batchWriteToServer(Collections.singletonMap(key, value));
+                putToCache(key, value);
+            }
+            finally {
+                lock.unlock();
+            }
+            return;
+        }
+
+        if (writeBehindBuffer != null) {
+            // 先入队，队列满被拒绝时缓存保持不变
+            writeBehindBuffer.offer(key, value);
+        }
+
+        putToCache(key, value);
+    }
+
+    private void putToCache(K key, V value) {
         String realKey = getRealKey(key);
+        forgetInRequestMemo(Arrays.asList(realKey));
 
         if (isUseLocalCache()) {
             cache.put(realKey, value);
+            invalidateNoneDataInLocal(realKey);
+        }
+        else if (hotKeyDetector != null) {
+            hotKeyDetector.invalidate(realKey);
         }
 
         if (isUseRedisCache()) {
             setToRedis(realKey, value);
+            setStaleToRedis(Collections.singletonMap(realKey, value));
         }
+
+        publishInvalidation(Arrays.asList(realKey));
     }
 
+    /**
+     * 批量获取，返回结果和keys的顺序一致，不存在的key对应null，所有key都不存在时返回空列表
+     */
     @Override
+    @SuppressWarnings("unchecked")
     public List<V> getAllForList(Collection<K> keys) {
-        Map<K, V> returnMap = getAll(keys);
-        if (MapUtils.isNotEmpty(returnMap)) {
-            List<V> returnList = new ArrayList<>(returnMap.size());
-            for (K key : keys) {
-                returnList.add(returnMap.get(key));
-            }
-
-            return returnList;
-        }
-        else {
+        if (CollectionUtils.isEmpty(keys)) {
             return new ArrayList<>();
         }
+
+        Object[] values = getAllValues(keys.toArray(), getRequestMemo());
+        List<V> returnList = new ArrayList<>(values.length);
+        boolean found = false;
+        for (Object value : values) {
+            returnList.add((V) value);
+            found |= value != null;
+        }
+
+        return found ? returnList : new ArrayList<V>();
     }
 
     @Override
     public Map<K, V> getAll(Collection<K> keys) {
-        if (CollectionUtils.isNotEmpty(keys)) {
-            List<String> realKeys = (List<String>) CollectionUtils.collect(keys,
-                OriginalKeyToRealKeyTransformer);
-
-            Map<K, V> retMap = new HashMap<>(keys.size());
-            if (isUseLocalCache()) {
-                try {
-                    Map<String, V> tempMap = cache.getAll(realKeys);
-                    if (MapUtils.isNotEmpty(tempMap)) {
-                        for (K key : keys) {
-                            V value = tempMap.get(getRealKey(key));
-                            if (value != null) {
-                                retMap.put(key, value);
-                            }
-                        }
-                    }
-
-                    return retMap;
-                }
-                catch (Exception e) {
-                }
-            }
-            else {
-                List<V> values = getRedisTemplate().opsForValue().multiGet(realKeys);
-                if (CollectionUtils.isNotEmpty(values)) {
-                    for (int index = (realKeys.size() - 1); index >= 0; index--) {
-                        String realKey = realKeys.get(index);
-                        V value = values.get(index);
-                        if (value != null) {
-                            realKeys.remove(index);
-                            retMap.put(restoreToOrigKey(realKey), value);
-                        }
-                    }
-                }
-
-                if (CollectionUtils.isNotEmpty(realKeys)) {
-                    List<K> originalKeys = (ArrayList<K>) CollectionUtils.collect(realKeys,
-                        RealKeyTOOriginalKeyTransformer);
-
-                    Map<String, V> tempMap = doBatchLoadFromServer(originalKeys);
-                    if (MapUtils.isNotEmpty(tempMap)) {
-                        for (Entry<String, V> entry : tempMap.entrySet()) {
-                            K key = restoreToOrigKey(entry.getKey());
-                            retMap.put(key, entry.getValue());
-                        }
+        if (CollectionUtils.isEmpty(keys)) {
+            return new HashMap<>();
+        }
 
-                        setToRedis(tempMap);
-                    }
-                    else if (tempMap == null) {
-                        values = getRedisTemplate().opsForValue().multiGet(realKeys);
-                        if (CollectionUtils.isNotEmpty(values)) {
-                            for (int index = (realKeys.size() - 1); index >= 0; index--) {
-                                retMap.put(restoreToOrigKey(realKeys.get(index)),
-                                    values.get(index));
-                            }
-                        }
-                    }
-                }
+        return getAll(keys, getRequestMemo());
+    }
 
-                return retMap;
+    @SuppressWarnings("unchecked")
+    private Map<K, V> getAll(Collection<K> keys, Map<String, Object> memo) {
+        Object[] originalKeys = keys.toArray();
+        Object[] values = getAllValues(originalKeys, memo);
+        Map<K, V> retMap = new HashMap<>(originalKeys.length * 4 / 3 + 1);
+        for (int i = 0; i < originalKeys.length; i++) {
+            if (values[i] != null) {
+                retMap.put((K) originalKeys[i], (V) values[i]);
             }
         }
 
-        return new HashMap<>();
+        return retMap;
     }
 
     /**
@@ -315,7 +629,7 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
             throw new UnsupportedOperationException();
         }
 
-        return getRedisTemplate().opsForValue().increment(getRealKey(key), 1L);
+        return atomicIncrement(key, 1L);
     }
 
     
@@ -332,210 +646,2136 @@ public abstract class AbstractCache<K, V> implements ICache<K, V> {
             throw new UnsupportedOperationException();
         }
 
+        if (bufferedCounters != null) {
+            return bufferedCounters.increment(getRealKey(key), delta);
+        }
+
         return getRedisTemplate().opsForValue().increment(getRealKey(key), delta);
     }
-    /* ==================================对外提供的api=============================================== */
-
-    /**
-     * 获取操作redis缓存的对象，子类实现，如果不使用redis缓存，返回null即可。
-     * @return
-     */
-    protected abstract RedisTemplate<String, V> getRedisTemplate();
 
-    /**
-     * 获取缓存key前缀，子类实现。
-     * @return
-     */
-    protected abstract String getKeyPrefix();
+    @Override
+    public Long atomicIncrementExact(K key, long delta) {
+        if (!isUseRedisCache()) {
+            throw new UnsupportedOperationException();
+        }
 
-    /**
-     * 获取本地缓存最大容量，子类实现，如果不想使用本地缓存，返回0即可。
-     * @return
-     */
-    protected abstract int getMaximumSize();
+        if (bufferedCounters != null) {
+            return bufferedCounters.incrementExact(getRealKey(key), delta);
+        }
 
-    /**
-     * 将string类型的key转回原始类型的key，子类实现
-     * @param strKey
-     * @return
-     */
-    protected abstract K restoreToOriginalKey(String strKey);
+        return getRedisTemplate().opsForValue().increment(getRealKey(key), delta);
+    }
+
+    @Override
+    public CompletableFuture<V> getAsync(final K key) {
+        if (key == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // 请求内缓存只能在请求线程中取得，在这里取出，读取完成后再放入结果
+        final Map<String, Object> memo = getRequestMemo();
+        final String realKey = getRealKey(key);
+        if (memo != null) {
+            Object memoValue = memo.get(realKey);
+            if (memoValue != null) {
+                return CompletableFuture.completedFuture(noneDataToNull(memoValue));
+            }
+        }
+
+        CompletableFuture<V> future = getValueAsync(key, realKey);
+        if (memo == null) {
+            return future;
+        }
+
+        return future.thenApply(new Function<V, V>() {
+            @Override
+            public V apply(V value) {
+                memo.put(realKey, value == null ? NONE_DATA : value);
+                return value;
+            }
+        });
+    }
+
+    private CompletableFuture<V> getValueAsync(final K key, String realKey) {
+        // 本地缓存命中时直接返回，不需要切换线程
+        if (isUseLocalCache()) {
+            V value = cache.getIfPresent(realKey);
+            if (value != null) {
+                return CompletableFuture.completedFuture(value);
+            }
+        }
+        else if (getBatchDispatcher != null) {
+            // 合并读取本身就是异步的，不需要再占用一个线程等待
+            V value = hotKeyDetector == null ? null : hotKeyDetector.getIfPresent(realKey);
+            if (value != null) {
+                // 和get一样记录命中，热点key失效后仍然很热时能重新放入
+                hotKeyDetector.record(realKey);
+                return CompletableFuture.completedFuture(value);
+            }
+
+            return getBatchDispatcher.submit(realKey);
+        }
+
+        return supplyAsync(new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                return getValue(key);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<K, V>> getAllAsync(final Collection<K> keys) {
+        if (CollectionUtils.isEmpty(keys)) {
+            return CompletableFuture.<Map<K, V>> completedFuture(new HashMap<K, V>());
+        }
+
+        // 同getAsync，请求内缓存在当前线程中取出后交给执行读取的线程
+        final Map<String, Object> memo = getRequestMemo();
+        return supplyAsync(new Callable<Map<K, V>>() {
+            @Override
+            public Map<K, V> call() throws Exception {
+                return getAll(keys, memo);
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> putAsync(final K key, final V value) {
+        return supplyAsync(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                put(key, value);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> deleteAsync(final K key) {
+        return supplyAsync(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                delete(key);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> atomicIncrementAsync(K key) {
+        return atomicIncrementAsync(key, 1L);
+    }
+
+    @Override
+    public CompletableFuture<Long> atomicIncrementAsync(final K key, final long delta) {
+        return supplyAsync(new Callable<Long>() {
+            @Override
+            public Long call() throws Exception {
+                return atomicIncrement(key, delta);
+            }
+        });
+    }
+    /* ==================================对外提供的api=============================================== */
+
+    /**
+     * 获取操作redis缓存的对象，子类实现，如果不使用redis缓存，返回null即可。
+     * @return
+     */
+    protected abstract RedisTemplate<String, V> getRedisTemplate();
+
+    /**
+     * 获取缓存key前缀，子类实现。
+     * @return
+     */
+    protected abstract String getKeyPrefix();
+
+    /**
+     * 获取本地缓存最大容量，子类实现，如果不想使用本地缓存，返回0即可。
+     * @return
+     */
+    protected abstract int getMaximumSize();
+
+    /**
+     * 可以通过重写这个方法来按字节数限制本地缓存的容量，大于0时按weighLocalEntry计算的权重淘汰，
+     * 不再按getMaximumSize限制条数，这时getMaximumSize可以返回0。当前的总权重可以通过CacheMetrics的localWeightBytes查看。
+     * 默认返回0，表示按条数限制。
+     */
+    protected long getMaximumWeightBytes() {
+        return 0;
+    }
+
+    /**
+     * 按字节数限制本地缓存容量时，估算一条数据占用的字节数，每条数据写入本地缓存时调用一次。
+     * 使用offheap本地缓存时不调用这个方法，直接按序列化后实际占用的堆外内存计算。
+     * 默认是key的字符数*2加上value的估算大小：字符串按字符数*2，字节数组按长度，其它对象按fastjson序列化后（不压缩）的字节数，
+     * 比对象在堆中实际占用的内存小，可以按需要重写。
+     */
+    protected int weighLocalEntry(String realKey, V value) {
+        int valueBytes;
+        if (value instanceof CharSequence) {
+            valueBytes = ((CharSequence) value).length() * 2;
+        }
+        else if (value instanceof byte[]) {
+            valueBytes = ((byte[]) value).length;
+        }
+        else if (value instanceof Number || value instanceof Boolean) {
+            valueBytes = 16;
+        }
+        else {
+            valueBytes = JSON.toJSONBytes(value).length;
+        }
+        return realKey.length() * 2 + valueBytes;
+    }
+
+    /**
+     * 将string类型的key转回原始类型的key，子类实现
+     * @param strKey
+     * @return
+     */
+    protected abstract K restoreToOriginalKey(String strKey);
+
+    /**
+     * 可以通过重写这个方法来设置redis缓存的失效时间，单位是秒
+     * 
+     * @param strKey
+     * @return
+     */
+    protected long redisExpireDuration() {
+        return UNSET_INT;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置redis失效时间点
+     */
+    protected Date redisExpireAt() {
+        return null;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置redis失效时间的随机增量上限，单位是秒。
+     * 设置后每个key的失效时间会在redisExpireDuration或redisExpireAt的基础上随机增加0到该值，
+     * 避免同一批写入的key在同一时刻失效，集中访问数据库。
+     */
+    protected long redisExpireJitter() {
+        return UNSET_INT;
+    }
+
+    /**
+     * 可以通过重写这个方法来开启redis数据的提前刷新（XFetch算法），只对只使用redis缓存时的get生效。
+     * 读到快要失效的数据时，按照 -加载耗时 * beta * ln(随机数) >= 剩余失效时间 的概率在后台提前从server刷新，
+     * 越接近失效、加载越慢，提前刷新的概率越大。beta一般设置为1，越大越倾向于提前刷新。
+     * 默认返回0，表示不提前刷新。开启后每次get会多一个PTTL命令（和GET在同一个pipeline中）。
+     */
+    protected double earlyExpirationBeta() {
+        return 0;
+    }
+
+    /**
+     * 可以通过重写这个方法来开启写入租约，只在使用redis缓存时生效。
+     * 开启后从server加载数据前先在redis中取得该key的租约（key不存在时放入一个租约标记），
+     * 加载完成后只有租约标记没有变化时才写入redis，两步都是一次lua脚本调用，见RedisWriteLease。
+     * 取得租约前key中已经有并发put的数据时不取得租约，加载结果不写入redis。
+     * 加载期间如果有put、delete或数据过期，加载结果不会覆盖redis中更新的数据，这样可以放心使用较长的失效时间。
+     * 注意：租约标记是新的数据格式，开启前所有读取该缓存的节点都需要升级到支持写入租约的版本。
+     * redis cluster不支持lua脚本，连接的是cluster时不使用租约。
+     * 默认返回false，表示加载后直接写入redis。
+     */
+    protected boolean useWriteLease() {
+        return false;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置租约标记的失效时间，单位毫秒，应该大于从server加载数据的耗时，
+     * 超过这个时间还没有加载完成时，加载结果不写入redis
+     */
+    protected long writeLeaseMillis() {
+        return 10000;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置带标签put时标签集合的最短失效时间，单位是秒，每次带该标签put时重新计时。
+     * 标签集合的失效时间取数据的失效时间（加上redisExpireJitter）和该值中较大的一个，数据失效前标签不会先失效。
+     * 数据不失效时，超过该时间没有再带该标签put的数据不能再通过invalidateTag删除。
+     * 默认7天，返回0或负数时只按数据的失效时间设置，数据不失效时标签集合也不失效。
+     */
+    protected long tagExpireSeconds() {
+        return TimeUnit.DAYS.toSeconds(7);
+    }
+
+    /**
+     * 可以通过重写这个方法来设置invalidateTag、invalidatePrefix每秒最多从redis中删除的key数量
+     */
+    protected double invalidateKeysPerSecond() {
+        return 5000;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置批量读写redis时每个pipeline包含的最大key数量
+     */
+    protected int redisBatchSize() {
+        return 500;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置批量读取redis时并行读取的阈值，一次读取的key数量达到该值时，
+     * 按redisBatchSize切出的多段会分给最多redisGetParallelism个连接并行读取
+     */
+    protected int redisParallelGetThreshold() {
+        return 2000;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置批量读取redis时最多同时使用的连接数，返回1表示不并行读取
+     */
+    protected int redisGetParallelism() {
+        return 4;
+    }
+
+    /**
+     * 可以通过重写这个方法来开启热点key探测，只在不使用本地缓存（getMaximumSize返回0）时生效。
+     * 返回每秒访问次数的阈值，超过阈值的key会被放入一个很小的本地缓存，在hotKeyExpireMillis后自动失效，
+     * 期间对该key的读请求不再访问redis。当前的热点key可以通过CacheMetrics查看。
+     * 默认返回0，表示不探测。
+     */
+    protected long hotKeyThreshold() {
+        return UNSET_INT;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置热点key探测的采样率，每N次访问记录一次
+     */
+    protected int hotKeySampleRate() {
+        return 8;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置热点key在本地缓存中的失效时间，单位毫秒，也是热点key最多读到旧数据的时间
+     */
+    protected long hotKeyExpireMillis() {
+        return 1000;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置本地缓存最多存放的热点key数量
+     */
+    protected int hotKeyMaximumSize() {
+        return 100;
+    }
+
+    /**
+     * 可以通过重写这个方法来开启单个key读取的合并，只在不使用本地缓存（getMaximumSize返回0）时生效。
+     * 开启后get/getAsync不再逐个读取redis和调用loadFromServer，而是把getBatchWindowMillis内并发提交的key
+     * 合并成一次multiGet，redis中没有的key合并成一次batchLoadFromServer，所以子类必须实现batchLoadFromServer。
+     * 每次get最多多等待一个合并窗口，适合并发高、批量加载比单个加载便宜得多的场景。开启后earlyExpirationBeta不再生效。
+     * 默认返回false，表示不合并。
+     */
+    protected boolean batchGetMisses() {
+        return false;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置合并单个key读取的时间窗口，单位毫秒
+     */
+    protected long getBatchWindowMillis() {
+        return 5;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置每次合并读取最多包含的key数量，达到该数量时不等时间窗口结束立即读取
+     */
+    protected int getBatchMaxSize() {
+        return redisBatchSize();
+    }
+
+    /**
+     * 从server读取单个对象，子类实现，沒有就返回null
+     * @param key
+     * @return
+     */
+    protected V loadFromServer(K key) {
+        return null;
+    }
+
+    /**
+     * 从server读取多个对象，子类实现，沒有就返回null
+     * @param keys
+     * @return
+     */
+    protected Map<K, V> batchLoadFromServer(List<K> keys) {
+        return null;
+    }
+
+    /**
+     * 批量写入server，子类实现，writeMode不是CACHE_ONLY时必须重写
+     */
+    protected void batchWriteToServer(Map<K, V> entries) {
+        throw new UnsupportedOperationException(getClass().getName()
+                                                + " must override batchWriteToServer");
+    }
+
+    /**
+     * 可以通过重写这个方法来设置put时写入server的方式，见WriteMode。
+     * 默认返回CACHE_ONLY，表示put只写缓存。
+     */
+    protected WriteMode writeMode() {
+        return WriteMode.CACHE_ONLY;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置write-behind模式批量写入server的时间间隔，单位毫秒
+     */
+    protected long writeBehindFlushInterval() {
+        return 1000;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置write-behind模式最多等待写入的key数量，达到后新key的put会阻塞
+     */
+    protected int writeBehindMaxPending() {
+        return 10000;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置write-behind模式队列满时put最多阻塞的时间，单位毫秒，
+     * 超时抛出RejectedExecutionException，0表示队列满时立即抛出
+     */
+    protected long writeBehindMaxBlockMillis() {
+        return 1000;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置write-behind模式每次调用batchWriteToServer的最大key数量
+     */
+    protected int writeBehindBatchSize() {
+        return redisBatchSize();
+    }
+
+    /**
+     * 可以通过重写这个方法来开启缓冲计数，只在使用redis缓存时生效。
+     * 开启后atomicIncrement先在本地累加，每隔counterFlushInterval毫秒或累计counterFlushThreshold次自增后，
+     * 通过pipeline批量写入redis，返回值是近似值，需要准确值时使用atomicIncrementExact。
+     * 应用异常退出时还没有写入的增量会丢失，适用于浏览数、点赞数等高频且允许少量误差的计数，不要用于限额等场景。
+     * 默认返回false，表示每次自增都同步写入redis。
+     */
+    protected boolean bufferedCounter() {
+        return false;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置缓冲计数写入redis的时间间隔，单位毫秒
+     */
+    protected long counterFlushInterval() {
+        return 1000;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置缓冲计数累计多少次自增后提前写入redis
+     */
+    protected long counterFlushThreshold() {
+        return 10000;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置从server加载数据而数据库中没有数据时，缓存要采用的策略。
+     * 设置后会在本地缓存和redis中放入无效参数，在策略的时间间隔内不再重复查询数据库。
+     * 注意：设置后batchLoadFromServer返回结果中不包含的key也会被当作没有数据。
+     * 默认实现是返回null，表示每次都重新查询数据库。
+     */
+    protected NoneDataStrategy getNoneDataStrategy() {
+        return null;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置从server加载数据而数据库异常时，缓存要采用的策略。
+     * 重试后数据库仍未恢复，则在缓存中放入无效参数，到了时间间隔后失效重试。
+     * 默认实现是返回null，表示直接抛出异常。
+     */
+    protected DBErrorStrategy getDBErrorStrategy() {
+        return null;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置数据库异常后每次重试前等待的基础时间，单位毫秒。
+     * 第n次重试前等待基础时间的2^(n-1)倍（最多1秒），再随机增加0到基础时间，避免多个节点同时重试。
+     * 默认50毫秒，返回0表示立即重试。
+     */
+    protected long dbErrorRetryBackoffMillis() {
+        return 50;
+    }
+
+    /**
+     * 可以通过重写这个方法来开启影子key，只在使用redis缓存时生效。
+     * 开启后写入redis时还会把数据写入一个影子key，影子key比数据多保留staleGraceSeconds秒。
+     * 从server加载失败时，影子key中有旧数据的key直接返回旧数据，并把旧数据按DBErrorStrategy的时间间隔写回redis，
+     * 再在后台按DBErrorStrategy的重试次数和时间间隔重新加载，成功后覆盖旧数据。
+     * 注意：影子key会让该缓存在redis中占用的空间翻倍。
+     * 默认返回0，表示不使用影子key，加载失败时按DBErrorStrategy处理。
+     */
+    protected long staleGraceSeconds() {
+        return 0;
+    }
+
+    /**
+     * 可以通过重写这个方法来开启请求内缓存，只在处理http请求的线程中（RequestContextHolder中有当前请求）生效。
+     * 开启后同一个请求内对同一个key的get/getAll只读取一次，结果（包括不存在）保存在request的属性中，请求结束后随request丢弃；
+     * getAll中本请求还没有读取过的key去重后一次批量读取。本请求内的put/delete会清除对应的结果，
+     * 其它请求或其它节点的修改在本请求内看不到，适用于一个请求内多处读取同一个对象的场景。
+     * 在请求线程中调用getAsync/getAllAsync时同样使用本请求的结果，读取在其它线程中完成后也会放入。
+     * 默认返回false。
+     */
+    protected boolean useRequestMemo() {
+        return false;
+    }
+
+    /**
+     * 可以通过重写这个方法来开启本地缓存的跨节点失效通知，一般返回注入的CacheInvalidationBus对象。
+     * 开启后在一个节点上put/delete/deleteAll，其它节点本地缓存中的对应数据也会被删除，
+     * 这样即使本地缓存容量较大也不会长时间读到旧数据。
+     * 默认实现是返回null，表示不通知其它节点。
+     */
+    protected CacheInvalidationBus getInvalidationBus() {
+        return null;
+    }
+
+    /**
+     * 可以通过重写这个方法来指定本地缓存的实现方式。
+     * 默认根据配置项cache.local.engine选择，guava表示使用guava，offheap表示使用堆外内存
+     * （容量由cache.local.offheap.capacity配置），其它值或不配置使用caffeine。
+     * 本地缓存数据量很大时可以单独重写为返回new OffHeapLocalCacheEngine(容量)，避免大量对象进入老年代。
+     */
+    protected LocalCacheEngine getLocalCacheEngine() {
+        if ("guava".equalsIgnoreCase(localCacheEngine)) {
+            return GuavaLocalCacheEngine.INSTANCE;
+        }
+
+        if ("offheap".equalsIgnoreCase(localCacheEngine)) {
+            return new OffHeapLocalCacheEngine(offHeapCapacity);
+        }
+
+        return CaffeineLocalCacheEngine.INSTANCE;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置执行本地缓存维护任务（淘汰、刷新等）的线程池，默认返回null，使用本地缓存实现方式自己的默认值。
+     */
+    protected Executor localCacheExecutor() {
+        return null;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置执行异步api（getAsync等）的线程池，默认使用所有缓存共用的有界线程池
+     */
+    protected Executor asyncExecutor() {
+        return CacheExecutors.ioExecutor();
+    }
+
+    /**
+     * 可以通过重写这个方法来开启启动预热，开启后需要同时重写warmUpKeys。
+     * 初始化完成后在后台按页取出需要预热的key，通过getAll批量加载（先读redis，redis中没有的调用batchLoadFromServer），
+     * 预热完成前CacheWarmUpRegistry.isReady返回false，可以用它或CacheReadinessController做应用的就绪检查，
+     * 预热出错时是否按就绪处理见warmUpFailureTolerated。
+     * 默认返回false，表示不预热。
+     */
+    protected boolean warmUpOnStartup() {
+        return false;
+    }
+
+    /**
+     * 开启启动预热时，返回第pageParam页需要预热的key，返回空或不足一页表示没有更多的key
+     */
+    protected List<K> warmUpKeys(PageParam pageParam) {
+        return null;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置启动预热时每页的key数量
+     */
+    protected int warmUpPageSize() {
+        return redisBatchSize();
+    }
+
+    /**
+     * 可以通过重写这个方法来设置启动预热时同时加载的页数
+     */
+    protected int warmUpParallelism() {
+        return 4;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置启动预热出错时是否按就绪处理。
+     * 返回true时预热出错后该缓存在CacheWarmUpRegistry中是DEGRADED，不阻塞就绪，没有预热到的数据在访问时再加载。
+     * 默认返回false，预热出错后是FAILED，CacheWarmUpRegistry.isReady一直返回false。
+     */
+    protected boolean warmUpFailureTolerated() {
+        return false;
+    }
+
+    /**
+     * 可以通过重写这个方法来开启本地缓存快照，返回快照文件，只在同时使用本地缓存和redis缓存时生效。
+     * 开启后每隔localSnapshotInterval秒和应用关闭时把本地缓存写入快照文件，启动时先从快照恢复本地缓存，
+     * 重启后立即可以命中，再在后台逐批和redis比对，redis中已经变化或不存在的数据从本地缓存删除。
+     * 默认在配置了cache.local.snapshot.dir时返回该目录下的"key前缀.snapshot"文件，否则返回null，表示不写快照。
+     */
+    protected File localSnapshotFile() {
+        if (StringUtils.isBlank(localSnapshotDir)) {
+            return null;
+        }
+
+        return new File(localSnapshotDir, getKeyPrefix() + ".snapshot");
+    }
+
+    /**
+     * 可以通过重写这个方法来设置写本地缓存快照的时间间隔，单位是秒
+     */
+    protected long localSnapshotInterval() {
+        return 300;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置数据在写入本地缓存后多久需要做一次刷新。
+     * 刷新是异步执行的，刷新完成前继续返回旧值，一小段时间内到期的key会合并成一次批量加载。
+     * 
+     * @return
+     */
+    public long refreshAfterWriteDuration() {
+        return UNSET_INT;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置合并异步刷新的时间窗口，单位毫秒
+     */
+    protected long refreshBatchWindowMillis() {
+        return 50;
+    }
+
+    /**
+     * 可以通过重写这个方法来设置执行异步刷新的线程池，默认使用所有缓存共用的有界线程池
+     */
+    protected Executor refreshExecutor() {
+        return CacheExecutors.refreshExecutor();
+    }
+
+    /**
+     * 批量读取的公共实现，原始key、真实key和结果使用下标一一对应的数组，不存在的key对应null。
+     * memo是请求内缓存，null表示不使用。
+     */
+    @SuppressWarnings("unchecked")
+    private Object[] getAllValues(Object[] originalKeys, Map<String, Object> memo) {
+        String[] realKeys = new String[originalKeys.length];
+        for (int i = 0; i < originalKeys.length; i++) {
+            realKeys[i] = getRealKey((K) originalKeys[i]);
+        }
+
+        getMetrics().recordBatchSize(originalKeys.length);
+
+        if (memo == null) {
+            return getAllValues(originalKeys, realKeys);
+        }
+
+        // 本请求内已经读取过的key直接使用之前的结果，其余的key去重后一次批量读取
+        Map<String, Object> memoValues = new HashMap<>(originalKeys.length * 4 / 3 + 1);
+        Map<String, Object> missingKeys = new LinkedHashMap<>();
+        for (int i = 0; i < originalKeys.length; i++) {
+            Object memoValue = memo.get(realKeys[i]);
+            if (memoValue != null) {
+                memoValues.put(realKeys[i], memoValue);
+            }
+            else {
+                missingKeys.put(realKeys[i], originalKeys[i]);
+            }
+        }
+
+        if (!missingKeys.isEmpty()) {
+            String[] missingRealKeys = missingKeys.keySet().toArray(new String[missingKeys.size()]);
+            Object[] loadedValues = getAllValues(missingKeys.values().toArray(), missingRealKeys);
+            for (int i = 0; i < missingRealKeys.length; i++) {
+                Object memoValue = loadedValues[i] == null ? NONE_DATA : loadedValues[i];
+                memo.put(missingRealKeys[i], memoValue);
+                memoValues.put(missingRealKeys[i], memoValue);
+            }
+        }
+
+        Object[] values = new Object[originalKeys.length];
+        for (int i = 0; i < originalKeys.length; i++) {
+            values[i] = noneDataToNull(memoValues.get(realKeys[i]));
+        }
+
+        return values;
+    }
+
+    private Object[] getAllValues(Object[] originalKeys, String[] realKeys) {
+        Object[] values = new Object[originalKeys.length];
+        if (isUseLocalCache()) {
+            getAllFromLocal(realKeys, values);
+        }
+        else {
+            getAllFromRedisOrServer(originalKeys, realKeys, values);
+        }
+
+        return values;
+    }
+
+    private void getAllFromLocal(String[] realKeys, Object[] values) {
+        List<String> lookupKeys = new ArrayList<>(realKeys.length);
+        for (String realKey : realKeys) {
+            if (!isNoneDataInLocal(realKey)) {
+                lookupKeys.add(realKey);
+            }
+        }
+
+        if (lookupKeys.isEmpty()) {
+            return;
+        }
+
+        Map<String, V> tempMap;
+        try {
+            getMetrics().recordLocalRequests(lookupKeys.size());
+            tempMap = cache.getAll(lookupKeys);
+        }
+        catch (Exception e) {
+            return;
+        }
+
+        if (MapUtils.isNotEmpty(tempMap)) {
+            for (int i = 0; i < realKeys.length; i++) {
+                values[i] = tempMap.get(realKeys[i]);
+            }
+        }
+    }
+
+    /**
+     * 合并单个key读取时使用，返回结果中只包含有数据的key
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, V> getAllFromRedisOrServer(List<String> keys) {
+        String[] realKeys = keys.toArray(new String[keys.size()]);
+        Object[] originalKeys = new Object[realKeys.length];
+        for (int i = 0; i < realKeys.length; i++) {
+            originalKeys[i] = restoreToOrigKey(realKeys[i]);
+        }
+
+        Object[] values = new Object[realKeys.length];
+        getAllFromRedisOrServer(originalKeys, realKeys, values);
+
+        Map<String, V> loadedMap = new HashMap<>(realKeys.length * 4 / 3 + 1);
+        for (int i = 0; i < realKeys.length; i++) {
+            if (values[i] != null) {
+                loadedMap.put(realKeys[i], (V) values[i]);
+            }
+        }
+
+        return loadedMap;
+    }
+
+    /**
+     * 只使用redis缓存时的批量读取，redis中没有的key批量从server加载
+     */
+    @SuppressWarnings("unchecked")
+    private void getAllFromRedisOrServer(Object[] originalKeys, String[] realKeys,
+                                         Object[] values) {
+        // 热点key从本地读取，其余的下标放入lookupIndexes，lookupIndexes为null表示全部从redis读取
+        List<String> lookupKeys = Arrays.asList(realKeys);
+        int[] lookupIndexes = null;
+        if (hotKeyDetector != null) {
+            lookupKeys = new ArrayList<>(realKeys.length);
+            lookupIndexes = new int[realKeys.length];
+            for (int i = 0; i < realKeys.length; i++) {
+                V value = hotKeyDetector.getIfPresent(realKeys[i]);
+                if (value != null) {
+                    values[i] = value;
+                }
+                else {
+                    lookupIndexes[lookupKeys.size()] = i;
+                    lookupKeys.add(realKeys[i]);
+                }
+            }
+        }
+
+        int[] missingIndexes = new int[lookupKeys.size()];
+        int missingCount = 0;
+        if (!lookupKeys.isEmpty()) {
+            List<Object> redisValues = multiGetFromRedis(lookupKeys);
+            for (int j = 0; j < lookupKeys.size(); j++) {
+                int i = lookupIndexes == null ? j : lookupIndexes[j];
+                Object value = redisValues.get(j);
+                if (value == null) {
+                    missingIndexes[missingCount++] = i;
+                }
+                else if (value != NONE_DATA) {
+                    values[i] = value;
+                }
+            }
+        }
+
+        if (missingCount > 0) {
+            loadMissingFromServer(originalKeys, realKeys, values, missingIndexes, missingCount);
+        }
+
+        if (hotKeyDetector != null) {
+            for (int i = 0; i < realKeys.length; i++) {
+                recordHotKey(realKeys[i], (V) values[i]);
+            }
+        }
+    }
+
+    /**
+     * 批量从server加载redis中没有的key，已经被其它线程加载中的key直接等待其结果
+     */
+    @SuppressWarnings("unchecked")
+    private void loadMissingFromServer(Object[] originalKeys, String[] realKeys, Object[] values,
+                                       int[] missingIndexes, int missingCount) {
+        List<String> missingKeys = new ArrayList<>(missingCount);
+        for (int j = 0; j < missingCount; j++) {
+            missingKeys.add(realKeys[missingIndexes[j]]);
+        }
+
+        List<CompletableFuture<V>> futures = new ArrayList<>(missingCount);
+        BitSet claimed = inFlightLoads.claim(missingKeys, futures);
+        if (!claimed.isEmpty()) {
+            int claimedCount = claimed.cardinality();
+            List<String> loadKeys = new ArrayList<>(claimedCount);
+            List<K> loadOriginalKeys = new ArrayList<>(claimedCount);
+            for (int j = claimed.nextSetBit(0); j >= 0; j = claimed.nextSetBit(j + 1)) {
+                loadKeys.add(missingKeys.get(j));
+                loadOriginalKeys.add((K) originalKeys[missingIndexes[j]]);
+            }
+
+            Map<String, V> loadedMap;
+            try {
+                loadedMap = batchLoadFromServerAndSetToRedis(loadKeys, loadOriginalKeys);
+            }
+            catch (Throwable e) {
+                inFlightLoads.fail(missingKeys, futures, claimed, e);
+                throw Throwables.propagate(e);
+            }
+
+            inFlightLoads.complete(missingKeys, futures, claimed, loadedMap);
+        }
+
+        for (int j = 0; j < missingCount; j++) {
+            values[missingIndexes[j]] = InFlightRegistry.join(futures.get(j));
+        }
+    }
+
+    /**
+     * 从快照恢复本地缓存，再定时写快照
+     */
+    @SuppressWarnings("unchecked")
+    private void initLocalSnapshot() {
+        File file = localSnapshotFile();
+        if (file == null || !isUseRedisCache()) {
+            return;
+        }
+
+        RedisTemplate<String, V> redisTemplate = getRedisTemplate();
+        snapshotStore = new LocalSnapshotStore<>(file, getKeyPrefix() + keySeparator, cache,
+            (RedisSerializer<V>) redisTemplate.getValueSerializer(), getRedisBatch(),
+            (RedisSerializer<String>) redisTemplate.getKeySerializer(), redisBatchSize());
+        snapshotStore.restore();
+        snapshotStore.schedule(localSnapshotInterval());
+    }
+
+    @PreDestroy
+    private void destroyCache() {
+        if (writeBehindBuffer != null) {
+            writeBehindBuffer.close();
+        }
+
+        if (bufferedCounters != null) {
+            bufferedCounters.close();
+        }
+
+        if (snapshotStore != null) {
+            snapshotStore.write();
+        }
+    }
+
+    /**
+     * 在后台线程中执行启动预热，预热结束前该缓存在CacheWarmUpRegistry中的状态是未就绪
+     */
+    private void startWarmUp() {
+        new CacheWarmUp<>(getKeyPrefix(), new CacheWarmUp.PageLoader<K>() {
+            @Override
+            public List<K> keys(PageParam pageParam) {
+                return warmUpKeys(pageParam);
+            }
+
+            @Override
+            public void load(List<K> keys) {
+                getAll(keys);
+            }
+        }, warmUpPageSize(), warmUpParallelism(), warmUpFailureTolerated(),
+            CacheExecutors.warmUpExecutor()).start();
+    }
+
+    private K restoreToOrigKey(String realKey) {
+        return restoreToOriginalKey(StringUtils.substringAfterLast(realKey, keySeparator));
+    }
+
+    /**
+     * 从server加载单个对象并写入redis，同一个key的并发加载只会执行一次，其它线程共享加载结果。
+     */
+    private V loadFromServerAndSetToRedis(final String realKey) {
+        return inFlightLoads.load(realKey, new Callable<V>() {
+            @Override
+            public V call() throws Exception {
+                V value = null;
+                Map<String, byte[]> leases = acquireWriteLeases(Arrays.asList(realKey));
+                long start = System.nanoTime();
+                try {
+                    value = doLoadFromServer(realKey);
+                    recordLoadCost(start);
+                    getMetrics().recordLoad(start, true);
+                }
+                catch (RuntimeException e) {
+                    getMetrics().recordLoad(start, false);
+                    logger.error("load data from server error,key = " + realKey, e);
+
+                    Map<String, V> staleMap = serveStale(Arrays.asList(realKey),
+                        Arrays.asList(restoreToOrigKey(realKey)), leases, false);
+                    if (!staleMap.isEmpty()) {
+                        return staleMap.get(realKey);
+                    }
+
+                    DBErrorStrategy dbErrorStrategy = getDBErrorStrategy();
+                    if (dbErrorStrategy == null) {
+                        throw e;
+                    }
+
+                    boolean repaired = false;
+                    for (long i = 0; i < dbErrorStrategy.retryTimes() && !repaired
+                                    && backoffBeforeRetry(i); i++) {
+                        try {
+                            value = doLoadFromServer(realKey);
+                            repaired = true;
+                        }
+                        catch (RuntimeException e1) {
+                            logger.error("load data from server error,key = {},retryTimes = {}",
+                                realKey, i + 1);
+                        }
+                    }
+
+                    // 经过重试，数据库未恢复，则在缓存中放入无效参数，到了时间间隔后失效重试
+                    if (!repaired) {
+                        setNoneData(Arrays.asList(realKey), dbErrorStrategy.nextRetryInterval(),
+                            leases);
+                        return null;
+                    }
+                }
+
+                NoneDataStrategy noneDataStrategy;
+                if (value != null) {
+                    if (leases != null) {
+                        setToRedisIfLeased(Collections.singletonMap(realKey, value), leases);
+                    }
+                    else if (isUseRedisCache()) {
+                        setToRedis(realKey, value);
+                        setStaleToRedis(Collections.singletonMap(realKey, value));
+                    }
+                }
+                else if ((noneDataStrategy = getNoneDataStrategy()) != null) {
+                    // 数据库中无数据，则在缓存中放入无效参数，再根据策略设置失效时间
+                    setNoneData(Arrays.asList(realKey), noneDataStrategy.nextRetryInterval(),
+                        leases);
+                }
+
+                return value;
+            }
+        });
+    }
+
+    /**
+     * 在asyncExecutor中执行task，线程池已满时返回以RejectedExecutionException结束的future
+     */
+    private <T> CompletableFuture<T> supplyAsync(final Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            asyncExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        future.complete(task.call());
+                    }
+                    catch (Throwable e) {
+                        future.completeExceptionally(e);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            future.completeExceptionally(e);
+        }
+
+        return future;
+    }
+
+    /**
+     * 在后台提前从server刷新redis中的数据，该key已经在加载中或线程池已满时跳过
+     */
+    private void refreshEarly(final String realKey) {
+        if (inFlightLoads.isLoading(realKey)) {
+            return;
+        }
+
+        try {
+            refreshExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        loadFromServerAndSetToRedis(realKey);
+                    }
+                    catch (Throwable e) {
+                        logger.error("refresh data from server error,key = " + realKey, e);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // 线程池已满，本次不提前刷新
+        }
+    }
+
+    private boolean shouldRefreshEarly(Long ttlMillis) {
+        return shouldRefreshEarly(ttlMillis, loadCostMillis, earlyExpirationBeta(),
+            1 - ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * XFetch算法：-加载耗时 * beta * ln(随机数) >= 剩余失效时间 时提前刷新，random的取值范围是(0, 1]
+     */
+    static boolean shouldRefreshEarly(Long ttlMillis, long loadCostMillis, double beta,
+                                      double random) {
+        if (ttlMillis == null || ttlMillis < 0) {
+            // 没有设置失效时间或key已经不存在
+            return false;
+        }
+
+        return -loadCostMillis * beta * Math.log(random) >= ttlMillis;
+    }
+
+    /**
+     * 第attempt+1次重试前按dbErrorRetryBackoffMillis等待，等待时被中断返回false，不再重试
+     */
+    private boolean backoffBeforeRetry(long attempt) {
+        long backoffMillis = dbErrorRetryBackoffMillis();
+        if (backoffMillis <= 0) {
+            return true;
+        }
+
+        long delayMillis = Math.min(backoffMillis << Math.min(attempt, 20), 1000)
+                           + ThreadLocalRandom.current().nextLong(backoffMillis + 1);
+        try {
+            Thread.sleep(delayMillis);
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void recordLoadCost(long startNanos) {
+        long cost = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        long current = loadCostMillis;
+        loadCostMillis = current == 0 ? cost : (current * 7 + cost) / 8;
+    }
+
+    /**
+     * 批量从server加载数据并写入redis，数据库异常或无数据时按照对应的策略放入无效参数。
+     * originalKeys是和realKeys顺序一致的原始key，由调用方传入，不需要再从真实key解析
+     */
+    private Map<String, V> batchLoadFromServerAndSetToRedis(List<String> realKeys,
+                                                            List<K> originalKeys) {
+        Map<String, V> loadedMap = null;
+        Map<String, V> staleMap = Collections.emptyMap();
+        Map<String, byte[]> leases = acquireWriteLeases(realKeys);
+        long start = System.nanoTime();
+        try {
+            loadedMap = doBatchLoadFromServer(originalKeys);
+            recordLoadCost(start);
+            getMetrics().recordLoad(start, true);
+        }
+        catch (RuntimeException e) {
+            getMetrics().recordLoad(start, false);
+            logger.error("batch load data from server error,keys = " + realKeys, e);
+
+            staleMap = serveStale(realKeys, originalKeys, leases, true);
+            if (staleMap.size() == realKeys.size()) {
+                return staleMap;
+            }
+
+            if (!staleMap.isEmpty()) {
+                // 有旧数据的key返回旧数据，其余的key继续按DBErrorStrategy处理
+                List<String> remainingKeys = new ArrayList<>(realKeys.size() - staleMap.size());
+                List<K> remainingOriginalKeys = new ArrayList<>(remainingKeys.size());
+                for (int i = 0; i < realKeys.size(); i++) {
+                    if (!staleMap.containsKey(realKeys.get(i))) {
+                        remainingKeys.add(realKeys.get(i));
+                        remainingOriginalKeys.add(originalKeys.get(i));
+                    }
+                }
+                realKeys = remainingKeys;
+                originalKeys = remainingOriginalKeys;
+            }
+
+            DBErrorStrategy dbErrorStrategy = getDBErrorStrategy();
+            if (dbErrorStrategy == null) {
+                throw e;
+            }
+
+            boolean repaired = false;
+            for (long i = 0; i < dbErrorStrategy.retryTimes() && !repaired
+                            && backoffBeforeRetry(i); i++) {
+                try {
+                    loadedMap = doBatchLoadFromServer(originalKeys);
+                    repaired = true;
+                }
+                catch (RuntimeException e1) {
+                    logger.error("batch load data from server error,keys = {},retryTimes = {}",
+                        realKeys, i + 1);
+                }
+            }
+
+            // 经过重试，数据库未恢复，则在缓存中放入无效参数，到了时间间隔后失效重试
+            if (!repaired) {
+                setNoneData(realKeys, dbErrorStrategy.nextRetryInterval(), leases);
+                return staleMap.isEmpty() ? null : staleMap;
+            }
+        }
+
+        if (MapUtils.isNotEmpty(loadedMap)) {
+            if (leases != null) {
+                setToRedisIfLeased(loadedMap, leases);
+            }
+            else if (isUseRedisCache()) {
+                setToRedis(loadedMap);
+                setStaleToRedis(loadedMap);
+            }
+        }
+        else if (loadedMap == null && !isUseLocalCache()) {
+            List<Object> values = multiGetFromRedis(realKeys);
+            for (int index = (realKeys.size() - 1); index >= 0; index--) {
+                Object value = values.get(index);
+                if (value != null && value != NONE_DATA) {
+                    if (loadedMap == null) {
+                        loadedMap = new HashMap<>(realKeys.size());
+                    }
+                    loadedMap.put(realKeys.get(index), noneDataToNull(value));
+                }
+            }
+        }
+
+        NoneDataStrategy noneDataStrategy = getNoneDataStrategy();
+        if (noneDataStrategy != null) {
+            // 数据库中无数据的key，在缓存中放入无效参数，再根据策略设置失效时间
+            List<String> noneDataKeys = new ArrayList<>();
+            for (String realKey : realKeys) {
+                if (loadedMap == null || !loadedMap.containsKey(realKey)) {
+                    noneDataKeys.add(realKey);
+                }
+            }
+
+            if (!noneDataKeys.isEmpty()) {
+                setNoneData(noneDataKeys, noneDataStrategy.nextRetryInterval(), leases);
+            }
+        }
+
+        if (!staleMap.isEmpty()) {
+            if (loadedMap == null) {
+                loadedMap = new HashMap<>(staleMap.size());
+            }
+            loadedMap.putAll(staleMap);
+        }
+
+        return loadedMap;
+    }
+
+    /**
+     * 从server加载失败时，读取影子key中的旧数据，返回有旧数据的key到旧数据的映射，没有开启影子key时返回空map。
+     * 有DBErrorStrategy时，旧数据按重试间隔写回redis，在重试间隔内其它请求直接读到旧数据而不再访问数据库，
+     * 同时在后台按重试次数和间隔重新加载，batch表示使用batchLoadFromServer还是loadFromServer加载。
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, V> serveStale(List<String> realKeys, List<K> originalKeys,
+                                      Map<String, byte[]> leases, boolean batch) {
+        if (!isUseStaleCache()) {
+            return Collections.emptyMap();
+        }
+
+        List<byte[]> rawValues;
+        try {
+            rawValues = getStaleStore().get(realKeys);
+        }
+        catch (RuntimeException e) {
+            logger.error("get stale data from redis error,keys = " + realKeys, e);
+            return Collections.emptyMap();
+        }
+
+        RedisSerializer<V> valueSerializer = (RedisSerializer<V>) getRedisTemplate()
+            .getValueSerializer();
+        Map<String, V> staleMap = new HashMap<>();
+        Map<String, byte[]> staleRawValues = new LinkedHashMap<>();
+        List<K> retryOriginalKeys = new ArrayList<>();
+        for (int i = 0; i < realKeys.size(); i++) {
+            byte[] rawValue = rawValues.get(i);
+            if (rawValue == null) {
+                continue;
+            }
+
+            String realKey = realKeys.get(i);
+            staleMap.put(realKey, valueSerializer.deserialize(rawValue));
+            if (getStaleStore().startRetry(realKey)) {
+                staleRawValues.put(realKey, rawValue);
+                retryOriginalKeys.add(originalKeys.get(i));
+            }
+        }
+
+        if (staleMap.isEmpty()) {
+            return staleMap;
+        }
+
+        getMetrics().recordStaleServes(staleMap.size());
+        logger.warn("serve stale data after load error,keys = {}", staleMap.keySet());
+
+        if (staleRawValues.isEmpty()) {
+            // 这些key已经在后台重试中
+            return staleMap;
+        }
+
+        DBErrorStrategy dbErrorStrategy = getDBErrorStrategy();
+        if (dbErrorStrategy == null || dbErrorStrategy.nextRetryInterval() <= 0) {
+            getStaleStore().finishRetry(staleRawValues.keySet());
+            return staleMap;
+        }
+
+        long retryMillis = TimeUnit.SECONDS.toMillis(dbErrorStrategy.nextRetryInterval());
+        if (leases != null) {
+            setRawToRedisIfLeased(staleRawValues, leases, retryMillis, false);
+        }
+        else {
+            setRawToRedis(staleRawValues, retryMillis);
+        }
+
+        scheduleStaleRetry(new ArrayList<>(staleRawValues.keySet()), retryOriginalKeys, batch, 1);
+        return staleMap;
+    }
+
+    /**
+     * 在DBErrorStrategy的时间间隔后重新加载返回了旧数据的key，attempt是第几次重试，超过重试次数后不再重试
+     */
+    private void scheduleStaleRetry(final List<String> realKeys, final List<K> originalKeys,
+                                    final boolean batch, final long attempt) {
+        DBErrorStrategy dbErrorStrategy = getDBErrorStrategy();
+        if (dbErrorStrategy == null || attempt > dbErrorStrategy.retryTimes()) {
+            getStaleStore().finishRetry(realKeys);
+            return;
+        }
+
+        try {
+            CacheExecutors.scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        refreshExecutor().execute(new Runnable() {
+                            @Override
+                            public void run() {
+                                retryStaleLoad(realKeys, originalKeys, batch, attempt);
+                            }
+                        });
+                    }
+                    catch (RejectedExecutionException e) {
+                        // 线程池已满，算作一次失败
+                        scheduleStaleRetry(realKeys, originalKeys, batch, attempt + 1);
+                    }
+                }
+            }, dbErrorStrategy.nextRetryInterval(), TimeUnit.SECONDS);
+        }
+        catch (RejectedExecutionException e) {
+            getStaleStore().finishRetry(realKeys);
+        }
+    }
+
+    private void retryStaleLoad(List<String> realKeys, List<K> originalKeys, boolean batch,
+                                long attempt) {
+        Map<String, V> loadedMap;
+        Map<String, byte[]> leases = acquireWriteLeases(realKeys);
+        long start = System.nanoTime();
+        try {
+            if (batch) {
+                loadedMap = doBatchLoadFromServer(originalKeys);
+            }
+            else {
+                V value = doLoadFromServer(realKeys.get(0));
+                loadedMap = value == null ? null : Collections.singletonMap(realKeys.get(0), value);
+            }
+            recordLoadCost(start);
+            getMetrics().recordLoad(start, true);
+        }
+        catch (Throwable e) {
+            getMetrics().recordLoad(start, false);
+            logger.error("retry load data from server error,keys = {},retryTimes = {}", realKeys,
+                attempt);
+            scheduleStaleRetry(realKeys, originalKeys, batch, attempt + 1);
+            return;
+        }
+
+        try {
+            List<String> missingKeys = new ArrayList<>();
+            for (String realKey : realKeys) {
+                if (loadedMap == null || !loadedMap.containsKey(realKey)) {
+                    missingKeys.add(realKey);
+                }
+            }
+
+            if (MapUtils.isNotEmpty(loadedMap)) {
+                if (leases != null) {
+                    setToRedisIfLeased(loadedMap, leases);
+                }
+                else {
+                    setToRedis(loadedMap);
+                    setStaleToRedis(loadedMap);
+                }
+            }
+
+            if (!missingKeys.isEmpty()) {
+                // 数据库中已经没有数据，写回的旧数据也要删除
+                NoneDataStrategy noneDataStrategy = getNoneDataStrategy();
+                if (noneDataStrategy != null) {
+                    setNoneData(missingKeys, noneDataStrategy.nextRetryInterval(), leases);
+                }
+                else {
+                    deleteFromRedis(missingKeys);
+                }
+                deleteFromRedis(getStaleStore().getStaleKeys(missingKeys));
+            }
+
+            invalidateInLocal(realKeys);
+            publishInvalidation(realKeys);
+        }
+        catch (Throwable e) {
+            logger.error("set retry loaded data to redis error,keys = " + realKeys, e);
+        }
+        finally {
+            getStaleStore().finishRetry(realKeys);
+        }
+    }
+
+    protected V doLoadFromServer(String key) {
+        return loadFromServer(restoreToOrigKey(key));
+    }
+
+    protected Map<String, V> doBatchLoadFromServer(List<K> keys) {
+        Map<K, V> tempMap = batchLoadFromServer(keys);
+        Map<String, V> retMap = null;
+        if (MapUtils.isNotEmpty(tempMap)) {
+            retMap = new HashMap<>(tempMap.size());
+            for (Entry<K, V> entry : tempMap.entrySet()) {
+                if (entry.getValue() != null)
+                    retMap.put(getRealKey(entry.getKey()), entry.getValue());
+            }
+        }
+
+        return retMap;
+    }
+
+    protected LocalCache<V> cache;
+
+    /**
+     * 该key前缀的缓存指标，第一次使用时从CacheMetricsRegistry获取
+     */
+    protected CacheMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = CacheMetricsRegistry.getOrCreate(getKeyPrefix());
+        }
+
+        return metrics;
+    }
+
+    protected String getRealKey(K key) {
+        return getKeyPrefix() + keySeparator + key;
+    }
+
+    private boolean isUseLocalCache() {
+        return getMaximumSize() > 0 || getMaximumWeightBytes() > 0;
+    }
+
+    private boolean isUseRedisCache() {
+        return getRedisTemplate() != null;
+    }
+
+    private boolean isUseNoneDataCache() {
+        return getNoneDataStrategy() != null || getDBErrorStrategy() != null;
+    }
+
+    /**
+     * 记录一次从redis或server读取，达到热点阈值时放入热点本地缓存
+     */
+    private void recordHotKey(String realKey, V value) {
+        if (hotKeyDetector != null && hotKeyDetector.record(realKey) && value != null) {
+            hotKeyDetector.promote(realKey, value);
+        }
+    }
+
+    /**
+     * 通知其它节点删除本地缓存中的这些key
+     */
+    private void publishInvalidation(Collection<String> realKeys) {
+        CacheInvalidationBus invalidationBus;
+        if (isUseLocalCache() && (invalidationBus = getInvalidationBus()) != null) {
+            invalidationBus.publish(getKeyPrefix(), realKeys);
+        }
+    }
+
+    @PostConstruct
+    private void initCache() {
+        if (isUseRedisCache()
+            && getRedisTemplate().getValueSerializer() instanceof FastJsonRedisSerializer) {
+            getMetrics().setCompressionStats(
+                ((FastJsonRedisSerializer<?>) getRedisTemplate().getValueSerializer())
+                    .getCompressionStats());
+        }
+
+        if (isUseLocalCache()) {
+            initLocalCache();
+            initLocalSnapshot();
+        }
+        else {
+            initRedisOnlyCache();
+        }
+
+        initWriteMode();
+
+        if (bufferedCounter() && isUseRedisCache()) {
+            bufferedCounters = new BufferedCounters(getRedisTemplate(), getRedisBatch(),
+                counterFlushInterval(), counterFlushThreshold(), CacheExecutors.ioExecutor());
+        }
+
+        if (warmUpOnStartup()) {
+            startWarmUp();
+        }
+    }
+
+    /**
+     * 按writeMode初始化put时写入server需要的队列或锁
+     */
+    private void initWriteMode() {
+        WriteMode writeMode = writeMode();
+        if (writeMode == WriteMode.WRITE_THROUGH) {
+            writeThroughLocks = Striped.lock(64);
+        }
+        else if (writeMode == WriteMode.WRITE_BEHIND) {
+            writeBehindBuffer = new WriteBehindBuffer<>(new WriteBehindBuffer.BatchWriter<K, V>() {
+                @Override
+                public void write(Map<K, V> entries) throws Exception {
+                    batchWriteToServer(entries);
+                }
+            }, writeBehindFlushInterval(), writeBehindBatchSize(), writeBehindMaxPending(),
+                writeBehindMaxBlockMillis(), CacheExecutors.ioExecutor());
+        }
+    }
+
+    /**
+     * 只使用redis缓存时的初始化：热点key探测和单个key读取的合并
+     */
+    private void initRedisOnlyCache() {
+        if (hotKeyThreshold() > UNSET_INT && isUseRedisCache()) {
+            hotKeyDetector = new HotKeyDetector<>(hotKeyThreshold(), hotKeySampleRate(), 1000,
+                hotKeyExpireMillis(), hotKeyMaximumSize());
+            getMetrics().setHotKeyDetector(hotKeyDetector);
+        }
+
+        if (batchGetMisses() && isUseRedisCache()) {
+            getBatchDispatcher = new BatchLoadDispatcher<>(new BatchLoadDispatcher.BatchLoader<V>() {
+                @Override
+                public Map<String, V> load(List<String> keys) throws Exception {
+                    return getAllFromRedisOrServer(keys);
+                }
+            }, getBatchWindowMillis(), getBatchMaxSize(), asyncExecutor());
+        }
+    }
+
+    /**
+     * 使用本地缓存时的初始化：创建本地缓存并注册跨节点失效通知
+     */
+    private void initLocalCache() {
+        if (isUseNoneDataCache()) {
+            noneDataCache = CacheBuilder.newBuilder()
+                .maximumSize(getMaximumSize() > 0 ? getMaximumSize() : 10000).build();
+        }
+
+        LocalCacheSpec spec = new LocalCacheSpec();
+        spec.setMaximumSize(getMaximumSize());
+        if (getMaximumWeightBytes() > 0) {
+            spec.setMaximumWeight(getMaximumWeightBytes());
+            spec.setWeigher(new LocalCacheSpec.Weigher() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public int weigh(String key, Object value) {
+                    return weighLocalEntry(key, (V) value);
+                }
+            });
+        }
+        spec.setExecutor(localCacheExecutor());
+        if (isUseRedisCache()) {
+            spec.setValueSerializer(getRedisTemplate().getValueSerializer());
+        }
+        spec.setEvictionListener(new LocalCacheSpec.EvictionListener() {
+            @Override
+            public void onEviction(String key) {
+                getMetrics().recordEviction();
+            }
+        });
+        if (refreshAfterWriteDuration() > UNSET_INT) {
+            spec.setRefreshAfterWriteDuration(refreshAfterWriteDuration());
+            refreshDispatcher = new BatchLoadDispatcher<>(new BatchLoadDispatcher.BatchLoader<V>() {
+                @Override
+                public Map<String, V> load(List<String> keys) throws Exception {
+                    Map<String, V> loadedMap = loadAllToLocal(keys);
+                    // 批量加载中没有的key（比如子类没有实现batchLoadFromServer）再逐个加载
+                    for (String key : keys) {
+                        if (!loadedMap.containsKey(key)) {
+                            V value = loadToLocal(key);
+                            if (value != null) {
+                                loadedMap.put(key, value);
+                            }
+                        }
+                    }
+
+                    return loadedMap;
+                }
+            }, refreshBatchWindowMillis(), redisBatchSize(), refreshExecutor());
+        }
+
+        cache = getLocalCacheEngine().build(spec, new LocalCacheLoader<V>() {
+            @Override
+            public V load(String key) throws Exception {
+                getMetrics().recordLocalMisses(1);
+                return loadToLocal(key);
+            }
+
+            @Override
+            public Map<String, V> loadAll(Collection<String> keys) throws Exception {
+                getMetrics().recordLocalMisses(keys.size());
+                return loadAllToLocal(keys);
+            }
+
+            @Override
+            public CompletableFuture<V> reload(String key, V oldValue) {
+                return refreshDispatcher.submit(key);
+            }
+        });
+        getMetrics().setLocalCache(cache);
+
+        CacheInvalidationBus invalidationBus = getInvalidationBus();
+        if (invalidationBus != null) {
+            invalidationBus.register(getKeyPrefix(), new CacheInvalidationBus.Listener() {
+                @Override
+                public void onInvalidate(Collection<String> realKeys) {
+                    cache.invalidateAll(realKeys);
+                    if (noneDataCache != null) {
+                        noneDataCache.invalidateAll(realKeys);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * 本地缓存不存在时加载单个对象，先读redis，redis中没有再从server加载
+     */
+    @SuppressWarnings("unchecked")
+    private V loadToLocal(String key) {
+        Object value = null;
+        if (isUseRedisCache()) {
+            value = getFromRedis(key);
+        }
+
+        if (value == NONE_DATA) {
+            // redis中是无效参数，本地也记录下来，返回null由调用方按不存在处理
+            NoneDataStrategy noneDataStrategy = getNoneDataStrategy();
+            if (noneDataStrategy != null) {
+                setNoneDataToLocal(Arrays.asList(key), noneDataStrategy.nextRetryInterval());
+            }
+            return null;
+        }
+
+        if (value == null) {
+            value = loadFromServerAndSetToRedis(key);
+        }
+
+        return (V) value;
+    }
 
     /**
-     * 可以通过重写这个方法来设置redis缓存的失效时间，单位是秒
-     * 
-     * @param strKey
-     * @return
+     * 本地缓存不存在时批量加载，先读redis，redis中没有的再批量从server加载
      */
-    protected long redisExpireDuration() {
-        return UNSET_INT;
+    @SuppressWarnings("unchecked")
+    private Map<String, V> loadAllToLocal(Collection<String> keys) {
+        String[] realKeys = keys.toArray(new String[keys.size()]);
+        Map<String, V> retMap = new HashMap<>(realKeys.length * 4 / 3 + 1);
+
+        // redis中没有的key，本地缓存只有真实key，原始key只对这些key解析一次
+        List<String> missingKeys = new ArrayList<>(realKeys.length);
+        List<K> missingOriginalKeys = new ArrayList<>(realKeys.length);
+        List<String> noneDataKeys = null;
+        List<Object> values = isUseRedisCache() ? multiGetFromRedis(Arrays.asList(realKeys))
+            : null;
+        for (int i = 0; i < realKeys.length; i++) {
+            Object value = values == null ? null : values.get(i);
+            if (value == null) {
+                missingKeys.add(realKeys[i]);
+                missingOriginalKeys.add(restoreToOrigKey(realKeys[i]));
+            }
+            else if (value != NONE_DATA) {
+                retMap.put(realKeys[i], (V) value);
+            }
+            else {
+                if (noneDataKeys == null) {
+                    noneDataKeys = new ArrayList<>();
+                }
+                noneDataKeys.add(realKeys[i]);
+            }
+        }
+
+        NoneDataStrategy noneDataStrategy;
+        if (noneDataKeys != null && (noneDataStrategy = getNoneDataStrategy()) != null) {
+            setNoneDataToLocal(noneDataKeys, noneDataStrategy.nextRetryInterval());
+        }
+
+        if (!missingKeys.isEmpty()) {
+            Map<String, V> tempMap = batchLoadFromServerAndSetToRedis(missingKeys,
+                missingOriginalKeys);
+            if (MapUtils.isNotEmpty(tempMap)) {
+                retMap.putAll(tempMap);
+            }
+        }
+
+        return retMap;
+    }
+
+    private void setToRedis(String key, V value) {
+        long expireMillis = getRedisExpireMillis();
+        if (expireMillis > UNSET_INT) {
+            getRedisTemplate().opsForValue().set(key, value, jitter(expireMillis),
+                TimeUnit.MILLISECONDS);
+        }
+        else {
+            getRedisTemplate().opsForValue().set(key, value);
+        }
     }
 
     /**
-     * 可以通过重写这个方法来设置redis失效时间点
+     * 批量写入redis，按redisBatchSize分批通过pipeline发送（cluster下逐条发送），设置了失效时间时每个key使用带过期时间的SET。
      */
-    protected Date redisExpireAt() {
-        return null;
+    @SuppressWarnings("unchecked")
+    private void setToRedis(Map<String, V> entryMap) {
+        RedisTemplate<String, V> redisTemplate = getRedisTemplate();
+        final RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate
+            .getKeySerializer();
+        final RedisSerializer<V> valueSerializer = (RedisSerializer<V>) redisTemplate
+            .getValueSerializer();
+        final long expireMillis = getRedisExpireMillis();
+
+        for (final List<Entry<String, V>> entries : Iterables.partition(entryMap.entrySet(),
+            redisBatchSize())) {
+            getRedisBatch().execute(new RedisBatchOperations.BatchCallback() {
+                @Override
+                public void doInRedis(RedisConnection connection, List<Object> results) {
+                    if (expireMillis > UNSET_INT) {
+                        for (Entry<String, V> entry : entries) {
+                            connection.set(keySerializer.serialize(entry.getKey()),
+                                valueSerializer.serialize(entry.getValue()),
+                                Expiration.milliseconds(jitter(expireMillis)), SetOption.UPSERT);
+                        }
+                    }
+                    else {
+                        Map<byte[], byte[]> tuples = new LinkedHashMap<>(entries.size());
+                        for (Entry<String, V> entry : entries) {
+                            tuples.put(keySerializer.serialize(entry.getKey()),
+                                valueSerializer.serialize(entry.getValue()));
+                        }
+                        connection.mSet(tuples);
+                    }
+                }
+            });
+        }
     }
 
     /**
-     * 从server读取单个对象，子类实现，沒有就返回null
-     * @param key
-     * @return
+     * 从redis读取单个对象，无效参数返回NONE_DATA。
      */
-    protected V loadFromServer(K key) {
-        return null;
+    @SuppressWarnings("unchecked")
+    private Object getFromRedis(String realKey) {
+        RedisTemplate<String, V> redisTemplate = getRedisTemplate();
+        final byte[] rawKey = ((RedisSerializer<String>) redisTemplate.getKeySerializer())
+            .serialize(realKey);
+
+        byte[] rawValue = redisTemplate.execute(new RedisCallback<byte[]>() {
+            @Override
+            public byte[] doInRedis(RedisConnection connection) {
+                return connection.get(rawKey);
+            }
+        });
+
+        return deserializeValue(rawValue);
     }
 
     /**
-     * 从server读取多个对象，子类实现，沒有就返回null
-     * @param keys
-     * @return
+     * 从redis读取单个对象和剩余失效时间（毫秒），两个命令在同一个pipeline中发送（cluster下依次发送）。
      */
-    protected Map<K, V> batchLoadFromServer(List<K> keys) {
-        return null;
+    @SuppressWarnings("unchecked")
+    private Object[] getWithTtlFromRedis(String realKey) {
+        RedisTemplate<String, V> redisTemplate = getRedisTemplate();
+        final byte[] rawKey = ((RedisSerializer<String>) redisTemplate.getKeySerializer())
+            .serialize(realKey);
+
+        List<Object> results = getRedisBatch().execute(new RedisBatchOperations.BatchCallback() {
+            @Override
+            public void doInRedis(RedisConnection connection, List<Object> results) {
+                results.add(connection.get(rawKey));
+                results.add(connection.pTtl(rawKey));
+            }
+        });
+
+        return new Object[] { deserializeValue((byte[]) results.get(0)), results.get(1) };
     }
 
     /**
-     * 可以通过重写这个方法来设置数据在写入本地缓存后多久需要做一次刷新。
-     * 刷新是异步执行的。
-     * 
-     * @return
+     * 批量读取redis，按redisBatchSize分批通过pipeline发送，返回结果和realKeys的顺序一致，无效参数返回NONE_DATA。
      */
-    public long refreshAfterWriteDuration() {
-        return UNSET_INT;
+    private List<Object> multiGetFromRedis(List<String> realKeys) {
+        List<byte[]> rawValues = multiGetRawFromRedis(realKeys);
+        List<Object> values = new ArrayList<>(rawValues.size());
+        for (byte[] rawValue : rawValues) {
+            values.add(deserializeValue(rawValue));
+        }
+
+        return values;
     }
 
-    private K restoreToOrigKey(String realKey) {
-        return restoreToOriginalKey(StringUtils.substringAfterLast(realKey, keySeparator));
+    /**
+     * 同multiGetFromRedis，返回没有反序列化的原始字节，分段和并行读取见RedisBatchOperations
+     */
+    @SuppressWarnings("unchecked")
+    private List<byte[]> multiGetRawFromRedis(List<String> realKeys) {
+        RedisSerializer<String> keySerializer = (RedisSerializer<String>) getRedisTemplate()
+            .getKeySerializer();
+        return getRedisBatch().multiGet(serializeKeys(keySerializer, realKeys));
     }
 
-    protected V doLoadFromServer(String key) {
-        return loadFromServer(restoreToOrigKey(key));
+    @SuppressWarnings("unchecked")
+    private Object deserializeValue(byte[] rawValue) {
+        if (rawValue == null) {
+            getMetrics().recordRedisMisses(1);
+            return null;
+        }
+
+        if (RedisWriteLease.isLease(rawValue)) {
+            // 其它线程正在加载，按不存在处理
+            getMetrics().recordRedisMisses(1);
+            return null;
+        }
+
+        getMetrics().recordRedisHits(1);
+
+        if (Arrays.equals(NONE_DATA_BYTES, rawValue)) {
+            return NONE_DATA;
+        }
+
+        return getRedisTemplate().getValueSerializer().deserialize(rawValue);
     }
 
-    protected Map<String, V> doBatchLoadFromServer(List<K> keys) {
-        Map<K, V> tempMap = batchLoadFromServer(keys);
-        Map<String, V> retMap = null;
-        if (MapUtils.isNotEmpty(tempMap)) {
-            retMap = new HashMap<>(tempMap.size());
-            for (Entry<K, V> entry : tempMap.entrySet()) {
-                if (entry.getValue() != null)
-                    retMap.put(getRealKey(entry.getKey()), entry.getValue());
+    /**
+     * 无效参数转成null，其它对象是redis或本地缓存中读出的数据，类型一定是V
+     */
+    @SuppressWarnings("unchecked")
+    private V noneDataToNull(Object value) {
+        return value == NONE_DATA ? null : (V) value;
+    }
+
+    /**
+     * 在本地缓存和redis中放入无效参数，retryInterval是失效时间间隔，单位秒，0或负数表示不失效
+     */
+    private void setNoneData(List<String> realKeys, long retryInterval) {
+        setNoneData(realKeys, retryInterval, null);
+    }
+
+    /**
+     * 同上，leases不为null时redis中按租约写入
+     */
+    private void setNoneData(List<String> realKeys, long retryInterval,
+                             Map<String, byte[]> leases) {
+        if (isUseLocalCache()) {
+            setNoneDataToLocal(realKeys, retryInterval);
+        }
+
+        if (leases != null) {
+            Map<String, byte[]> rawValues = new LinkedHashMap<>(realKeys.size());
+            for (String realKey : realKeys) {
+                rawValues.put(realKey, NONE_DATA_BYTES);
             }
+            setRawToRedisIfLeased(rawValues, leases,
+                retryInterval > 0 ? TimeUnit.SECONDS.toMillis(retryInterval) : UNSET_INT, false);
+        }
+        else if (isUseRedisCache()) {
+            setNoneDataToRedis(realKeys, retryInterval);
         }
+    }
 
-        return retMap;
+    private void setNoneDataToLocal(List<String> realKeys, long retryInterval) {
+        if (noneDataCache == null) {
+            return;
+        }
+
+        long expireAt = retryInterval > 0
+            ? System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(retryInterval)
+            : Long.MAX_VALUE;
+        for (String realKey : realKeys) {
+            noneDataCache.put(realKey, expireAt);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void setNoneDataToRedis(List<String> realKeys, long retryInterval) {
+        RedisTemplate<String, V> redisTemplate = getRedisTemplate();
+        final RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate
+            .getKeySerializer();
+        final Expiration expiration = retryInterval > 0 ? Expiration.seconds(retryInterval)
+            : Expiration.persistent();
+
+        for (final List<String> keys : Lists.partition(realKeys, redisBatchSize())) {
+            getRedisBatch().execute(new RedisBatchOperations.BatchCallback() {
+                @Override
+                public void doInRedis(RedisConnection connection, List<Object> results) {
+                    for (String key : keys) {
+                        connection.set(keySerializer.serialize(key), NONE_DATA_BYTES, expiration,
+                            SetOption.UPSERT);
+                    }
+                }
+            });
+        }
     }
 
-    protected LoadingCache<String, V> cache;
+    private boolean isNoneDataInLocal(String realKey) {
+        if (noneDataCache == null) {
+            return false;
+        }
 
-    protected String getRealKey(K key) {
-        return getKeyPrefix() + keySeparator + key;
+        Long expireAt = noneDataCache.getIfPresent(realKey);
+        if (expireAt == null) {
+            return false;
+        }
+
+        if (expireAt < System.currentTimeMillis()) {
+            noneDataCache.invalidate(realKey);
+            return false;
+        }
+
+        return true;
     }
 
-    private boolean isUseLocalCache() {
-        return getMaximumSize() > 0;
+    private void invalidateNoneDataInLocal(String realKey) {
+        if (noneDataCache != null) {
+            noneDataCache.invalidate(realKey);
+        }
     }
 
-    private boolean isUseRedisCache() {
-        return getRedisTemplate() != null;
+    /**
+     * 批量删除redis中的key，按redisBatchSize分批通过pipeline发送（cluster下逐条发送）。
+     */
+    @SuppressWarnings("unchecked")
+    private void deleteFromRedis(List<String> realKeys) {
+        RedisTemplate<String, V> redisTemplate = getRedisTemplate();
+        final RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate
+            .getKeySerializer();
+        final List<List<String>> partitions = Lists.partition(realKeys, redisBatchSize());
+
+        getRedisBatch().execute(new RedisBatchOperations.BatchCallback() {
+            @Override
+            public void doInRedis(RedisConnection connection, List<Object> results) {
+                for (List<String> keys : partitions) {
+                    connection.del(serializeKeys(keySerializer, keys));
+                }
+            }
+        });
     }
 
-    @PostConstruct
-    private void initCache() {
-        if (!isUseLocalCache())
-            return;
+    private static byte[][] serializeKeys(RedisSerializer<String> keySerializer,
+                                          List<String> keys) {
+        byte[][] rawKeys = new byte[keys.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = keySerializer.serialize(keys.get(i));
+        }
 
-        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
-        if (refreshAfterWriteDuration() > UNSET_INT) {
-            cacheBuilder.refreshAfterWrite(refreshAfterWriteDuration(), TimeUnit.SECONDS);
+        return rawKeys;
+    }
+
+    /**
+     * 删除本地缓存（或只使用redis缓存时的热点key）中的数据
+     */
+    private void invalidateInLocal(List<String> realKeys) {
+        if (isUseLocalCache()) {
+            cache.invalidateAll(realKeys);
+            if (noneDataCache != null) {
+                noneDataCache.invalidateAll(realKeys);
+            }
+        }
+        else if (hotKeyDetector != null) {
+            hotKeyDetector.invalidateAll(realKeys);
         }
+    }
 
-        cache = cacheBuilder.maximumSize(getMaximumSize()).build(new CacheLoader<String, V>() {
-            @Override
-            public V load(String key) throws Exception {
-                V value = null;
-                if (isUseRedisCache()) {
-                    value = getRedisTemplate().opsForValue().get(key);
+    private RedisBatchOperations getRedisBatch() {
+        if (redisBatch == null) {
+            synchronized (this) {
+                if (redisBatch == null) {
+                    redisBatch = new RedisBatchOperations(getRedisTemplate(), redisBatchSize(),
+                        redisParallelGetThreshold(), redisGetParallelism(),
+                        CacheExecutors.multiGetExecutor());
                 }
+            }
+        }
 
-                if (value == null) {
-                    value = doLoadFromServer(key);
+        return redisBatch;
+    }
 
-                    if (value != null && isUseRedisCache()) {
-                        setToRedis(key, value);
-                    }
+    @SuppressWarnings("unchecked")
+    private RedisStaleStore getStaleStore() {
+        if (staleStore == null) {
+            synchronized (this) {
+                if (staleStore == null) {
+                    staleStore = new RedisStaleStore(getRedisBatch(),
+                        (RedisSerializer<String>) getRedisTemplate().getKeySerializer(),
+                        getKeyPrefix(), redisBatchSize());
                 }
+            }
+        }
 
-                return value;
+        return staleStore;
+    }
+
+    private RedisWriteLease getWriteLease() {
+        if (writeLease == null) {
+            synchronized (this) {
+                if (writeLease == null) {
+                    writeLease = new RedisWriteLease(getRedisTemplate(), redisBatchSize());
+                }
             }
+        }
 
-            @Override
-            public Map<String, V> loadAll(Iterable<? extends String> keys) throws Exception {
-                List<String> realKeys = new ArrayList<>();
-                CollectionUtils.addAll(realKeys, keys);
-
-                Map<String, V> retMap = new HashMap<>(realKeys.size());
-
-                if (isUseRedisCache()) {
-                    List<V> values = getRedisTemplate().opsForValue().multiGet(realKeys);
-                    if (CollectionUtils.isNotEmpty(values)) {
-                        for (int index = (realKeys.size() - 1); index >= 0; index--) {
-                            String key = realKeys.get(index);
-                            V value = values.get(index);
-                            if (value != null) {
-                                realKeys.remove(index);
-                                retMap.put(key, value);
-                            }
-                        }
-                    }
+        return writeLease;
+    }
+
+    private RedisKeyInvalidator getKeyInvalidator() {
+        if (keyInvalidator == null) {
+            synchronized (this) {
+                if (keyInvalidator == null) {
+                    keyInvalidator = new RedisKeyInvalidator(getRedisTemplate(), redisBatchSize(),
+                        invalidateKeysPerSecond());
                 }
+            }
+        }
+
+        return keyInvalidator;
+    }
+
+    /**
+     * 标签在redis中对应的集合，和计数器一样放在key前缀加后缀下，不会被invalidatePrefix匹配到
+     */
+    private String getTagKey(String tag) {
+        return getKeyPrefix() + "_TAG" + keySeparator + tag;
+    }
+
+    /**
+     * 当前请求的请求内缓存，key是真实key，不存在的key对应NONE_DATA，没有开启或不在请求线程中时返回null
+     */
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> getRequestMemo() {
+        if (!useRequestMemo()) {
+            return null;
+        }
 
-                if (CollectionUtils.isNotEmpty(realKeys)) {
-                    List<K> originalKeys = (ArrayList<K>) CollectionUtils.collect(realKeys,
-                        RealKeyTOOriginalKeyTransformer);
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
 
-                    Map<String, V> tempMap = doBatchLoadFromServer(originalKeys);
-                    if (MapUtils.isNotEmpty(tempMap)) {
-                        retMap.putAll(tempMap);
+        String name = REQUEST_MEMO_ATTRIBUTE + getKeyPrefix();
+        Map<String, Object> memo = (Map<String, Object>) attributes.getAttribute(name,
+            RequestAttributes.SCOPE_REQUEST);
+        if (memo == null) {
+            memo = new ConcurrentHashMap<>();
+            attributes.setAttribute(name, memo, RequestAttributes.SCOPE_REQUEST);
+        }
 
-                        if (isUseRedisCache()) {
-                            setToRedis(tempMap);
-                        }
+        return memo;
+    }
+
+    private void forgetInRequestMemo(List<String> realKeys) {
+        Map<String, Object> memo = getRequestMemo();
+        if (memo != null) {
+            for (String realKey : realKeys) {
+                memo.remove(realKey);
+            }
+        }
+    }
+
+    private void clearRequestMemo() {
+        Map<String, Object> memo = getRequestMemo();
+        if (memo != null) {
+            memo.clear();
+        }
+    }
+
+    private boolean isUseStaleCache() {
+        return staleGraceSeconds() > 0 && isUseRedisCache();
+    }
+
+    /**
+     * 开启了影子key时，把数据同时写入影子key，见RedisStaleStore
+     */
+    @SuppressWarnings("unchecked")
+    private void setStaleToRedis(Map<String, V> entryMap) {
+        if (!isUseStaleCache() || MapUtils.isEmpty(entryMap)) {
+            return;
+        }
+
+        RedisSerializer<V> valueSerializer = (RedisSerializer<V>) getRedisTemplate()
+            .getValueSerializer();
+        Map<String, byte[]> rawValues = new LinkedHashMap<>(entryMap.size());
+        for (Entry<String, V> entry : entryMap.entrySet()) {
+            rawValues.put(entry.getKey(), valueSerializer.serialize(entry.getValue()));
+        }
+
+        getStaleStore().set(rawValues, getStaleMillis());
+    }
+
+    /**
+     * 影子key的失效时间，单位毫秒，比数据多保留staleGraceSeconds秒。
+     * 数据的失效时间包括随机抖动，影子key按最大抖动计算，保证不早于数据失效
+     */
+    private long getStaleMillis() {
+        long expireMillis = getRedisExpireMillis();
+        long staleMillis = TimeUnit.SECONDS.toMillis(staleGraceSeconds());
+        if (expireMillis > UNSET_INT) {
+            staleMillis += expireMillis + TimeUnit.SECONDS.toMillis(redisExpireJitter());
+        }
+        return staleMillis;
+    }
+
+    /**
+     * 按redisBatchSize分批通过pipeline（cluster下逐条）写入已经序列化的数据，expireMillis是失效时间，单位毫秒
+     */
+    @SuppressWarnings("unchecked")
+    private void setRawToRedis(Map<String, byte[]> rawValues, final long expireMillis) {
+        final RedisSerializer<String> keySerializer = (RedisSerializer<String>) getRedisTemplate()
+            .getKeySerializer();
+        for (final List<Entry<String, byte[]>> entries : Iterables
+            .partition(rawValues.entrySet(), redisBatchSize())) {
+            getRedisBatch().execute(new RedisBatchOperations.BatchCallback() {
+                @Override
+                public void doInRedis(RedisConnection connection, List<Object> results) {
+                    for (Entry<String, byte[]> entry : entries) {
+                        connection.set(keySerializer.serialize(entry.getKey()), entry.getValue(),
+                            Expiration.milliseconds(expireMillis), SetOption.UPSERT);
                     }
                 }
+            });
+        }
+    }
 
-                return retMap;
+    /**
+     * 转义SCAN的MATCH中有特殊含义的字符
+     */
+    private static String escapeScanPattern(String value) {
+        StringBuilder sb = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == ']' || c == '\\') {
+                sb.append('\\');
             }
-        });
+            sb.append(c);
+        }
+
+        return sb.toString();
     }
 
-    private void setToRedis(String key, V value) {
-        if (redisExpireDuration() > UNSET_INT) {
-            getRedisTemplate().opsForValue().set(key, value, redisExpireDuration(),
-                TimeUnit.SECONDS);
+    /**
+     * 开启写入租约时，在加载前取得realKeys的租约，返回取得了租约的key到租约的映射，没有开启时返回null
+     */
+    private Map<String, byte[]> acquireWriteLeases(List<String> realKeys) {
+        if (!useWriteLease() || !isUseRedisCache()) {
+            return null;
+        }
+
+        if (getRedisBatch().isCluster()) {
+            // spring-data-redis 1.8的cluster连接不支持lua脚本，加载后直接写入redis
+            if (writeLeaseWarned.compareAndSet(false, true)) {
+                logger.warn("write lease is not supported on redis cluster,keyPrefix = {}",
+                    getKeyPrefix());
+            }
+            return null;
+        }
+
+        return getWriteLease().acquire(realKeys, writeLeaseMillis());
+    }
+
+    /**
+     * 按租约写入加载结果，没有取得租约或租约已经失效（期间有put、delete或数据过期）的key不写入，
+     * 开启了影子key时，写入成功的数据在同一个脚本中写入影子key
+     */
+    @SuppressWarnings("unchecked")
+    private void setToRedisIfLeased(Map<String, V> entryMap, Map<String, byte[]> leases) {
+        RedisSerializer<V> valueSerializer = (RedisSerializer<V>) getRedisTemplate()
+            .getValueSerializer();
+        Map<String, byte[]> rawValues = new LinkedHashMap<>(entryMap.size());
+        for (Entry<String, V> entry : entryMap.entrySet()) {
+            rawValues.put(entry.getKey(), valueSerializer.serialize(entry.getValue()));
+        }
+
+        if (isUseStaleCache()) {
+            getWriteLease().setIfLeased(rawValues, leases, getRedisExpireMillis(),
+                TimeUnit.SECONDS.toMillis(redisExpireJitter()),
+                getStaleStore().mapStaleKeys(rawValues.keySet()), getStaleMillis());
         }
         else {
-            getRedisTemplate().opsForValue().set(key, value);
+            setRawToRedisIfLeased(rawValues, leases, getRedisExpireMillis(), true);
         }
     }
 
-    private void setToRedis(Map<String, V> entryMap) {
+    private void setRawToRedisIfLeased(Map<String, byte[]> rawValues, Map<String, byte[]> leases,
+                                       long expireMillis, boolean withJitter) {
+        long jitterMillis = withJitter ? TimeUnit.SECONDS.toMillis(redisExpireJitter()) : 0;
+        getWriteLease().setIfLeased(rawValues, leases, expireMillis, jitterMillis);
+    }
+
+    /**
+     * 写入redis时的失效时间，单位毫秒，UNSET_INT表示不失效
+     */
+    private long getRedisExpireMillis() {
         if (redisExpireDuration() > UNSET_INT) {
-            for (Entry<String, V> entry : entryMap.entrySet()) {
-                getRedisTemplate().opsForValue().set(entry.getKey(), entry.getValue(),
-                    redisExpireDuration(), TimeUnit.SECONDS);
-            }
+            return TimeUnit.SECONDS.toMillis(redisExpireDuration());
         }
-        else if (redisExpireAt() != null) {
-            for (Entry<String, V> entry : entryMap.entrySet()) {
-                getRedisTemplate().opsForValue().set(entry.getKey(), entry.getValue(),
-                    redisExpireAt().getTime() - new Date().getTime(), TimeUnit.MILLISECONDS);
-            }
+
+        Date expireAt = redisExpireAt();
+        if (expireAt != null) {
+            // 失效时间点已过的数据写入后立即失效
+            return Math.max(expireAt.getTime() - System.currentTimeMillis(), 1L);
         }
-        else {
-            getRedisTemplate().opsForValue().multiSet(entryMap);
+
+        return UNSET_INT;
+    }
+
+    /**
+     * 在失效时间上随机增加0到redisExpireJitter秒
+     */
+    private long jitter(long expireMillis) {
+        long jitterMillis = TimeUnit.SECONDS.toMillis(redisExpireJitter());
+        if (jitterMillis <= 0) {
+            return expireMillis;
         }
+
+        return expireMillis + ThreadLocalRandom.current().nextLong(jitterMillis + 1);
     }
 }
\ No newline at end of file
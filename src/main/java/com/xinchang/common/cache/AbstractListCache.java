@@ -27,6 +27,11 @@ public abstract class AbstractListCache<K, V> implements IListCache<K, V> {
      */
     private String keySeparator = ":";
 
+    /**
+     * 该key前缀的缓存指标
+     */
+    private CacheMetrics metrics;
+
     /**
      * 获取操作redis缓存的对象，子类实现。
      * @return
@@ -180,8 +185,12 @@ public abstract class AbstractListCache<K, V> implements IListCache<K, V> {
 
     private void tryReloadFromServer(final K key, final String realKey) {
         final RedisTemplate<String, V> redisTemplate = getRedisTemplate();
-        if (redisTemplate.hasKey(realKey))
+        if (redisTemplate.hasKey(realKey)) {
+            getMetrics().recordRedisHits(1);
             return;
+        }
+
+        getMetrics().recordRedisMisses(1);
 
         if (this.loadAsync()) {
             new Thread(new Runnable() {
@@ -195,10 +204,13 @@ public abstract class AbstractListCache<K, V> implements IListCache<K, V> {
 
                         try {
                             Collection<V> reloadedValues = null;
+                            long loadStart = System.nanoTime();
                             try {
                                 reloadedValues = reloadFromServer(key, getReloadLimit());
+                                getMetrics().recordLoad(loadStart, true);
                             }
                             catch (Throwable e) {
+                                getMetrics().recordLoad(loadStart, false);
                                 logger.error("reload data from server error,key = " + realKey, e);
 
                                 DBErrorStrategy dbErrorStrategy;
@@ -275,10 +287,13 @@ public abstract class AbstractListCache<K, V> implements IListCache<K, V> {
 
                     try {
                         Collection<V> reloadedValues = null;
+                        long loadStart = System.nanoTime();
                         try {
                             reloadedValues = reloadFromServer(key, getReloadLimit());
+                            getMetrics().recordLoad(loadStart, true);
                         }
                         catch (Throwable e) {
+                            getMetrics().recordLoad(loadStart, false);
                             logger.error("reload data from server error,key = " + realKey);
 
                             DBErrorStrategy dbErrorStrategy;
@@ -361,6 +376,17 @@ public abstract class AbstractListCache<K, V> implements IListCache<K, V> {
     protected void afterPutValueInCacheHook(String realKey, K key) {
     }
 
+    /**
+     * 该key前缀的缓存指标，第一次使用时从CacheMetricsRegistry获取
+     */
+    protected CacheMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = CacheMetricsRegistry.getOrCreate(getKeyPrefix());
+        }
+
+        return metrics;
+    }
+
     protected String getRealKey(K key) {
         return new StringBuilder(64).append(getKeyPrefix()).append(keySeparator).append(key)
             .toString();
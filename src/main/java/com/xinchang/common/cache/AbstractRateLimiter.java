@@ -0,0 +1,138 @@
+package com.xinchang.common.cache;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Resource;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * 基于redis lua脚本的限流公共实现。
+ * 子类提供脚本和参数，脚本返回{是否允许(1/0), 剩余许可数量, 需要等待的毫秒数}。
+ *
+ * @see TokenBucketRateLimiter
+ * @see SlidingWindowRateLimiter
+ */
+public abstract class AbstractRateLimiter implements RateLimiter {
+    public static final String CACHE_PREFIX = "RATE_LIMIT_";
+
+    @Resource
+    private RedisTemplate<String, Object> redisTemplate;
+
+    /**
+     * 和redisTemplate使用同一个连接，key和参数都按字符串序列化，脚本和reset都通过它访问同一个key，第一次使用时创建
+     */
+    private volatile StringRedisTemplate stringRedisTemplate;
+
+    /**
+     * 限流的名称，不同用途的限流使用不同的名称
+     */
+    private final String name;
+
+    /**
+     * 本地记录的被拒绝的key，value是在该时间点之前一定会被拒绝
+     */
+    private final Cache<String, Rejection> rejections;
+
+    /**
+     * @param name 限流的名称
+     * @param maxRetryAfterMillis 被拒绝时最长需要等待的时间，单位毫秒，用作本地拒绝记录的失效时间
+     */
+    protected AbstractRateLimiter(String name, long maxRetryAfterMillis) {
+        this.name = name;
+        this.rejections = CacheBuilder.newBuilder().maximumSize(10000)
+            .expireAfterWrite(Math.max(maxRetryAfterMillis, 1), TimeUnit.MILLISECONDS).build();
+    }
+
+    @Override
+    public boolean tryAcquire(String key) {
+        return acquire(key, 1).isAllowed();
+    }
+
+    @Override
+    public RateLimitResult acquire(String key, int permits) {
+        String realKey = getRealKey(key);
+        long now = System.currentTimeMillis();
+
+        Rejection rejection = rejections.getIfPresent(realKey);
+        if (rejection != null && rejection.until > now && permits >= rejection.permits) {
+            return new RateLimitResult(false, 0, rejection.until - now);
+        }
+
+        List<?> result = getStringRedisTemplate().execute(getScript(),
+            Collections.singletonList(realKey), (Object[]) getScriptArgs(now, permits));
+
+        RateLimitResult rateLimitResult = new RateLimitResult(toLong(result.get(0)) == 1,
+            toLong(result.get(1)), toLong(result.get(2)));
+        if (!rateLimitResult.isAllowed() && rateLimitResult.getRetryAfterMillis() > 0) {
+            rejections.put(realKey,
+                new Rejection(now + rateLimitResult.getRetryAfterMillis(), permits));
+        }
+        else if (rejection != null) {
+            rejections.invalidate(realKey);
+        }
+
+        return rateLimitResult;
+    }
+
+    /**
+     * 本地的拒绝记录只在当前节点清除，其它节点在拒绝记录失效前仍会直接拒绝
+     */
+    @Override
+    public void reset(String key) {
+        String realKey = getRealKey(key);
+        rejections.invalidate(realKey);
+        getStringRedisTemplate().delete(realKey);
+    }
+
+    /**
+     * 检查使用的lua脚本
+     */
+    @SuppressWarnings("rawtypes")
+    protected abstract RedisScript<List> getScript();
+
+    /**
+     * 脚本的参数，now是当前时间，单位毫秒
+     */
+    protected abstract String[] getScriptArgs(long now, int permits);
+
+    protected String getRealKey(String key) {
+        return CACHE_PREFIX + name + ":" + key;
+    }
+
+    private StringRedisTemplate getStringRedisTemplate() {
+        if (stringRedisTemplate == null) {
+            synchronized (this) {
+                if (stringRedisTemplate == null) {
+                    stringRedisTemplate = new StringRedisTemplate(
+                        redisTemplate.getConnectionFactory());
+                }
+            }
+        }
+
+        return stringRedisTemplate;
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue()
+            : Long.parseLong(String.valueOf(value));
+    }
+
+    private static class Rejection {
+        private final long until;
+
+        private final int permits;
+
+        Rejection(long until, int permits) {
+            this.until = until;
+            this.permits = permits;
+        }
+    }
+}
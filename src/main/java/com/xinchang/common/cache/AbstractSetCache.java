@@ -29,6 +29,11 @@ public abstract class AbstractSetCache<K, V extends Object> implements ISetCache
      */
     private String keySeparator = ":";
 
+    /**
+     * 该key前缀的缓存指标
+     */
+    private CacheMetrics metrics;
+
     /**
      * 获取操作redis缓存的对象，子类实现。
      * @return
@@ -44,8 +49,12 @@ public abstract class AbstractSetCache<K, V extends Object> implements ISetCache
     @SuppressWarnings("unchecked")
     private void tryReloadFromServer(K key, String realKey) {
         RedisTemplate<String, V> redisTemplate = getRedisTemplate();
-        if (redisTemplate.hasKey(realKey))
+        if (redisTemplate.hasKey(realKey)) {
+            getMetrics().recordRedisHits(1);
             return;
+        }
+
+        getMetrics().recordRedisMisses(1);
 
         SetOperations<String, V> setOps = redisTemplate.opsForSet();
         for (;;) {
@@ -56,10 +65,13 @@ public abstract class AbstractSetCache<K, V extends Object> implements ISetCache
                     }
 
                     V[] reloadedValues = null;
+                    long loadStart = System.nanoTime();
                     try {
                         reloadedValues = reloadFromServer(key, getReloadLimit());
+                        getMetrics().recordLoad(loadStart, true);
                     }
                     catch (Throwable e) {
+                        getMetrics().recordLoad(loadStart, false);
                         logger.error("reload data from server error,key = " + realKey);
 
                         DBErrorStrategy dbErrorStrategy;
@@ -224,6 +236,17 @@ public abstract class AbstractSetCache<K, V extends Object> implements ISetCache
         return getRedisTemplate().opsForSet().isMember(realKey, newInvalidObject());
     }
 
+    /**
+     * 该key前缀的缓存指标，第一次使用时从CacheMetricsRegistry获取
+     */
+    protected CacheMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = CacheMetricsRegistry.getOrCreate(getKeyPrefix());
+        }
+
+        return metrics;
+    }
+
     private String getRealKey(K key) {
         return new StringBuilder(64).append(getKeyPrefix()).append(keySeparator).append(key)
             .toString();
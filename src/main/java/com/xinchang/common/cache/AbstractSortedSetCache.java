@@ -28,6 +28,11 @@ public abstract class AbstractSortedSetCache<K, V extends Object> implements ISo
      */
     private String          keySeparator = ":";
 
+    /**
+     * 该key前缀的缓存指标
+     */
+    private CacheMetrics    metrics;
+
     /**
      * 获取操作redis缓存的对象，子类实现。
      * @return
@@ -42,8 +47,12 @@ public abstract class AbstractSortedSetCache<K, V extends Object> implements ISo
 
     private void tryReloadFromServer(K key, String realKey) {
         RedisTemplate<String, V> redisTemplate = getRedisTemplate();
-        if (redisTemplate.hasKey(realKey))
+        if (redisTemplate.hasKey(realKey)) {
+            getMetrics().recordRedisHits(1);
             return;
+        }
+
+        getMetrics().recordRedisMisses(1);
 
         ZSetOperations<String, V> zsetOps = redisTemplate.opsForZSet();
         for (;;) {
@@ -53,8 +62,12 @@ public abstract class AbstractSortedSetCache<K, V extends Object> implements ISo
                         return;
                     }
 
+                    long loadStart = System.nanoTime();
+                    boolean loaded = false;
                     try {
                         Set<TypedTuple<V>> tuples = reloadFromServer(key, getReloadLimit());
+                        loaded = true;
+                        getMetrics().recordLoad(loadStart, true);
                         if (CollectionUtils.isNotEmpty(tuples)) {
                             zsetOps.add(realKey, tuples);
                         }
@@ -70,6 +83,10 @@ public abstract class AbstractSortedSetCache<K, V extends Object> implements ISo
                         }
                     }
                     catch (Throwable e) {
+                        if (!loaded) {
+                            getMetrics().recordLoad(loadStart, false);
+                        }
+
                         logger.error("reload data from server error,key = " + realKey);
                         return;
                     }
@@ -253,6 +270,17 @@ public abstract class AbstractSortedSetCache<K, V extends Object> implements ISo
      */
     protected abstract boolean isInvalidObject(V value);
 
+    /**
+     * 该key前缀的缓存指标，第一次使用时从CacheMetricsRegistry获取
+     */
+    protected CacheMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = CacheMetricsRegistry.getOrCreate(getKeyPrefix());
+        }
+
+        return metrics;
+    }
+
     protected String getRealKey(K key) {
         return new StringBuilder(64).append(getKeyPrefix()).append(keySeparator).append(key)
             .toString();
@@ -0,0 +1,128 @@
+package com.xinchang.common.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把一小段时间窗口内提交的单个key加载请求攒成一批，调用一次批量加载，再分别完成每个key的future。
+ * 窗口从这一批的第一个key提交时开始计时，窗口结束或攒够maxBatchSize个key时立即加载。
+ *
+ * @param <V> 缓存value的类型
+ */
+class BatchLoadDispatcher<V> {
+    private BatchLoader<V> batchLoader;
+
+    private long windowMillis;
+
+    private int maxBatchSize;
+
+    private Executor executor;
+
+    private Map<String, CompletableFuture<V>> pending = new LinkedHashMap<>();
+
+    BatchLoadDispatcher(BatchLoader<V> batchLoader, long windowMillis, int maxBatchSize,
+                        Executor executor) {
+        this.batchLoader = batchLoader;
+        this.windowMillis = windowMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.executor = executor;
+    }
+
+    /**
+     * 提交一个key，返回的future在这一批加载完成后结束，批量加载结果中没有的key以null结束
+     */
+    CompletableFuture<V> submit(String key) {
+        CompletableFuture<V> future;
+        Map<String, CompletableFuture<V>> batch = null;
+        boolean first = false;
+        synchronized (this) {
+            future = pending.get(key);
+            if (future != null) {
+                return future;
+            }
+
+            future = new CompletableFuture<>();
+            pending.put(key, future);
+            if (pending.size() >= maxBatchSize) {
+                batch = drain();
+            }
+            else {
+                first = pending.size() == 1;
+            }
+        }
+
+        if (batch != null) {
+            dispatch(batch);
+        }
+        else if (first) {
+            CacheExecutors.scheduler().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    Map<String, CompletableFuture<V>> batch;
+                    synchronized (BatchLoadDispatcher.this) {
+                        batch = drain();
+                    }
+                    dispatch(batch);
+                }
+            }, windowMillis, TimeUnit.MILLISECONDS);
+        }
+
+        return future;
+    }
+
+    private Map<String, CompletableFuture<V>> drain() {
+        Map<String, CompletableFuture<V>> batch = pending;
+        pending = new LinkedHashMap<>();
+        return batch;
+    }
+
+    private void dispatch(final Map<String, CompletableFuture<V>> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Map<String, V> loadedMap;
+                    try {
+                        loadedMap = batchLoader.load(new ArrayList<>(batch.keySet()));
+                    }
+                    catch (Throwable e) {
+                        fail(batch, e);
+                        return;
+                    }
+
+                    for (Entry<String, CompletableFuture<V>> entry : batch.entrySet()) {
+                        entry.getValue().complete(
+                            loadedMap == null ? null : loadedMap.get(entry.getKey()));
+                    }
+                }
+            });
+        }
+        catch (Throwable e) {
+            // 线程池已满，本批请求直接失败，不阻塞提交的线程
+            fail(batch, e);
+        }
+    }
+
+    private void fail(Map<String, CompletableFuture<V>> batch, Throwable cause) {
+        for (CompletableFuture<V> future : batch.values()) {
+            future.completeExceptionally(cause);
+        }
+    }
+
+    interface BatchLoader<V> {
+        /**
+         * 批量加载，返回结果中只包含有数据的key
+         */
+        Map<String, V> load(List<String> keys) throws Exception;
+    }
+}
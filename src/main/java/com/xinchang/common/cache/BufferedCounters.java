@@ -0,0 +1,305 @@
+package com.xinchang.common.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * 本地缓冲的redis计数器。
+ * 自增先累加到本地每个key的计数单元中，每隔flushIntervalMillis或累计flushThreshold次自增后，
+ * 把所有key的增量通过pipeline的INCRBY一次写入redis（cluster下逐条写入）。
+ * 缓冲自增返回的是近似值：最近一次写入redis时得到的值加上本地还没有写入的增量，不包含其它节点还没有写入的增量。
+ * 需要准确值时使用incrementExact，会把该key本地的增量和本次增量一起同步写入redis，返回redis中的值。
+ * 一个刷新周期内没有自增的key会从本地移除，下次自增时先同步访问一次redis取得基准值。
+ * 写入失败的增量放回本地时如果计数单元已被移除，新建的计数单元没有基准值，下次自增同样先同步访问一次redis。
+ */
+class BufferedCounters {
+    private static final Logger logger = LoggerFactory.getLogger(BufferedCounters.class);
+
+    /**
+     * 计数单元被移除的标记，看到该标记的线程需要重新创建计数单元
+     */
+    private static final long RETIRED = Long.MIN_VALUE;
+
+    private RedisTemplate<String, ?> redisTemplate;
+
+    private RedisBatchOperations redisBatch;
+
+    private long flushThreshold;
+
+    private Executor executor;
+
+    private ConcurrentMap<String, Cell> cells = new ConcurrentHashMap<>();
+
+    /**
+     * 上次刷新后的自增次数
+     */
+    private AtomicLong pendingUpdates = new AtomicLong();
+
+    private AtomicBoolean flushing = new AtomicBoolean();
+
+    private ScheduledFuture<?> flushTask;
+
+    BufferedCounters(RedisTemplate<String, ?> redisTemplate, RedisBatchOperations redisBatch,
+                     long flushIntervalMillis, long flushThreshold, Executor executor) {
+        this.redisTemplate = redisTemplate;
+        this.redisBatch = redisBatch;
+        this.flushThreshold = flushThreshold;
+        this.executor = executor;
+        this.flushTask = CacheExecutors.scheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                requestFlush();
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 缓冲自增，返回近似值
+     */
+    long increment(String key, long delta) {
+        while (true) {
+            Cell cell = cells.get(key);
+            if (cell == null) {
+                // 本地没有基准值，同步写入redis并以返回值作为基准值
+                long value = incrementInRedis(key, delta);
+                cells.putIfAbsent(key, new Cell(value, true));
+                return value;
+            }
+
+            if (!cell.seeded) {
+                // 计数单元中只有写入失败后放回的增量，连同这些增量同步写入redis取得基准值
+                return incrementExact(key, delta);
+            }
+
+            long pending = cell.add(delta);
+            if (pending != RETIRED) {
+                if (pendingUpdates.incrementAndGet() >= flushThreshold) {
+                    requestFlush();
+                }
+                return cell.base + pending;
+            }
+
+            cells.remove(key, cell);
+        }
+    }
+
+    /**
+     * 把该key本地缓冲的增量和delta一起同步写入redis，返回redis中的值，delta为0时可以读取准确值
+     */
+    long incrementExact(String key, long delta) {
+        Cell cell = cells.get(key);
+        long pending = cell == null ? 0 : cell.drain();
+        try {
+            long value = incrementInRedis(key, pending + delta);
+            if (cell != null) {
+                cell.seed(value);
+            }
+            return value;
+        }
+        catch (RuntimeException e) {
+            restore(key, pending);
+            throw e;
+        }
+    }
+
+    /**
+     * 停止定时刷新，并在当前线程把剩余的增量全部写入redis
+     */
+    void close() {
+        flushTask.cancel(false);
+        while (!flushing.compareAndSet(false, true)) {
+            Thread.yield();
+        }
+
+        try {
+            doFlush();
+        }
+        finally {
+            flushing.set(false);
+        }
+    }
+
+    private void requestFlush() {
+        if (!flushing.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        doFlush();
+                    }
+                    catch (Throwable e) {
+                        logger.error("flush buffered counters failed", e);
+                    }
+                    finally {
+                        flushing.set(false);
+                    }
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // 线程池已满，等下一次定时刷新
+            flushing.set(false);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void doFlush() {
+        pendingUpdates.set(0);
+
+        final List<String> keys = new ArrayList<>();
+        final List<Long> deltas = new ArrayList<>();
+        List<Cell> flushedCells = new ArrayList<>();
+        for (Entry<String, Cell> entry : cells.entrySet()) {
+            Cell cell = entry.getValue();
+            long delta = cell.drain();
+            if (delta != 0) {
+                keys.add(entry.getKey());
+                deltas.add(delta);
+                flushedCells.add(cell);
+            }
+            else if (cell.retire()) {
+                // 一个周期内没有自增，移除以免本地计数单元无限增长
+                cells.remove(entry.getKey(), cell);
+            }
+        }
+
+        if (keys.isEmpty()) {
+            return;
+        }
+
+        final RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate
+            .getKeySerializer();
+        List<Object> results;
+        try {
+            results = redisBatch.execute(new RedisBatchOperations.BatchCallback() {
+                @Override
+                public void doInRedis(RedisConnection connection, List<Object> results) {
+                    for (int i = 0; i < keys.size(); i++) {
+                        results.add(
+                            connection.incrBy(keySerializer.serialize(keys.get(i)), deltas.get(i)));
+                    }
+                }
+            });
+        }
+        catch (RuntimeException e) {
+            // 写入失败的增量放回本地，下次刷新时重试
+            for (int i = 0; i < keys.size(); i++) {
+                restore(keys.get(i), deltas.get(i));
+            }
+            throw e;
+        }
+
+        for (int i = 0; i < keys.size(); i++) {
+            Object result = results.get(i);
+            if (result instanceof Long) {
+                flushedCells.get(i).seed((Long) result);
+            }
+        }
+    }
+
+    private void restore(String key, long delta) {
+        if (delta == 0) {
+            return;
+        }
+
+        while (true) {
+            Cell cell = cells.get(key);
+            if (cell == null) {
+                cell = new Cell(0, false);
+                Cell existing = cells.putIfAbsent(key, cell);
+                cell = existing == null ? cell : existing;
+            }
+
+            if (cell.add(delta) != RETIRED) {
+                return;
+            }
+
+            cells.remove(key, cell);
+        }
+    }
+
+    private long incrementInRedis(String key, long delta) {
+        Long value = redisTemplate.opsForValue().increment(key, delta);
+        return value == null ? 0 : value;
+    }
+
+    private static class Cell {
+        /**
+         * 本地还没有写入redis的增量，被移除后为RETIRED
+         */
+        private final AtomicLong pending = new AtomicLong();
+
+        /**
+         * 最近一次写入redis时得到的值
+         */
+        private volatile long base;
+
+        /**
+         * base是否来自redis，为false时base没有意义
+         */
+        private volatile boolean seeded;
+
+        Cell(long base, boolean seeded) {
+            this.base = base;
+            this.seeded = seeded;
+        }
+
+        void seed(long base) {
+            this.base = base;
+            this.seeded = true;
+        }
+
+        /**
+         * 累加增量，返回累加后的增量，已被移除时返回RETIRED
+         */
+        long add(long delta) {
+            while (true) {
+                long current = pending.get();
+                if (current == RETIRED) {
+                    return RETIRED;
+                }
+                if (pending.compareAndSet(current, current + delta)) {
+                    return current + delta;
+                }
+            }
+        }
+
+        /**
+         * 取出并清零增量，已被移除时返回0
+         */
+        long drain() {
+            while (true) {
+                long current = pending.get();
+                if (current == RETIRED) {
+                    return 0;
+                }
+                if (pending.compareAndSet(current, 0)) {
+                    return current;
+                }
+            }
+        }
+
+        boolean retire() {
+            return pending.compareAndSet(0, RETIRED);
+        }
+    }
+}
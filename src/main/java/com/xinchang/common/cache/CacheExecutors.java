@@ -0,0 +1,100 @@
+package com.xinchang.common.cache;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 缓存内部共用的线程池，所有线程都是守护线程，线程池和队列都是有界的。
+ */
+final class CacheExecutors {
+    private CacheExecutors() {
+    }
+
+    private static class SchedulerHolder {
+        private static final ScheduledExecutorService SCHEDULER = Executors
+            .newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setDaemon(true)
+                .setNameFormat("cache-scheduler-%d").build());
+    }
+
+    private static class RefreshExecutorHolder {
+        private static final ExecutorService REFRESH_EXECUTOR = newBoundedExecutor(
+            "cache-refresh-%d", 4, 10000);
+    }
+
+    private static class IoExecutorHolder {
+        private static final ExecutorService IO_EXECUTOR = newBoundedExecutor("cache-io-%d",
+            16, 10000);
+    }
+
+    private static class MultiGetExecutorHolder {
+        private static final ExecutorService MULTI_GET_EXECUTOR = newBoundedExecutor(
+            "cache-multi-get-%d", 16, 1000);
+    }
+
+    private static class WarmUpExecutorHolder {
+        private static final ExecutorService WARM_UP_EXECUTOR = newBoundedExecutor(
+            "cache-warm-up-%d", 8, 10000);
+    }
+
+    private static class BackgroundExecutorHolder {
+        private static final ExecutorService BACKGROUND_EXECUTOR = newBoundedExecutor(
+            "cache-background-%d", 4, 1000);
+    }
+
+    /**
+     * 执行定时任务的线程，任务本身要很快完成，耗时操作应交给其它线程池
+     */
+    static ScheduledExecutorService scheduler() {
+        return SchedulerHolder.SCHEDULER;
+    }
+
+    /**
+     * 异步刷新本地缓存的线程池
+     */
+    static ExecutorService refreshExecutor() {
+        return RefreshExecutorHolder.REFRESH_EXECUTOR;
+    }
+
+    /**
+     * 执行异步缓存读写的线程池
+     */
+    static ExecutorService ioExecutor() {
+        return IoExecutorHolder.IO_EXECUTOR;
+    }
+
+    /**
+     * 分段并行批量读取redis的线程池，只执行读取任务，不和ioExecutor共用，避免异步api的线程等待自己所在的线程池
+     */
+    static ExecutorService multiGetExecutor() {
+        return MultiGetExecutorHolder.MULTI_GET_EXECUTOR;
+    }
+
+    /**
+     * 启动预热时批量加载数据的线程池
+     */
+    static ExecutorService warmUpExecutor() {
+        return WarmUpExecutorHolder.WARM_UP_EXECUTOR;
+    }
+
+    /**
+     * 执行预热调度、快照比对和写快照等耗时较长的后台任务的线程池。
+     * 预热调度会等待warmUpExecutor中的任务，所以不能和warmUpExecutor共用
+     */
+    static ExecutorService backgroundExecutor() {
+        return BackgroundExecutorHolder.BACKGROUND_EXECUTOR;
+    }
+
+    static ExecutorService newBoundedExecutor(String nameFormat, int threads, int queueSize) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60,
+            TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat(nameFormat).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+}
@@ -0,0 +1,190 @@
+package com.xinchang.common.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.alibaba.fastjson.JSON;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * 本地缓存跨节点失效通知总线。
+ * 某个节点put/delete缓存后，按key前缀把失效的key攒成一批广播出去，其它节点收到后删除本地缓存中的这些key。
+ * 一般整个应用只声明一个该对象，由各个AbstractCache的子类通过getInvalidationBus返回。
+ */
+public class CacheInvalidationBus {
+    private static final Logger logger = LoggerFactory.getLogger(CacheInvalidationBus.class);
+
+    /**
+     * 当前节点的标识，用来忽略自己发出的消息
+     */
+    private String nodeId = UUID.randomUUID().toString();
+
+    private CacheInvalidationTransport transport;
+
+    /**
+     * 每条消息最多包含的key数量，待发送的key达到这个数量时立即发送
+     */
+    private int maxBatchSize;
+
+    private Map<String, List<Listener>> listeners = new ConcurrentHashMap<>();
+
+    private Map<String, Set<String>> pendingKeys = new HashMap<>();
+
+    private int pendingCount = 0;
+
+    private ScheduledExecutorService scheduler;
+
+    private Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                flush();
+            }
+            catch (Throwable e) {
+                logger.error("flush cache invalidation error", e);
+            }
+        }
+    };
+
+    public CacheInvalidationBus(CacheInvalidationTransport transport) {
+        this(transport, 10, 1000);
+    }
+
+    /**
+     * @param transport 失效通知的传输方式
+     * @param flushIntervalMillis 攒批发送的时间间隔，单位毫秒
+     * @param maxBatchSize 每条消息最多包含的key数量
+     */
+    public CacheInvalidationBus(CacheInvalidationTransport transport, long flushIntervalMillis,
+                                int maxBatchSize) {
+        this.transport = transport;
+        this.maxBatchSize = maxBatchSize;
+
+        this.transport.subscribe(new CacheInvalidationTransport.Receiver() {
+            @Override
+            public void onMessage(String message) {
+                try {
+                    dispatch(JSON.parseObject(message, CacheInvalidationMessage.class));
+                }
+                catch (Throwable e) {
+                    logger.error("handle cache invalidation message error,message = " + message,
+                        e);
+                }
+            }
+        });
+
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+            .setDaemon(true).setNameFormat("cache-invalidation-bus-%d").build());
+        this.scheduler.scheduleWithFixedDelay(flushTask, flushIntervalMillis, flushIntervalMillis,
+            TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 注册某个key前缀的本地缓存，其它节点广播的该前缀的失效通知会交给listener处理
+     */
+    public void register(String keyPrefix, Listener listener) {
+        List<Listener> prefixListeners = listeners.get(keyPrefix);
+        if (prefixListeners == null) {
+            synchronized (listeners) {
+                prefixListeners = listeners.get(keyPrefix);
+                if (prefixListeners == null) {
+                    prefixListeners = new CopyOnWriteArrayList<>();
+                    listeners.put(keyPrefix, prefixListeners);
+                }
+            }
+        }
+
+        prefixListeners.add(listener);
+    }
+
+    /**
+     * 广播某个key前缀下的key失效，消息会攒批后异步发送
+     */
+    public void publish(String keyPrefix, Collection<String> realKeys) {
+        boolean full;
+        synchronized (this) {
+            Set<String> keys = pendingKeys.get(keyPrefix);
+            if (keys == null) {
+                keys = new LinkedHashSet<>();
+                pendingKeys.put(keyPrefix, keys);
+            }
+
+            keys.addAll(realKeys);
+            pendingCount += realKeys.size();
+            full = pendingCount >= maxBatchSize;
+        }
+
+        if (full) {
+            scheduler.execute(flushTask);
+        }
+    }
+
+    /**
+     * 立即发送所有待发送的失效通知
+     */
+    public void flush() {
+        Map<String, Set<String>> toSend;
+        synchronized (this) {
+            if (pendingKeys.isEmpty()) {
+                return;
+            }
+
+            toSend = pendingKeys;
+            pendingKeys = new HashMap<>();
+            pendingCount = 0;
+        }
+
+        for (Entry<String, Set<String>> entry : toSend.entrySet()) {
+            for (List<String> keys : Iterables.partition(entry.getValue(), maxBatchSize)) {
+                transport.publish(JSON.toJSONString(
+                    new CacheInvalidationMessage(nodeId, entry.getKey(), new ArrayList<>(keys))));
+            }
+        }
+    }
+
+    private void dispatch(CacheInvalidationMessage message) {
+        if (nodeId.equals(message.getNodeId())) {
+            return;
+        }
+
+        List<Listener> prefixListeners = listeners.get(message.getKeyPrefix());
+        if (prefixListeners == null) {
+            return;
+        }
+
+        for (Listener listener : prefixListeners) {
+            listener.onInvalidate(message.getKeys());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdown();
+        flush();
+    }
+
+    public interface Listener {
+        /**
+         * 其它节点通知这些key失效，删除本地缓存中的对应数据
+         */
+        void onInvalidate(Collection<String> realKeys);
+    }
+}
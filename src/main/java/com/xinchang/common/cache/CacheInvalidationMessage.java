@@ -0,0 +1,50 @@
+package com.xinchang.common.cache;
+
+import java.util.Collection;
+
+/**
+ * 本地缓存失效通知消息
+ */
+public class CacheInvalidationMessage {
+    /**
+     * 发出消息的节点，节点收到自己发出的消息时忽略
+     */
+    private String             nodeId;
+
+    private String             keyPrefix;
+
+    private Collection<String> keys;
+
+    public CacheInvalidationMessage() {
+    }
+
+    public CacheInvalidationMessage(String nodeId, String keyPrefix, Collection<String> keys) {
+        this.nodeId = nodeId;
+        this.keyPrefix = keyPrefix;
+        this.keys = keys;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    public void setKeyPrefix(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    public Collection<String> getKeys() {
+        return keys;
+    }
+
+    public void setKeys(Collection<String> keys) {
+        this.keys = keys;
+    }
+}
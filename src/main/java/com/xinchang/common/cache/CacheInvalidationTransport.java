@@ -0,0 +1,23 @@
+package com.xinchang.common.cache;
+
+/**
+ * 本地缓存失效通知的传输方式，生产环境使用redis的发布订阅，测试时可以使用进程内的实现。
+ *
+ * @see RedisCacheInvalidationTransport
+ * @see InProcessCacheInvalidationTransport
+ */
+public interface CacheInvalidationTransport {
+    /**
+     * 广播一条失效通知消息
+     */
+    public void publish(String message);
+
+    /**
+     * 订阅失效通知消息，自己发出的消息也会收到
+     */
+    public void subscribe(Receiver receiver);
+
+    public interface Receiver {
+        void onMessage(String message);
+    }
+}
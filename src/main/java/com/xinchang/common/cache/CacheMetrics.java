@@ -0,0 +1,329 @@
+package com.xinchang.common.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.xinchang.common.web.CompressionStats;
+
+/**
+ * 某个key前缀的缓存指标，包括本地缓存和redis的命中情况、从server加载的次数和耗时、批量读取的key数量、本地缓存淘汰次数。
+ * 计数使用LongAdder，只在加载时多一次System.nanoTime，可以在生产环境一直开启。
+ *
+ * @see CacheMetricsRegistry
+ */
+public class CacheMetrics implements CacheMetricsMXBean {
+    private String    keyPrefix;
+
+    private LongAdder localRequests = new LongAdder();
+
+    private LongAdder localMisses   = new LongAdder();
+
+    private LongAdder redisHits     = new LongAdder();
+
+    private LongAdder redisMisses   = new LongAdder();
+
+    private LongAdder loads         = new LongAdder();
+
+    private LongAdder loadFailures  = new LongAdder();
+
+    private LongAdder evictions     = new LongAdder();
+
+    /**
+     * 从server加载失败时返回影子key中旧数据的次数
+     */
+    private LongAdder staleServes   = new LongAdder();
+
+    /**
+     * 从server加载的耗时，单位毫秒
+     */
+    private Histogram loadLatency   = new Histogram();
+
+    /**
+     * getAll每次读取的key数量
+     */
+    private Histogram batchSize     = new Histogram();
+
+    /**
+     * 只使用redis缓存且开启了热点key探测时才有值
+     */
+    private volatile HotKeyDetector<?> hotKeyDetector;
+
+    /**
+     * redis的value序列化方式是FastJsonRedisSerializer时才有值
+     */
+    private volatile CompressionStats compressionStats;
+
+    /**
+     * 使用本地缓存时才有值
+     */
+    private volatile LocalCache<?> localCache;
+
+    CacheMetrics(String keyPrefix) {
+        this.keyPrefix = keyPrefix;
+    }
+
+    public void recordLocalRequests(int count) {
+        localRequests.add(count);
+    }
+
+    public void recordLocalMisses(int count) {
+        localMisses.add(count);
+    }
+
+    public void recordRedisHits(int count) {
+        redisHits.add(count);
+    }
+
+    public void recordRedisMisses(int count) {
+        redisMisses.add(count);
+    }
+
+    /**
+     * 记录一次从server加载，startNanos是开始加载时的System.nanoTime
+     */
+    public void recordLoad(long startNanos, boolean success) {
+        loads.increment();
+        if (!success) {
+            loadFailures.increment();
+        }
+        loadLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    public void recordEviction() {
+        evictions.increment();
+    }
+
+    public void recordStaleServes(int count) {
+        staleServes.add(count);
+    }
+
+    public void recordBatchSize(int size) {
+        batchSize.record(size);
+    }
+
+    void setHotKeyDetector(HotKeyDetector<?> hotKeyDetector) {
+        this.hotKeyDetector = hotKeyDetector;
+    }
+
+    void setCompressionStats(CompressionStats compressionStats) {
+        this.compressionStats = compressionStats;
+    }
+
+    void setLocalCache(LocalCache<?> localCache) {
+        this.localCache = localCache;
+    }
+
+    @Override
+    public String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    @Override
+    public long getLocalHits() {
+        return Math.max(localRequests.sum() - localMisses.sum(), 0);
+    }
+
+    @Override
+    public long getLocalMisses() {
+        return localMisses.sum();
+    }
+
+    @Override
+    public long getRedisHits() {
+        return redisHits.sum();
+    }
+
+    @Override
+    public long getRedisMisses() {
+        return redisMisses.sum();
+    }
+
+    @Override
+    public long getLoads() {
+        return loads.sum();
+    }
+
+    @Override
+    public long getLoadFailures() {
+        return loadFailures.sum();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    @Override
+    public long getStaleServes() {
+        return staleServes.sum();
+    }
+
+    @Override
+    public double getLoadLatencyMeanMillis() {
+        return loadLatency.mean();
+    }
+
+    @Override
+    public long getLoadLatencyP99Millis() {
+        return loadLatency.percentile(0.99);
+    }
+
+    @Override
+    public double getBatchSizeMean() {
+        return batchSize.mean();
+    }
+
+    @Override
+    public long getBatchSizeMax() {
+        return batchSize.max();
+    }
+
+    /**
+     * 当前被放入本地缓存的热点key，value是放入的时间点，没有开启热点key探测时返回空
+     */
+    @Override
+    public Map<String, Long> getHotKeys() {
+        HotKeyDetector<?> detector = hotKeyDetector;
+        return detector == null ? Collections.<String, Long> emptyMap() : detector.getHotKeys();
+    }
+
+    /**
+     * value压缩后和压缩前大小的比例，没有压缩时返回1
+     */
+    @Override
+    public double getCompressionRatio() {
+        CompressionStats stats = compressionStats;
+        return stats == null ? 1 : stats.getCompressionRatio();
+    }
+
+    /**
+     * 本地缓存中的数据条数，没有使用本地缓存时返回0
+     */
+    @Override
+    public long getLocalSize() {
+        LocalCache<?> cache = localCache;
+        return cache == null ? 0 : cache.size();
+    }
+
+    /**
+     * 本地缓存中数据的总权重，单位字节，没有使用本地缓存或没有按权重淘汰时返回-1
+     */
+    @Override
+    public long getLocalWeightBytes() {
+        LocalCache<?> cache = localCache;
+        return cache == null ? -1 : cache.weightedSize();
+    }
+
+    /**
+     * 所有指标的快照，用于输出到监控接口
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("localHits", getLocalHits());
+        snapshot.put("localMisses", getLocalMisses());
+        snapshot.put("redisHits", getRedisHits());
+        snapshot.put("redisMisses", getRedisMisses());
+        snapshot.put("loads", getLoads());
+        snapshot.put("loadFailures", getLoadFailures());
+        snapshot.put("evictions", getEvictions());
+        snapshot.put("staleServes", getStaleServes());
+        snapshot.put("loadLatencyMillis", loadLatency.snapshot());
+        snapshot.put("batchSize", batchSize.snapshot());
+        if (localCache != null) {
+            snapshot.put("localSize", getLocalSize());
+            snapshot.put("localWeightBytes", getLocalWeightBytes());
+        }
+        if (hotKeyDetector != null) {
+            snapshot.put("hotKeys", getHotKeys());
+        }
+        if (compressionStats != null) {
+            snapshot.put("compression", compressionStats.snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * 按2的幂分桶的直方图，第i个桶记录[2^(i-1), 2^i - 1]范围内的值，第0个桶记录0，百分位数返回所在桶的上界
+     */
+    public static class Histogram {
+        private static final int BUCKET_COUNT = 32;
+
+        private LongAdder[]      buckets      = new LongAdder[BUCKET_COUNT];
+
+        private LongAdder        count        = new LongAdder();
+
+        private LongAdder        sum          = new LongAdder();
+
+        private AtomicLong       max          = new AtomicLong();
+
+        public Histogram() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+
+            int index = Math.min(64 - Long.numberOfLeadingZeros(value), BUCKET_COUNT - 1);
+            buckets[index].increment();
+            count.increment();
+            sum.add(value);
+
+            long currentMax;
+            while (value > (currentMax = max.get())) {
+                if (max.compareAndSet(currentMax, value)) {
+                    break;
+                }
+            }
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public double mean() {
+            long count = this.count.sum();
+            return count == 0 ? 0 : (double) sum.sum() / count;
+        }
+
+        public long max() {
+            return max.get();
+        }
+
+        public long percentile(double percentile) {
+            long count = this.count.sum();
+            if (count == 0) {
+                return 0;
+            }
+
+            long threshold = (long) Math.ceil(count * percentile);
+            long accumulated = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                accumulated += buckets[i].sum();
+                if (accumulated >= threshold) {
+                    return Math.min((1L << i) - 1, max.get());
+                }
+            }
+
+            return max.get();
+        }
+
+        public Map<String, Object> snapshot() {
+            Map<String, Object> snapshot = new LinkedHashMap<>();
+            snapshot.put("count", count());
+            snapshot.put("mean", mean());
+            snapshot.put("p50", percentile(0.5));
+            snapshot.put("p90", percentile(0.9));
+            snapshot.put("p99", percentile(0.99));
+            snapshot.put("max", max());
+            return snapshot;
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.xinchang.common.cache;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 以json输出缓存指标的监控接口：
+ * GET /cache/metrics 返回所有key前缀的指标，GET /cache/metrics/{keyPrefix} 返回单个前缀的指标，
+ * GET /cache/metrics/{keyPrefix}/hot-keys 返回单个前缀当前的热点key。
+ * 接口没有鉴权，并且会输出key名称，默认不开启：需要配置cache.metrics.web.enabled=true，
+ * 并且应用扫描该类所在的包或自己声明为bean才会生效，开启后应由应用自己限制访问来源。
+ * 不需要http接口时可以通过JMX或CacheMetricsRegistry查看指标。
+ */
+@RestController
+@ConditionalOnProperty(prefix = "cache.metrics.web", name = "enabled", havingValue = "true")
+@RequestMapping("/cache/metrics")
+public class CacheMetricsController {
+
+    @RequestMapping(method = RequestMethod.GET)
+    public Map<String, Map<String, Object>> metrics() {
+        return CacheMetricsRegistry.snapshot();
+    }
+
+    @RequestMapping(value = "/{keyPrefix:.+}", method = RequestMethod.GET)
+    public Map<String, Object> metrics(@PathVariable("keyPrefix") String keyPrefix) {
+        CacheMetrics cacheMetrics = CacheMetricsRegistry.get(keyPrefix);
+        if (cacheMetrics == null) {
+            return Collections.emptyMap();
+        }
+
+        return cacheMetrics.snapshot();
+    }
+
+    @RequestMapping(value = "/{keyPrefix:.+}/hot-keys", method = RequestMethod.GET)
+    public Map<String, Long> hotKeys(@PathVariable("keyPrefix") String keyPrefix) {
+        CacheMetrics cacheMetrics = CacheMetricsRegistry.get(keyPrefix);
+        if (cacheMetrics == null) {
+            return Collections.emptyMap();
+        }
+
+        return cacheMetrics.getHotKeys();
+    }
+}
@@ -0,0 +1,42 @@
+package com.xinchang.common.cache;
+
+import java.util.Map;
+
+/**
+ * 通过JMX暴露的缓存指标，每个key前缀一个
+ */
+public interface CacheMetricsMXBean {
+    public String getKeyPrefix();
+
+    public long getLocalHits();
+
+    public long getLocalMisses();
+
+    public long getRedisHits();
+
+    public long getRedisMisses();
+
+    public long getLoads();
+
+    public long getLoadFailures();
+
+    public long getEvictions();
+
+    public long getStaleServes();
+
+    public double getLoadLatencyMeanMillis();
+
+    public long getLoadLatencyP99Millis();
+
+    public double getBatchSizeMean();
+
+    public long getBatchSizeMax();
+
+    public Map<String, Long> getHotKeys();
+
+    public double getCompressionRatio();
+
+    public long getLocalSize();
+
+    public long getLocalWeightBytes();
+}
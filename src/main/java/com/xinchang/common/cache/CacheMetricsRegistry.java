@@ -0,0 +1,74 @@
+package com.xinchang.common.cache;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按key前缀登记的缓存指标，第一次使用某个前缀时创建，同时注册到JMX：
+ * com.xinchang.common.cache:type=CacheMetrics,name="前缀"
+ */
+public final class CacheMetricsRegistry {
+    private static final Logger                              logger  = LoggerFactory
+        .getLogger(CacheMetricsRegistry.class);
+
+    private static final ConcurrentMap<String, CacheMetrics> metrics = new ConcurrentHashMap<>();
+
+    private CacheMetricsRegistry() {
+    }
+
+    public static CacheMetrics getOrCreate(String keyPrefix) {
+        CacheMetrics cacheMetrics = metrics.get(keyPrefix);
+        if (cacheMetrics != null) {
+            return cacheMetrics;
+        }
+
+        cacheMetrics = new CacheMetrics(keyPrefix);
+        CacheMetrics existing = metrics.putIfAbsent(keyPrefix, cacheMetrics);
+        if (existing != null) {
+            return existing;
+        }
+
+        registerMBean(cacheMetrics);
+        return cacheMetrics;
+    }
+
+    public static CacheMetrics get(String keyPrefix) {
+        return metrics.get(keyPrefix);
+    }
+
+    /**
+     * 所有前缀的指标快照，按前缀排序
+     */
+    public static Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> snapshot = new TreeMap<>();
+        for (CacheMetrics cacheMetrics : metrics.values()) {
+            snapshot.put(cacheMetrics.getKeyPrefix(), cacheMetrics.snapshot());
+        }
+
+        return snapshot;
+    }
+
+    private static void registerMBean(CacheMetrics cacheMetrics) {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("com.xinchang.common.cache:type=CacheMetrics,name="
+                                                   + ObjectName.quote(cacheMetrics.getKeyPrefix()));
+            if (!mBeanServer.isRegistered(objectName)) {
+                mBeanServer.registerMBean(cacheMetrics, objectName);
+            }
+        }
+        catch (Exception e) {
+            logger.warn("register cache metrics mbean error,keyPrefix = "
+                        + cacheMetrics.getKeyPrefix(), e);
+        }
+    }
+}
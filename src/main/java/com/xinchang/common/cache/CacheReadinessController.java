@@ -0,0 +1,26 @@
+package com.xinchang.common.cache;
+
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * 缓存预热的就绪检查接口：GET /cache/readiness，
+ * 所有开启了启动预热的缓存都预热完成（WARM或DEGRADED）时返回200，否则返回503，内容是每个key前缀的预热状态。
+ * 需要应用扫描该类所在的包或自己声明为bean才会生效。
+ */
+@RestController
+@RequestMapping("/cache/readiness")
+public class CacheReadinessController {
+
+    @RequestMapping(method = RequestMethod.GET)
+    public ResponseEntity<Map<String, CacheWarmUpRegistry.State>> readiness() {
+        HttpStatus status = CacheWarmUpRegistry.isReady() ? HttpStatus.OK
+            : HttpStatus.SERVICE_UNAVAILABLE;
+        return new ResponseEntity<>(CacheWarmUpRegistry.getStates(), status);
+    }
+}
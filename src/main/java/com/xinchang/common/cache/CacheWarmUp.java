@@ -0,0 +1,160 @@
+package com.xinchang.common.cache;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.collections4.CollectionUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.xinchang.common.page.PageParam;
+
+/**
+ * 缓存的启动预热：在CacheExecutors.backgroundExecutor中按页取出需要预热的key，
+ * 每页交给executor加载，同时最多加载parallelism页。
+ * 预热状态登记在CacheWarmUpRegistry中，预热出错时按failureTolerated登记为FAILED（未就绪）或DEGRADED（就绪）。
+ *
+ * @param <K> 缓存key的类型
+ */
+class CacheWarmUp<K> {
+    private static final Logger logger = LoggerFactory.getLogger(CacheWarmUp.class);
+
+    private String keyPrefix;
+
+    private PageLoader<K> loader;
+
+    private int pageSize;
+
+    private int parallelism;
+
+    private boolean failureTolerated;
+
+    private Executor executor;
+
+    CacheWarmUp(String keyPrefix, PageLoader<K> loader, int pageSize, int parallelism,
+                boolean failureTolerated, Executor executor) {
+        this.keyPrefix = keyPrefix;
+        this.loader = loader;
+        this.pageSize = Math.max(pageSize, 1);
+        this.parallelism = Math.max(parallelism, 1);
+        this.failureTolerated = failureTolerated;
+        this.executor = executor;
+    }
+
+    /**
+     * 登记为PENDING，并在CacheExecutors.backgroundExecutor中执行预热，线程池已满时按预热出错登记
+     */
+    void start() {
+        CacheWarmUpRegistry.update(keyPrefix, CacheWarmUpRegistry.State.PENDING);
+
+        try {
+            CacheExecutors.backgroundExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    execute();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            logger.error("cache warm up rejected,keyPrefix = " + keyPrefix, e);
+            updateFailed();
+        }
+    }
+
+    /**
+     * 在当前线程执行预热并登记预热结果，返回预热的key数量，出错时返回-1
+     */
+    long execute() {
+        CacheWarmUpRegistry.update(keyPrefix, CacheWarmUpRegistry.State.RUNNING);
+        long start = System.currentTimeMillis();
+        try {
+            long count = warmUp();
+            CacheWarmUpRegistry.update(keyPrefix, CacheWarmUpRegistry.State.WARM);
+            logger.info("cache warm up finished,keyPrefix = {},keys = {},cost = {}ms", keyPrefix,
+                count, System.currentTimeMillis() - start);
+            return count;
+        }
+        catch (Throwable e) {
+            logger.error("cache warm up error,keyPrefix = " + keyPrefix, e);
+            updateFailed();
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            return -1;
+        }
+    }
+
+    private void updateFailed() {
+        CacheWarmUpRegistry.update(keyPrefix, failureTolerated ? CacheWarmUpRegistry.State.DEGRADED
+            : CacheWarmUpRegistry.State.FAILED);
+    }
+
+    private long warmUp() throws InterruptedException {
+        final Semaphore permits = new Semaphore(parallelism);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        long count = 0;
+        try {
+            for (int pageNum = 1; error.get() == null; pageNum++) {
+                final List<K> keys = loader.keys(new PageParam(pageNum, pageSize));
+                if (CollectionUtils.isEmpty(keys)) {
+                    break;
+                }
+
+                count += keys.size();
+                permits.acquire();
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                loader.load(keys);
+                            }
+                            catch (Throwable e) {
+                                error.compareAndSet(null, e);
+                            }
+                            finally {
+                                permits.release();
+                            }
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e) {
+                    // 线程池已满，在当前线程加载
+                    permits.release();
+                    loader.load(keys);
+                }
+
+                if (keys.size() < pageSize) {
+                    break;
+                }
+            }
+        }
+        finally {
+            // 等待所有已经提交的页加载完成，出错时也不提前登记结果
+            permits.acquireUninterruptibly(parallelism);
+        }
+
+        if (error.get() != null) {
+            throw Throwables.propagate(error.get());
+        }
+
+        return count;
+    }
+
+    interface PageLoader<K> {
+        /**
+         * 返回第pageParam页需要预热的key，返回空或不足一页表示没有更多的key
+         */
+        List<K> keys(PageParam pageParam);
+
+        /**
+         * 加载一页key
+         */
+        void load(List<K> keys);
+    }
+}
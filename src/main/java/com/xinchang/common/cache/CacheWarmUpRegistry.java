@@ -0,0 +1,105 @@
+package com.xinchang.common.cache;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 开启了启动预热的缓存的预热状态，所有缓存都预热完成（WARM或DEGRADED）后isReady才返回true，
+ * 可以作为应用的就绪检查，在预热完成前不接入流量。预热出错的缓存按warmUpFailureTolerated登记为FAILED或DEGRADED。
+ */
+public final class CacheWarmUpRegistry {
+    public enum State {
+        /**
+         * 已登记，还没有开始预热
+         */
+        PENDING,
+        /**
+         * 预热中
+         */
+        RUNNING,
+        /**
+         * 预热完成
+         */
+        WARM,
+        /**
+         * 预热出错，未就绪，需要重启或排查后重新部署
+         */
+        FAILED,
+        /**
+         * 预热出错但缓存允许不预热直接接入流量，按就绪处理，没有预热到的数据在访问时再加载
+         */
+        DEGRADED
+    }
+
+    private static final ConcurrentMap<String, State> states = new ConcurrentHashMap<>();
+
+    private static final Object monitor = new Object();
+
+    private CacheWarmUpRegistry() {
+    }
+
+    static void update(String keyPrefix, State state) {
+        states.put(keyPrefix, state);
+        if (!isRunning(state)) {
+            synchronized (monitor) {
+                monitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 所有登记的缓存是否都已经预热完成，有FAILED的缓存时返回false
+     */
+    public static boolean isReady() {
+        for (State state : states.values()) {
+            if (state != State.WARM && state != State.DEGRADED) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * 等待所有登记的缓存预热结束，超时或有FAILED的缓存时返回false
+     */
+    public static boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (monitor) {
+            while (isRunning()) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                monitor.wait(remaining);
+            }
+        }
+
+        return isReady();
+    }
+
+    /**
+     * 每个key前缀的预热状态，按前缀排序
+     */
+    public static Map<String, State> getStates() {
+        return new TreeMap<>(states);
+    }
+
+    private static boolean isRunning() {
+        for (State state : states.values()) {
+            if (isRunning(state)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isRunning(State state) {
+        return state == State.PENDING || state == State.RUNNING;
+    }
+}
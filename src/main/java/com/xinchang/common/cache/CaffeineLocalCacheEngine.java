@@ -0,0 +1,154 @@
+package com.xinchang.common.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+import org.apache.commons.collections4.CollectionUtils;
+
+import com.github.benmanes.caffeine.cache.CacheLoader;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.RemovalListener;
+import com.github.benmanes.caffeine.cache.Weigher;
+
+/**
+ * 使用caffeine实现的本地缓存，采用W-TinyLFU淘汰策略，新数据只有访问频率足够高时才会挤掉老数据，
+ * 在访问分布不均匀时命中率比LRU高，并发读写也没有guava的分段锁竞争。
+ * 可以按数量或按权重限制容量。
+ */
+public class CaffeineLocalCacheEngine implements LocalCacheEngine {
+    public static final CaffeineLocalCacheEngine INSTANCE = new CaffeineLocalCacheEngine();
+
+    @Override
+    public <V> LocalCache<V> build(LocalCacheSpec spec, final LocalCacheLoader<V> loader) {
+        Caffeine<Object, Object> caffeine = Caffeine.newBuilder();
+        if (spec.getRefreshAfterWriteDuration() > 0) {
+            caffeine.refreshAfterWrite(spec.getRefreshAfterWriteDuration(), TimeUnit.SECONDS);
+        }
+
+        if (spec.getExecutor() != null) {
+            caffeine.executor(spec.getExecutor());
+        }
+
+        if (spec.getMaximumWeight() > 0) {
+            final LocalCacheSpec.Weigher weigher = spec.getWeigher();
+            caffeine.maximumWeight(spec.getMaximumWeight()).weigher(new Weigher<Object, Object>() {
+                @Override
+                public int weigh(Object key, Object value) {
+                    return weigher.weigh((String) key, value);
+                }
+            });
+        }
+        else {
+            caffeine.maximumSize(spec.getMaximumSize());
+        }
+
+        final LocalCacheSpec.EvictionListener evictionListener = spec.getEvictionListener();
+        if (evictionListener != null) {
+            caffeine.removalListener(new RemovalListener<Object, Object>() {
+                @Override
+                public void onRemoval(Object key, Object value, RemovalCause cause) {
+                    if (cause.wasEvicted()) {
+                        evictionListener.onEviction((String) key);
+                    }
+                }
+            });
+        }
+
+        LoadingCache<String, V> cache = caffeine
+            .build(new CacheLoader<String, V>() {
+                @Override
+                public V load(String key) throws Exception {
+                    return loader.load(key);
+                }
+
+                @Override
+                public Map<String, V> loadAll(Iterable<? extends String> keys) throws Exception {
+                    List<String> keyList = new ArrayList<>();
+                    CollectionUtils.addAll(keyList, keys);
+                    return loader.loadAll(keyList);
+                }
+
+                @Override
+                public CompletableFuture<V> asyncReload(String key, final V oldValue,
+                                                        Executor executor) {
+                    // caffeine在刷新结果为null时会删除数据，这里和guava保持一致，保留旧值
+                    return loader.reload(key, oldValue).thenApply(new Function<V, V>() {
+                        @Override
+                        public V apply(V value) {
+                            return value != null ? value : oldValue;
+                        }
+                    });
+                }
+            });
+
+        return new CaffeineLocalCache<>(cache);
+    }
+
+    private static class CaffeineLocalCache<V> implements LocalCache<V> {
+        private LoadingCache<String, V> cache;
+
+        CaffeineLocalCache(LoadingCache<String, V> cache) {
+            this.cache = cache;
+        }
+
+        @Override
+        public V getIfPresent(String key) {
+            return cache.getIfPresent(key);
+        }
+
+        @Override
+        public V get(String key) {
+            return cache.get(key);
+        }
+
+        @Override
+        public Map<String, V> getAll(Collection<String> keys) {
+            return cache.getAll(keys);
+        }
+
+        @Override
+        public void put(String key, V value) {
+            cache.put(key, value);
+        }
+
+        @Override
+        public void invalidate(String key) {
+            cache.invalidate(key);
+        }
+
+        @Override
+        public void invalidateAll(Iterable<String> keys) {
+            cache.invalidateAll(keys);
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, V> action) {
+            cache.asMap().forEach(action);
+        }
+
+        @Override
+        public long size() {
+            return cache.estimatedSize();
+        }
+
+        @Override
+        public long weightedSize() {
+            Policy.Eviction<String, V> eviction = cache.policy().eviction().orElse(null);
+            if (eviction == null || !eviction.isWeighted()) {
+                return -1;
+            }
+
+            return eviction.weightedSize().orElse(-1);
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package com.xinchang.common.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.collections4.MapUtils;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheLoader.InvalidCacheLoadException;
+import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * 使用guava实现的本地缓存，按数量或权重的LRU淘汰。
+ * 按权重淘汰时guava不提供当前总权重，这里写入时把权重和数据一起保存在WeightedValue中并累加，
+ * 删除时扣减保存的权重，每条数据只计算一次权重，扣减和累加的值一致。
+ */
+public class GuavaLocalCacheEngine implements LocalCacheEngine {
+    public static final GuavaLocalCacheEngine INSTANCE = new GuavaLocalCacheEngine();
+
+    @Override
+    public <V> LocalCache<V> build(LocalCacheSpec spec, final LocalCacheLoader<V> loader) {
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
+        if (spec.getRefreshAfterWriteDuration() > 0) {
+            cacheBuilder.refreshAfterWrite(spec.getRefreshAfterWriteDuration(), TimeUnit.SECONDS);
+        }
+
+        final LongAdder weightedSize = spec.getMaximumWeight() > 0 ? new LongAdder() : null;
+        if (weightedSize != null) {
+            cacheBuilder.maximumWeight(spec.getMaximumWeight())
+                .weigher(new Weigher<Object, Object>() {
+                    @Override
+                    public int weigh(Object key, Object value) {
+                        int weight = ((WeightedValue) value).weight;
+                        weightedSize.add(weight);
+                        return weight;
+                    }
+                });
+        }
+        else {
+            cacheBuilder.maximumSize(spec.getMaximumSize());
+        }
+
+        final LocalCacheSpec.EvictionListener evictionListener = spec.getEvictionListener();
+        if (evictionListener != null || weightedSize != null) {
+            cacheBuilder.removalListener(new RemovalListener<Object, Object>() {
+                @Override
+                public void onRemoval(RemovalNotification<Object, Object> notification) {
+                    String key = (String) notification.getKey();
+                    if (weightedSize != null && notification.getValue() != null) {
+                        weightedSize.add(-((WeightedValue) notification.getValue()).weight);
+                    }
+
+                    if (evictionListener != null && notification.wasEvicted()) {
+                        evictionListener.onEviction(key);
+                    }
+                }
+            });
+        }
+
+        final LocalCacheSpec.Weigher weigher = weightedSize != null ? spec.getWeigher() : null;
+        LoadingCache<String, Object> cache = cacheBuilder
+            .build(new CacheLoader<String, Object>() {
+                @Override
+                public Object load(String key) throws Exception {
+                    return wrap(key, loader.load(key), weigher);
+                }
+
+                /**
+                 * guava默认的reload是在读请求的线程中同步调用load，这里改为异步刷新，刷新完成前继续返回旧值
+                 */
+                @Override
+                public ListenableFuture<Object> reload(final String key, final Object oldValue) {
+                    final SettableFuture<Object> result = SettableFuture.create();
+                    loader.reload(key, GuavaLocalCache.<V> unwrap(oldValue))
+                        .whenComplete(new BiConsumer<V, Throwable>() {
+                            @Override
+                            public void accept(V value, Throwable e) {
+                                if (e != null) {
+                                    result.setException(e);
+                                }
+                                else {
+                                    result.set(value != null ? wrap(key, value, weigher)
+                                        : oldValue);
+                                }
+                            }
+                        });
+
+                    return result;
+                }
+            });
+
+        return new GuavaLocalCache<>(cache, loader, weigher, weightedSize);
+    }
+
+    /**
+     * 按权重淘汰时把数据包装成WeightedValue，权重只在这里计算一次
+     */
+    private static Object wrap(String key, Object value, LocalCacheSpec.Weigher weigher) {
+        if (value == null || weigher == null) {
+            return value;
+        }
+
+        return new WeightedValue(value, weigher.weigh(key, value));
+    }
+
+    /**
+     * 按权重淘汰时本地缓存中保存的数据，weight是写入时计算的权重
+     */
+    private static class WeightedValue {
+        private final Object value;
+
+        private final int    weight;
+
+        WeightedValue(Object value, int weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    private static class GuavaLocalCache<V> implements LocalCache<V> {
+        private LoadingCache<String, Object> cache;
+
+        private LocalCacheLoader<V>          loader;
+
+        private LocalCacheSpec.Weigher       weigher;
+
+        private LongAdder                    weightedSize;
+
+        GuavaLocalCache(LoadingCache<String, Object> cache, LocalCacheLoader<V> loader,
+                        LocalCacheSpec.Weigher weigher, LongAdder weightedSize) {
+            this.cache = cache;
+            this.loader = loader;
+            this.weigher = weigher;
+            this.weightedSize = weightedSize;
+        }
+
+        @SuppressWarnings("unchecked")
+        private static <V> V unwrap(Object value) {
+            return (V) (value instanceof WeightedValue ? ((WeightedValue) value).value : value);
+        }
+
+        @Override
+        public V getIfPresent(String key) {
+            return unwrap(cache.getIfPresent(key));
+        }
+
+        @Override
+        public V get(String key) {
+            try {
+                return unwrap(cache.get(key));
+            }
+            catch (InvalidCacheLoadException e) {
+                // 加载结果为null，guava不缓存null，按不存在处理
+                return null;
+            }
+            catch (ExecutionException | UncheckedExecutionException e) {
+                throw Throwables.propagate(e.getCause());
+            }
+        }
+
+        /**
+         * guava的getAll在loadAll结果缺少某个key时会整体失败，所以这里自己加载缺少的key
+         */
+        @Override
+        public Map<String, V> getAll(Collection<String> keys) {
+            Map<String, V> retMap = new HashMap<>();
+            for (Entry<String, Object> entry : cache.getAllPresent(keys).entrySet()) {
+                retMap.put(entry.getKey(), GuavaLocalCache.<V> unwrap(entry.getValue()));
+            }
+            if (retMap.size() == keys.size()) {
+                return retMap;
+            }
+
+            List<String> missingKeys = new ArrayList<>(keys.size() - retMap.size());
+            for (String key : keys) {
+                if (!retMap.containsKey(key)) {
+                    missingKeys.add(key);
+                }
+            }
+
+            Map<String, V> loadedMap;
+            try {
+                loadedMap = loader.loadAll(missingKeys);
+            }
+            catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+
+            if (MapUtils.isNotEmpty(loadedMap)) {
+                for (Entry<String, V> entry : loadedMap.entrySet()) {
+                    put(entry.getKey(), entry.getValue());
+                }
+                retMap.putAll(loadedMap);
+            }
+
+            return retMap;
+        }
+
+        @Override
+        public void put(String key, V value) {
+            cache.put(key, wrap(key, value, weigher));
+        }
+
+        @Override
+        public void invalidate(String key) {
+            cache.invalidate(key);
+        }
+
+        @Override
+        public void invalidateAll(Iterable<String> keys) {
+            cache.invalidateAll(keys);
+        }
+
+        @Override
+        public void forEach(final BiConsumer<String, V> action) {
+            cache.asMap().forEach(new BiConsumer<String, Object>() {
+                @Override
+                public void accept(String key, Object value) {
+                    action.accept(key, GuavaLocalCache.<V> unwrap(value));
+                }
+            });
+        }
+
+        @Override
+        public long size() {
+            return cache.size();
+        }
+
+        @Override
+        public long weightedSize() {
+            return weightedSize == null ? -1 : weightedSize.sum();
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.xinchang.common.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * 热点key探测，用于只使用redis缓存的AbstractCache。
+ * 按采样率抽样记录key的访问，用count-min sketch估算每个key在当前探测周期内的访问次数，
+ * 超过阈值的key被放入一个容量很小、写入后很快失效的本地缓存，期间对该key的读请求不再访问redis。
+ * 本地缓存失效后如果仍然很热，会在下一次从redis读取后重新放入。
+ *
+ * @param <V> 缓存value的类型
+ */
+public class HotKeyDetector<V> {
+    /**
+     * count-min sketch的行数，每行使用不同的hash
+     */
+    private static final int DEPTH = 4;
+
+    /**
+     * 每行的计数器数量，必须是2的幂
+     */
+    private static final int WIDTH = 1024;
+
+    private final AtomicLongArray counters = new AtomicLongArray(DEPTH * WIDTH);
+
+    /**
+     * 探测周期，单位毫秒，每个周期开始时清零计数
+     */
+    private final long windowMillis;
+
+    private final AtomicLong windowStart = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * 每个周期内估算访问次数达到该值的key被认为是热点
+     */
+    private final long threshold;
+
+    /**
+     * 采样率，每sampleRate次访问记录一次，估算时乘回去
+     */
+    private final int sampleRate;
+
+    private final Cache<String, HotEntry<V>> hotCache;
+
+    /**
+     * @param threshold 每个探测周期内访问次数的阈值
+     * @param sampleRate 采样率，1表示记录每次访问
+     * @param windowMillis 探测周期，单位毫秒
+     * @param expireMillis 热点key在本地缓存中的失效时间，单位毫秒
+     * @param maximumSize 本地缓存最多存放的热点key数量
+     */
+    public HotKeyDetector(long threshold, int sampleRate, long windowMillis, long expireMillis,
+                          int maximumSize) {
+        this.threshold = threshold;
+        this.sampleRate = Math.max(sampleRate, 1);
+        this.windowMillis = windowMillis;
+        this.hotCache = CacheBuilder.newBuilder().maximumSize(maximumSize)
+            .expireAfterWrite(expireMillis, TimeUnit.MILLISECONDS).build();
+    }
+
+    /**
+     * 从热点本地缓存中读取，不是热点或已失效时返回null
+     */
+    public V getIfPresent(String key) {
+        if (hotCache.size() == 0) {
+            return null;
+        }
+
+        HotEntry<V> entry = hotCache.getIfPresent(key);
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * 记录一次访问，返回该key当前是否达到热点阈值
+     */
+    public boolean record(String key) {
+        if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return false;
+        }
+
+        rollWindow();
+
+        int hash = spread(key.hashCode());
+        int hash2 = spread(hash * 0x9E3779B9) | 1;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < DEPTH; i++) {
+            int index = i * WIDTH + ((hash + i * hash2) & (WIDTH - 1));
+            min = Math.min(min, counters.incrementAndGet(index));
+        }
+
+        return min * sampleRate >= threshold;
+    }
+
+    /**
+     * 把达到阈值的key放入热点本地缓存，已经存在时不覆盖，保证热点数据最多缓存expireMillis
+     */
+    public void promote(String key, V value) {
+        hotCache.asMap().putIfAbsent(key, new HotEntry<>(value, System.currentTimeMillis()));
+    }
+
+    public void invalidate(String key) {
+        hotCache.invalidate(key);
+    }
+
+    public void invalidateAll(Iterable<String> keys) {
+        hotCache.invalidateAll(keys);
+    }
+
+    /**
+     * 当前在热点本地缓存中的key，value是放入的时间点
+     */
+    public Map<String, Long> getHotKeys() {
+        if (hotCache.size() == 0) {
+            return Collections.emptyMap();
+        }
+
+        Map<String, Long> hotKeys = new LinkedHashMap<>();
+        for (Entry<String, HotEntry<V>> entry : hotCache.asMap().entrySet()) {
+            hotKeys.put(entry.getKey(), entry.getValue().promotedAt);
+        }
+
+        return hotKeys;
+    }
+
+    private void rollWindow() {
+        long start = windowStart.get();
+        long now = System.currentTimeMillis();
+        if (now - start >= windowMillis && windowStart.compareAndSet(start, now)) {
+            for (int i = 0; i < counters.length(); i++) {
+                counters.set(i, 0);
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85EBCA6B;
+        hash ^= hash >>> 13;
+        return hash;
+    }
+
+    private static class HotEntry<V> {
+        private final V value;
+
+        private final long promotedAt;
+
+        HotEntry(V value, long promotedAt) {
+            this.value = value;
+            this.promotedAt = promotedAt;
+        }
+    }
+}
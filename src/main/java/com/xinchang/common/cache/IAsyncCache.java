@@ -0,0 +1,32 @@
+package com.xinchang.common.cache;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * ICache的异步版本，用于需要同时读取多个缓存的场景，可以并行发出请求后再一起等待结果。
+ * 如果线程池已满，返回的future会以RejectedExecutionException结束。
+ */
+public interface IAsyncCache<K, V> {
+    /**
+     * 异步从缓存中获取一个value，如果不存在future的结果为null
+     */
+    public CompletableFuture<V> getAsync(K key);
+
+    public CompletableFuture<Map<K, V>> getAllAsync(Collection<K> keys);
+
+    public CompletableFuture<Void> putAsync(K key, V value);
+
+    public CompletableFuture<Void> deleteAsync(K key);
+
+    /**
+     * 异步原子性自增，每次加1
+     */
+    public CompletableFuture<Long> atomicIncrementAsync(K key);
+
+    /**
+     * 异步原子性自增，每次增加指定的值
+     */
+    public CompletableFuture<Long> atomicIncrementAsync(K key, long delta);
+}
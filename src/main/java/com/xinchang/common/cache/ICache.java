@@ -37,6 +37,39 @@ public interface ICache<K, V> {
 
     public void put(K key, V value);
 
+    /**
+     * 放入缓存并给这条数据打上标签，之后可以通过invalidateTag删除同一个标签下的所有数据，例如一个用户相关的所有缓存。
+     * 标签记录在redis中，只在使用redis缓存时生效。不支持标签的实现默认抛出UnsupportedOperationException。
+     * 
+     * @param key
+     * @param value
+     * @param tags
+     */
+    public default void put(K key, V value, Collection<String> tags) {
+        throw new UnsupportedOperationException("tags are not supported by " + getClass().getName());
+    }
+
+    /**
+     * 删除打了该标签的所有数据，返回从redis中删除的数量。不支持标签的实现默认抛出UnsupportedOperationException。
+     * 
+     * @param tag
+     * @return
+     */
+    public default long invalidateTag(String tag) {
+        throw new UnsupportedOperationException("tags are not supported by " + getClass().getName());
+    }
+
+    /**
+     * 删除该缓存（key前缀下）的所有数据，返回从redis中删除的数量。
+     * 通过SCAN逐步遍历并限速删除，数据量大时耗时较长，不会阻塞redis。不支持的实现默认抛出UnsupportedOperationException。
+     * 
+     * @return
+     */
+    public default long invalidatePrefix() {
+        throw new UnsupportedOperationException(
+            "invalidatePrefix is not supported by " + getClass().getName());
+    }
+
     public Map<K, V> getAll(Collection<K> keys);
 
     public List<V> getAllForList(Collection<K> keys);
@@ -60,4 +93,17 @@ public interface ICache<K, V> {
      * @return
      */
     public Long atomicIncrement(K key, long delta);
+
+    /**
+     * 原子性自增，同步写入redis并返回redis中的准确值，delta为0时可以读取准确值。
+     * 开启缓冲计数时atomicIncrement返回近似值，需要准确值的地方（例如判断是否超过限额）使用这个方法，
+     * 会把本节点还没有写入redis的增量一起写入。没有缓冲计数的实现默认等同于atomicIncrement。
+     * 
+     * @param key
+     * @param delta
+     * @return
+     */
+    public default Long atomicIncrementExact(K key, long delta) {
+        return atomicIncrement(key, delta);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,111 @@
+package com.xinchang.common.cache;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+import com.google.common.base.Throwables;
+
+/**
+ * 正在从server加载中的key的登记表。
+ * 同一个key的并发加载只会真正执行一次，其它线程等待并共享同一个结果或异常。
+ *
+ * @param <V> 缓存value的类型
+ */
+class InFlightRegistry<V> {
+    private final ConcurrentMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * 加载单个key，如果该key已经在加载中，则等待正在进行的加载结果。
+     */
+    V load(String key, Callable<V> loader) {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return join(existing);
+        }
+
+        try {
+            V value = loader.call();
+            future.complete(value);
+            return value;
+        }
+        catch (Throwable e) {
+            future.completeExceptionally(e);
+            throw Throwables.propagate(e);
+        }
+        finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * 该key是否正在加载中
+     */
+    boolean isLoading(String key) {
+        return inFlight.containsKey(key);
+    }
+
+    /**
+     * 批量登记要加载的key，futures中按顺序放入每个key对应的加载结果。
+     * 返回由当前线程负责加载的key的下标，其它下标的key已经在加载中（包括keys中重复出现的key），等待futures中的结果即可。
+     * 当前线程加载完成后必须调用complete或fail。
+     */
+    BitSet claim(List<String> keys, List<CompletableFuture<V>> futures) {
+        BitSet claimed = new BitSet(keys.size());
+        for (int i = 0; i < keys.size(); i++) {
+            CompletableFuture<V> future = new CompletableFuture<>();
+            CompletableFuture<V> existing = inFlight.putIfAbsent(keys.get(i), future);
+            if (existing == null) {
+                claimed.set(i);
+                futures.add(future);
+            }
+            else {
+                futures.add(existing);
+            }
+        }
+
+        return claimed;
+    }
+
+    /**
+     * 用加载结果唤醒等待中的线程，loaded中不存在的key以null结束。
+     */
+    void complete(List<String> keys, List<CompletableFuture<V>> futures, BitSet claimed,
+                  Map<String, V> loaded) {
+        for (int i = claimed.nextSetBit(0); i >= 0; i = claimed.nextSetBit(i + 1)) {
+            String key = keys.get(i);
+            futures.get(i).complete(loaded == null ? null : loaded.get(key));
+            inFlight.remove(key, futures.get(i));
+        }
+    }
+
+    /**
+     * 加载失败，等待中的线程会收到同一个异常。
+     */
+    void fail(List<String> keys, List<CompletableFuture<V>> futures, BitSet claimed,
+              Throwable cause) {
+        for (int i = claimed.nextSetBit(0); i >= 0; i = claimed.nextSetBit(i + 1)) {
+            futures.get(i).completeExceptionally(cause);
+            inFlight.remove(keys.get(i), futures.get(i));
+        }
+    }
+
+    static <V> V join(CompletableFuture<V> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for in-flight load", e);
+        }
+        catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package com.xinchang.common.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 进程内的失效通知传输方式，消息同步投递给所有订阅者。
+ * 多个CacheInvalidationBus共用同一个实例即可模拟多个节点，一般用于测试。
+ */
+public class InProcessCacheInvalidationTransport implements CacheInvalidationTransport {
+    private List<Receiver> receivers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void publish(String message) {
+        for (Receiver receiver : receivers) {
+            receiver.onMessage(message);
+        }
+    }
+
+    @Override
+    public void subscribe(Receiver receiver) {
+        receivers.add(receiver);
+    }
+}
@@ -0,0 +1,48 @@
+package com.xinchang.common.cache;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * AbstractCache使用的本地缓存，屏蔽底层实现，由LocalCacheEngine创建。
+ *
+ * @param <V> 缓存value的类型
+ */
+public interface LocalCache<V> {
+    /**
+     * 从本地缓存中获取一个对象，不存在时返回null，不加载数据
+     */
+    public V getIfPresent(String key);
+
+    /**
+     * 从本地缓存中获取一个对象，不存在时通过LocalCacheLoader加载，加载不到返回null
+     */
+    public V get(String key);
+
+    /**
+     * 批量获取，不存在的key通过LocalCacheLoader批量加载，返回结果中只包含有数据的key
+     */
+    public Map<String, V> getAll(Collection<String> keys);
+
+    public void put(String key, V value);
+
+    public void invalidate(String key);
+
+    public void invalidateAll(Iterable<String> keys);
+
+    /**
+     * 遍历本地缓存中的所有数据，遍历期间的修改不一定可见
+     */
+    public void forEach(BiConsumer<String, V> action);
+
+    /**
+     * 本地缓存中的数据条数
+     */
+    public long size();
+
+    /**
+     * 本地缓存中数据的总权重，单位字节，没有按权重淘汰时返回-1
+     */
+    public long weightedSize();
+}
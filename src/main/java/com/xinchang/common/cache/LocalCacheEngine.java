@@ -0,0 +1,16 @@
+package com.xinchang.common.cache;
+
+/**
+ * 本地缓存的实现方式，AbstractCache通过它来创建本地缓存。
+ * 可以通过配置项cache.local.engine切换，目前支持caffeine（默认）、guava和offheap。
+ *
+ * @see CaffeineLocalCacheEngine
+ * @see GuavaLocalCacheEngine
+ * @see OffHeapLocalCacheEngine
+ */
+public interface LocalCacheEngine {
+    /**
+     * 根据配置创建一个本地缓存
+     */
+    public <V> LocalCache<V> build(LocalCacheSpec spec, LocalCacheLoader<V> loader);
+}
@@ -0,0 +1,28 @@
+package com.xinchang.common.cache;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 本地缓存不存在数据时的加载方式，由AbstractCache实现。
+ *
+ * @param <V> 缓存value的类型
+ */
+public interface LocalCacheLoader<V> {
+    /**
+     * 加载单个对象，沒有就返回null
+     */
+    V load(String key) throws Exception;
+
+    /**
+     * 批量加载，返回结果中只包含有数据的key
+     */
+    Map<String, V> loadAll(Collection<String> keys) throws Exception;
+
+    /**
+     * 异步刷新一个已存在的对象，刷新完成前本地缓存继续返回旧值。
+     * future的结果为null或异常结束时保留旧值。
+     */
+    CompletableFuture<V> reload(String key, V oldValue);
+}
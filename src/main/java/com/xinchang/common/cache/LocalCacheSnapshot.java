@@ -0,0 +1,92 @@
+package com.xinchang.common.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * 本地缓存快照文件的读写，读写都通过内存映射完成。
+ * 文件格式：4字节标记、8字节写入时间、4字节条数，然后每条数据依次是4字节key长度、key（UTF-8）、4字节value长度、value。
+ * value是序列化后的字节，和redis中的格式一致。
+ */
+final class LocalCacheSnapshot {
+    private static final int MAGIC = 0x58435331;
+
+    private static final int HEADER_LENGTH = 16;
+
+    private LocalCacheSnapshot() {
+    }
+
+    /**
+     * 写入快照文件，先写临时文件再替换，写入过程中进程退出不会破坏已有的快照
+     */
+    static void write(File file, List<String> keys, List<byte[]> values) throws IOException {
+        byte[][] rawKeys = new byte[keys.size()][];
+        long size = HEADER_LENGTH;
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = keys.get(i).getBytes(StandardCharsets.UTF_8);
+            size += 8 + rawKeys[i].length + values.get(i).length;
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("snapshot too large: " + size);
+        }
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("can not create snapshot directory: " + parent);
+        }
+
+        File tempFile = new File(parent, file.getName() + ".tmp");
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(tempFile, "rw");
+                FileChannel channel = randomAccessFile.getChannel()) {
+            randomAccessFile.setLength(size);
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0, size);
+            buffer.putInt(MAGIC).putLong(System.currentTimeMillis()).putInt(rawKeys.length);
+            for (int i = 0; i < rawKeys.length; i++) {
+                byte[] value = values.get(i);
+                buffer.putInt(rawKeys[i].length).put(rawKeys[i]).putInt(value.length).put(value);
+            }
+            buffer.force();
+        }
+
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 读取快照文件，每条数据交给visitor处理，返回快照的写入时间
+     */
+    static long read(File file, EntryVisitor visitor) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+                throw new IOException("invalid snapshot file: " + file);
+            }
+
+            long createdAt = buffer.getLong();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[buffer.getInt()];
+                buffer.get(key);
+                byte[] value = new byte[buffer.getInt()];
+                buffer.get(value);
+                visitor.visit(new String(key, StandardCharsets.UTF_8), value);
+            }
+
+            return createdAt;
+        }
+    }
+
+    interface EntryVisitor {
+        void visit(String key, byte[] value);
+    }
+}
@@ -0,0 +1,115 @@
+package com.xinchang.common.cache;
+
+import java.util.concurrent.Executor;
+
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * 创建本地缓存时的配置
+ */
+public class LocalCacheSpec {
+    /**
+     * 本地缓存最大容量
+     */
+    private long             maximumSize;
+
+    /**
+     * 本地缓存最大总权重，单位字节，大于0时按权重淘汰，不再按maximumSize限制条数
+     */
+    private long             maximumWeight;
+
+    /**
+     * 按权重淘汰时计算每条数据的权重，maximumWeight大于0时必须设置
+     */
+    private Weigher          weigher;
+
+    /**
+     * 数据在写入本地缓存后多久需要做一次刷新，单位是秒，0表示不刷新
+     */
+    private long             refreshAfterWriteDuration;
+
+    /**
+     * 执行本地缓存维护任务（淘汰、刷新等）的线程池，null表示使用实现方式自己的默认值
+     */
+    private Executor         executor;
+
+    /**
+     * 数据因容量不足被淘汰时的回调，null表示不需要回调
+     */
+    private EvictionListener evictionListener;
+
+    /**
+     * 需要把value序列化后存放的实现方式使用的序列化方式，AbstractCache传入redis的value序列化方式
+     */
+    private RedisSerializer<?> valueSerializer;
+
+    public long getMaximumSize() {
+        return maximumSize;
+    }
+
+    public void setMaximumSize(long maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public void setMaximumWeight(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    public Weigher getWeigher() {
+        return weigher;
+    }
+
+    public void setWeigher(Weigher weigher) {
+        this.weigher = weigher;
+    }
+
+    public long getRefreshAfterWriteDuration() {
+        return refreshAfterWriteDuration;
+    }
+
+    public void setRefreshAfterWriteDuration(long refreshAfterWriteDuration) {
+        this.refreshAfterWriteDuration = refreshAfterWriteDuration;
+    }
+
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+    }
+
+    public EvictionListener getEvictionListener() {
+        return evictionListener;
+    }
+
+    public void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    public RedisSerializer<?> getValueSerializer() {
+        return valueSerializer;
+    }
+
+    public void setValueSerializer(RedisSerializer<?> valueSerializer) {
+        this.valueSerializer = valueSerializer;
+    }
+
+    public interface Weigher {
+        /**
+         * 一条数据的权重，单位字节，每条数据写入本地缓存时调用一次，删除时按写入时的权重扣减
+         */
+        int weigh(String key, Object value);
+    }
+
+    public interface EvictionListener {
+        /**
+         * 数据因容量不足被本地缓存淘汰，主动invalidate和覆盖写入不会回调
+         */
+        void onEviction(String key);
+    }
+}
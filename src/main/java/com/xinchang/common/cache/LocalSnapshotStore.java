@@ -0,0 +1,233 @@
+package com.xinchang.common.cache;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+/**
+ * 本地缓存快照：定时和应用关闭时把本地缓存按redis的value序列化方式写入快照文件（格式见LocalCacheSnapshot），
+ * 启动时从快照恢复本地缓存，再在后台逐批读取redis比对，redis中已经变化或不存在的key从本地缓存删除。
+ *
+ * @param <V> 缓存value的类型
+ */
+class LocalSnapshotStore<V> {
+    private static final Logger logger = LoggerFactory.getLogger(LocalSnapshotStore.class);
+
+    private File file;
+
+    private String realKeyPrefix;
+
+    private LocalCache<V> cache;
+
+    private RedisSerializer<V> valueSerializer;
+
+    private RedisBatchOperations redisBatch;
+
+    private RedisSerializer<String> keySerializer;
+
+    private int batchSize;
+
+    /**
+     * 正在写快照，避免上一次还没写完时重复执行
+     */
+    private AtomicBoolean writing = new AtomicBoolean();
+
+    LocalSnapshotStore(File file, String realKeyPrefix, LocalCache<V> cache,
+                       RedisSerializer<V> valueSerializer, RedisBatchOperations redisBatch,
+                       RedisSerializer<String> keySerializer, int batchSize) {
+        this.file = file;
+        this.realKeyPrefix = realKeyPrefix;
+        this.cache = cache;
+        this.valueSerializer = valueSerializer;
+        this.redisBatch = redisBatch;
+        this.keySerializer = keySerializer;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * 快照文件存在时恢复本地缓存，并在CacheExecutors.backgroundExecutor中和redis比对，
+     * 线程池已满无法比对时删除恢复的数据
+     */
+    void restore() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        final Restored restored = load();
+        if (restored == null) {
+            return;
+        }
+
+        try {
+            CacheExecutors.backgroundExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    validate(restored);
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            logger.error("validate local cache snapshot rejected,keyPrefix = " + realKeyPrefix, e);
+            cache.invalidateAll(restored.keys);
+        }
+    }
+
+    /**
+     * 每隔intervalSeconds秒在CacheExecutors.backgroundExecutor中写一次快照，0或负数表示不定时写
+     */
+    void schedule(long intervalSeconds) {
+        if (intervalSeconds <= 0) {
+            return;
+        }
+
+        CacheExecutors.scheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CacheExecutors.backgroundExecutor().execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            write();
+                        }
+                    });
+                }
+                catch (RejectedExecutionException e) {
+                    // 线程池已满，等下一次再写
+                }
+            }
+        }, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 把本地缓存中的数据写入快照文件，上一次还没写完时直接返回
+     */
+    void write() {
+        if (!writing.compareAndSet(false, true)) {
+            return;
+        }
+
+        long start = System.currentTimeMillis();
+        try {
+            final List<String> keys = new ArrayList<>((int) cache.size());
+            final List<byte[]> values = new ArrayList<>((int) cache.size());
+            cache.forEach(new BiConsumer<String, V>() {
+                @Override
+                public void accept(String key, V value) {
+                    keys.add(key);
+                    values.add(valueSerializer.serialize(value));
+                }
+            });
+
+            LocalCacheSnapshot.write(file, keys, values);
+            logger.info("write local cache snapshot finished,file = {},keys = {},cost = {}ms", file,
+                keys.size(), System.currentTimeMillis() - start);
+        }
+        catch (Throwable e) {
+            logger.error("write local cache snapshot error,file = " + file, e);
+        }
+        finally {
+            writing.set(false);
+        }
+    }
+
+    /**
+     * 从快照文件恢复本地缓存，返回恢复的key和数据的hash，快照损坏时丢弃已恢复的数据并返回null
+     */
+    Restored load() {
+        final Restored restored = new Restored();
+        long start = System.currentTimeMillis();
+        try {
+            LocalCacheSnapshot.read(file, new LocalCacheSnapshot.EntryVisitor() {
+                @Override
+                public void visit(String key, byte[] value) {
+                    if (!key.startsWith(realKeyPrefix)) {
+                        return;
+                    }
+
+                    V object = valueSerializer.deserialize(value);
+                    if (object != null) {
+                        cache.put(key, object);
+                        restored.keys.add(key);
+                        restored.hashes.add(hash(value));
+                    }
+                }
+            });
+            logger.info("load local cache snapshot finished,file = {},keys = {},cost = {}ms", file,
+                restored.keys.size(), System.currentTimeMillis() - start);
+            return restored;
+        }
+        catch (Throwable e) {
+            // 快照损坏时丢弃已恢复的数据，按冷启动处理
+            logger.error("load local cache snapshot error,file = " + file, e);
+            cache.invalidateAll(restored.keys);
+            return null;
+        }
+    }
+
+    /**
+     * 逐批读取redis，和快照中的数据不一致或redis中已经没有的key从本地缓存删除，返回删除的key数量
+     */
+    int validate(Restored restored) {
+        List<String> keys = restored.keys;
+        int invalidated = 0;
+        try {
+            for (int from = 0; from < keys.size(); from += batchSize) {
+                List<String> batch = keys.subList(from, Math.min(from + batchSize, keys.size()));
+                byte[][] rawKeys = new byte[batch.size()][];
+                for (int i = 0; i < rawKeys.length; i++) {
+                    rawKeys[i] = keySerializer.serialize(batch.get(i));
+                }
+
+                List<byte[]> rawValues = redisBatch.multiGet(rawKeys);
+                for (int i = 0; i < batch.size(); i++) {
+                    byte[] rawValue = rawValues.get(i);
+                    if (rawValue == null || hash(rawValue) != restored.hashes.get(from + i)) {
+                        cache.invalidate(batch.get(i));
+                        invalidated++;
+                    }
+                }
+            }
+
+            logger.info(
+                "validate local cache snapshot finished,keyPrefix = {},keys = {},invalidated = {}",
+                realKeyPrefix, keys.size(), invalidated);
+            return invalidated;
+        }
+        catch (Throwable e) {
+            // 无法比对时不能确定快照数据是否有效，全部删除
+            logger.error("validate local cache snapshot error,keyPrefix = " + realKeyPrefix, e);
+            cache.invalidateAll(keys);
+            return keys.size();
+        }
+    }
+
+    /**
+     * FNV-1a 64位hash，用于比对快照和redis中的数据
+     */
+    private static long hash(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    /**
+     * 从快照恢复的key和对应数据的hash，顺序一致
+     */
+    static class Restored {
+        final List<String> keys = new ArrayList<>();
+
+        final List<Long> hashes = new ArrayList<>();
+    }
+}
@@ -0,0 +1,427 @@
+package com.xinchang.common.cache;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.collections4.MapUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.serializer.JdkSerializationRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import com.google.common.base.Throwables;
+
+/**
+ * 堆外本地缓存，数据序列化后存放在direct buffer中，读取时再反序列化，缓存大量对象时不会增大老年代和full gc的停顿。
+ * 序列化使用LocalCacheSpec中的valueSerializer，AbstractCache会传入redis的value序列化方式，本地和redis中的数据格式一致。
+ * <p>
+ * 存储按key的hash分成多个段，每个段是一个环形写入的buffer，新数据写在上一条数据之后，写到末尾时回到开头，
+ * 覆盖最早写入的数据（FIFO淘汰），同时受LocalCacheSpec中maximumSize条数的限制。
+ * LocalCacheSpec设置了maximumWeight时改为不限制条数，使用的堆外内存不超过maximumWeight，
+ * 每条数据的权重就是序列化后的字节数。
+ * 删除和覆盖写入只删除索引，占用的空间在环形写入经过时回收。
+ */
+public class OffHeapLocalCacheEngine implements LocalCacheEngine {
+    private static final Logger logger = LoggerFactory.getLogger(OffHeapLocalCacheEngine.class);
+
+    private static final int SEGMENT_COUNT = 16;
+
+    /**
+     * 每个缓存占用的堆外内存，单位字节
+     */
+    private long capacityBytes;
+
+    /**
+     * @param capacityBytes 每个缓存占用的堆外内存，单位字节，会平均分给各个段
+     */
+    public OffHeapLocalCacheEngine(long capacityBytes) {
+        if (capacityBytes / SEGMENT_COUNT > Integer.MAX_VALUE || capacityBytes < SEGMENT_COUNT) {
+            throw new IllegalArgumentException("invalid off-heap capacity: " + capacityBytes);
+        }
+
+        this.capacityBytes = capacityBytes;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V> LocalCache<V> build(LocalCacheSpec spec, LocalCacheLoader<V> loader) {
+        RedisSerializer<V> serializer = (RedisSerializer<V>) spec.getValueSerializer();
+        if (serializer == null) {
+            serializer = (RedisSerializer<V>) new JdkSerializationRedisSerializer();
+        }
+
+        return new OffHeapLocalCache<>(spec, loader, serializer, capacityBytes);
+    }
+
+    private static class OffHeapLocalCache<V> implements LocalCache<V> {
+        private Segment[] segments = new Segment[SEGMENT_COUNT];
+
+        private LocalCacheLoader<V> loader;
+
+        private RedisSerializer<V> serializer;
+
+        private long refreshAfterWriteMillis;
+
+        OffHeapLocalCache(LocalCacheSpec spec, LocalCacheLoader<V> loader,
+                          RedisSerializer<V> serializer, long capacityBytes) {
+            this.loader = loader;
+            this.serializer = serializer;
+            this.refreshAfterWriteMillis = TimeUnit.SECONDS
+                .toMillis(spec.getRefreshAfterWriteDuration());
+
+            long maxEntriesPerSegment = Math.max(spec.getMaximumSize() / SEGMENT_COUNT, 1);
+            if (spec.getMaximumWeight() > 0) {
+                capacityBytes = Math.max(Math.min(capacityBytes, spec.getMaximumWeight()),
+                    SEGMENT_COUNT);
+                maxEntriesPerSegment = Long.MAX_VALUE;
+            }
+
+            for (int i = 0; i < SEGMENT_COUNT; i++) {
+                segments[i] = new Segment((int) (capacityBytes / SEGMENT_COUNT),
+                    maxEntriesPerSegment, spec.getEvictionListener());
+            }
+        }
+
+        @Override
+        public V getIfPresent(String key) {
+            Segment segment = segmentFor(key);
+            Slot slot = segment.getSlot(key);
+            if (slot == null) {
+                return null;
+            }
+
+            byte[] bytes = segment.read(key, slot);
+            if (bytes == null) {
+                return null;
+            }
+
+            V value = serializer.deserialize(bytes);
+            if (refreshAfterWriteMillis > 0
+                && System.currentTimeMillis() - slot.writeTime >= refreshAfterWriteMillis) {
+                refresh(key, value, slot);
+            }
+
+            return value;
+        }
+
+        @Override
+        public V get(String key) {
+            V value = getIfPresent(key);
+            if (value != null) {
+                return value;
+            }
+
+            try {
+                value = loader.load(key);
+            }
+            catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+
+            if (value != null) {
+                put(key, value);
+            }
+
+            return value;
+        }
+
+        @Override
+        public Map<String, V> getAll(Collection<String> keys) {
+            Map<String, V> retMap = new HashMap<>(keys.size());
+            List<String> missingKeys = new ArrayList<>();
+            for (String key : keys) {
+                V value = getIfPresent(key);
+                if (value != null) {
+                    retMap.put(key, value);
+                }
+                else {
+                    missingKeys.add(key);
+                }
+            }
+
+            if (missingKeys.isEmpty()) {
+                return retMap;
+            }
+
+            Map<String, V> loadedMap;
+            try {
+                loadedMap = loader.loadAll(missingKeys);
+            }
+            catch (Exception e) {
+                throw Throwables.propagate(e);
+            }
+
+            if (MapUtils.isNotEmpty(loadedMap)) {
+                for (Entry<String, V> entry : loadedMap.entrySet()) {
+                    put(entry.getKey(), entry.getValue());
+                }
+                retMap.putAll(loadedMap);
+            }
+
+            return retMap;
+        }
+
+        @Override
+        public void put(String key, V value) {
+            if (value == null) {
+                invalidate(key);
+                return;
+            }
+
+            segmentFor(key).write(key, serializer.serialize(value));
+        }
+
+        @Override
+        public void invalidate(String key) {
+            segmentFor(key).remove(key);
+        }
+
+        @Override
+        public void invalidateAll(Iterable<String> keys) {
+            for (String key : keys) {
+                invalidate(key);
+            }
+        }
+
+        @Override
+        public void forEach(BiConsumer<String, V> action) {
+            for (Segment segment : segments) {
+                for (String key : segment.keys()) {
+                    Slot slot = segment.getSlot(key);
+                    byte[] bytes = slot == null ? null : segment.read(key, slot);
+                    if (bytes != null) {
+                        action.accept(key, serializer.deserialize(bytes));
+                    }
+                }
+            }
+        }
+
+        @Override
+        public long size() {
+            long size = 0;
+            for (Segment segment : segments) {
+                size += segment.size();
+            }
+
+            return size;
+        }
+
+        /**
+         * 有效数据序列化后的总字节数，已删除但还没有被覆盖的数据不计算在内
+         */
+        @Override
+        public long weightedSize() {
+            long weightedSize = 0;
+            for (Segment segment : segments) {
+                weightedSize += segment.liveBytes();
+            }
+
+            return weightedSize;
+        }
+
+        /**
+         * 异步刷新，刷新完成前继续返回旧值，同一条数据同时只刷新一次
+         */
+        private void refresh(final String key, V oldValue, final Slot slot) {
+            if (!slot.refreshing.compareAndSet(false, true)) {
+                return;
+            }
+
+            loader.reload(key, oldValue).whenComplete(new BiConsumer<V, Throwable>() {
+                @Override
+                public void accept(V value, Throwable e) {
+                    if (e != null) {
+                        logger.error("refresh off-heap cache error,key = " + key, e);
+                        slot.refreshing.set(false);
+                    }
+                    else if (value != null) {
+                        // 刷新期间数据被删除或覆盖时丢弃刷新结果，不恢复已经失效的数据
+                        segmentFor(key).replace(key, slot, serializer.serialize(value));
+                    }
+                    else {
+                        slot.refreshing.set(false);
+                    }
+                }
+            });
+        }
+
+        private Segment segmentFor(String key) {
+            int hash = key.hashCode();
+            hash ^= hash >>> 16;
+            return segments[hash & (SEGMENT_COUNT - 1)];
+        }
+    }
+
+    /**
+     * 一个环形写入的buffer和它的索引，所有操作都在段的锁内完成
+     */
+    private static class Segment {
+        private ByteBuffer buffer;
+
+        private long maxEntries;
+
+        private LocalCacheSpec.EvictionListener evictionListener;
+
+        /**
+         * 按写入顺序排列，第一个就是最早写入、最先被覆盖的数据
+         */
+        private LinkedHashMap<String, Slot> index = new LinkedHashMap<>();
+
+        private int writePosition;
+
+        /**
+         * 索引中数据的总字节数
+         */
+        private long liveBytes;
+
+        Segment(int capacity, long maxEntries, LocalCacheSpec.EvictionListener evictionListener) {
+            this.buffer = ByteBuffer.allocateDirect(capacity);
+            this.maxEntries = maxEntries;
+            this.evictionListener = evictionListener;
+        }
+
+        synchronized Slot getSlot(String key) {
+            return index.get(key);
+        }
+
+        /**
+         * 读取slot中的数据，slot已经被删除或覆盖时返回null
+         */
+        synchronized byte[] read(String key, Slot slot) {
+            if (index.get(key) != slot) {
+                return null;
+            }
+
+            byte[] bytes = new byte[slot.length];
+            ByteBuffer view = buffer.duplicate();
+            view.position(slot.offset);
+            view.get(bytes);
+            return bytes;
+        }
+
+        synchronized void write(String key, byte[] bytes) {
+            doWrite(key, bytes);
+        }
+
+        /**
+         * 只有key当前的数据仍是expected时才写入，返回是否写入
+         */
+        synchronized boolean replace(String key, Slot expected, byte[] bytes) {
+            if (index.get(key) != expected) {
+                return false;
+            }
+
+            doWrite(key, bytes);
+            return true;
+        }
+
+        synchronized void remove(String key) {
+            release(index.remove(key));
+        }
+
+        private void doWrite(String key, byte[] bytes) {
+            release(index.remove(key));
+            if (bytes.length > buffer.capacity()) {
+                // 比整个段还大的数据不放入本地缓存
+                return;
+            }
+
+            int position = writePosition;
+            if (position + bytes.length > buffer.capacity()) {
+                // 末尾放不下，末尾剩余区域中的数据是最早写入的，先淘汰再回到开头
+                evictOverlapping(position, buffer.capacity());
+                position = 0;
+            }
+
+            evictOverlapping(position, position + bytes.length);
+            while (index.size() >= maxEntries) {
+                evictEldest();
+            }
+
+            ByteBuffer view = buffer.duplicate();
+            view.position(position);
+            view.put(bytes);
+
+            index.put(key, new Slot(position, bytes.length, System.currentTimeMillis()));
+            liveBytes += bytes.length;
+            writePosition = position + bytes.length;
+        }
+
+        synchronized List<String> keys() {
+            return new ArrayList<>(index.keySet());
+        }
+
+        synchronized int size() {
+            return index.size();
+        }
+
+        synchronized long liveBytes() {
+            return liveBytes;
+        }
+
+        /**
+         * 淘汰和即将写入的区域重叠的数据，这些数据一定是最早写入的几条
+         */
+        private void evictOverlapping(int start, int end) {
+            Iterator<Entry<String, Slot>> iterator = index.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Entry<String, Slot> eldest = iterator.next();
+                Slot slot = eldest.getValue();
+                if (slot.offset >= end || slot.offset + slot.length <= start) {
+                    return;
+                }
+
+                iterator.remove();
+                release(slot);
+                notifyEviction(eldest.getKey());
+            }
+        }
+
+        private void evictEldest() {
+            Iterator<Entry<String, Slot>> iterator = index.entrySet().iterator();
+            Entry<String, Slot> eldest = iterator.next();
+            iterator.remove();
+            release(eldest.getValue());
+            notifyEviction(eldest.getKey());
+        }
+
+        private void release(Slot slot) {
+            if (slot != null) {
+                liveBytes -= slot.length;
+            }
+        }
+
+        private void notifyEviction(String key) {
+            if (evictionListener != null) {
+                evictionListener.onEviction(key);
+            }
+        }
+    }
+
+    private static class Slot {
+        private final int offset;
+
+        private final int length;
+
+        private final long writeTime;
+
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Slot(int offset, int length, long writeTime) {
+            this.offset = offset;
+            this.length = length;
+            this.writeTime = writeTime;
+        }
+    }
+}
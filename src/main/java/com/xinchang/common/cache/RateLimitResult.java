@@ -0,0 +1,45 @@
+package com.xinchang.common.cache;
+
+/**
+ * 一次限流检查的结果
+ */
+public class RateLimitResult {
+    private final boolean allowed;
+
+    private final long remaining;
+
+    private final long retryAfterMillis;
+
+    public RateLimitResult(boolean allowed, long remaining, long retryAfterMillis) {
+        this.allowed = allowed;
+        this.remaining = remaining;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    /**
+     * 是否获取到许可
+     */
+    public boolean isAllowed() {
+        return allowed;
+    }
+
+    /**
+     * 本次检查后剩余的许可数量
+     */
+    public long getRemaining() {
+        return remaining;
+    }
+
+    /**
+     * 被拒绝时，至少需要等待多少毫秒才可能获取成功，获取成功时为0
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitResult [allowed=" + allowed + ", remaining=" + remaining
+               + ", retryAfterMillis=" + retryAfterMillis + "]";
+    }
+}
@@ -0,0 +1,30 @@
+package com.xinchang.common.cache;
+
+/**
+ * 分布式限流，每次检查在redis中通过一个lua脚本原子地完成。
+ * 被拒绝后在本地记录到什么时候之前一定会被拒绝，这段时间内的检查直接在本地拒绝，不访问redis。
+ */
+public interface RateLimiter {
+    /**
+     * 尝试获取一个许可
+     *
+     * @param key 限流的对象，例如用户id、手机号
+     * @return 是否获取成功
+     */
+    public boolean tryAcquire(String key);
+
+    /**
+     * 尝试获取指定数量的许可，获取失败时不消耗许可
+     *
+     * @param key 限流的对象，例如用户id、手机号
+     * @param permits 许可数量
+     * @return 获取结果，包括剩余的许可数量和失败时需要等待的时间
+     */
+    public RateLimitResult acquire(String key, int permits);
+
+    /**
+     * 清除该key的限流记录，例如登录成功后清除密码错误次数。
+     * 本地的拒绝记录只在当前节点清除，其它节点最多在被拒绝时返回的等待时间内仍会直接拒绝
+     */
+    public void reset(String key);
+}
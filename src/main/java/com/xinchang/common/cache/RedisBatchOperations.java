@@ -0,0 +1,230 @@
+package com.xinchang.common.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+
+/**
+ * 批量读写redis的公共实现。
+ * key按batchSize切成多段，每段一个MGET；key数量达到parallelThreshold时把各段分成最多parallelism组，
+ * 除第一组外都交给executor在其它连接上并行读取，第一组和线程池已满的组在当前线程读取。
+ * executor只执行这里的读取任务，任务中不会再提交任务，不会因为互相等待占满线程池。
+ * redis cluster（spring-data-redis 1.8的JedisClusterConnection）不支持pipeline和跨slot的MGET，
+ * 所以cluster下先按slot分组再切段，每段只包含同一个slot的key，各段在一个连接上依次发送。
+ * 批量写入同样通过execute发送，非cluster使用pipeline，cluster在一个连接上逐条执行。
+ */
+class RedisBatchOperations {
+    private RedisTemplate<String, ?> redisTemplate;
+
+    private int batchSize;
+
+    private int parallelThreshold;
+
+    private int parallelism;
+
+    private Executor executor;
+
+    /**
+     * 是否连接的是redis cluster，第一次使用时检测
+     */
+    private volatile Boolean cluster;
+
+    RedisBatchOperations(RedisTemplate<String, ?> redisTemplate, int batchSize,
+                         int parallelThreshold, int parallelism, Executor executor) {
+        this.redisTemplate = redisTemplate;
+        this.batchSize = Math.max(batchSize, 1);
+        this.parallelThreshold = parallelThreshold;
+        this.parallelism = Math.max(parallelism, 1);
+        this.executor = executor;
+    }
+
+    /**
+     * 当前连接是否是redis cluster
+     */
+    boolean isCluster() {
+        Boolean isCluster = cluster;
+        if (isCluster == null) {
+            isCluster = redisTemplate.execute(new RedisCallback<Boolean>() {
+                @Override
+                public Boolean doInRedis(RedisConnection connection) {
+                    return connection instanceof RedisClusterConnection;
+                }
+            });
+            cluster = isCluster;
+        }
+
+        return isCluster;
+    }
+
+    /**
+     * 在一个连接上发送一批命令，非cluster时使用pipeline，返回pipeline中每个命令的原始结果；
+     * cluster不支持pipeline，命令逐条执行，返回callback加到results中的结果。
+     * 需要结果时callback只发送需要结果的命令，并把每个命令的返回值加到results中（pipeline中返回值是null，会被忽略）。
+     */
+    List<Object> execute(final BatchCallback callback) {
+        if (isCluster()) {
+            return redisTemplate.execute(new RedisCallback<List<Object>>() {
+                @Override
+                public List<Object> doInRedis(RedisConnection connection) {
+                    List<Object> results = new ArrayList<>();
+                    callback.doInRedis(connection, results);
+                    return results;
+                }
+            });
+        }
+
+        return redisTemplate.executePipelined(new RedisCallback<Object>() {
+            @Override
+            public Object doInRedis(RedisConnection connection) {
+                callback.doInRedis(connection, new ArrayList<>());
+                return null;
+            }
+        }, null);
+    }
+
+    /**
+     * 批量读取，返回结果和rawKeys的顺序一致，不存在的key对应null
+     */
+    List<byte[]> multiGet(final byte[][] rawKeys) {
+        final byte[][] rawValues = new byte[rawKeys.length][];
+        List<int[]> chunks = splitChunks(rawKeys, isCluster());
+
+        int groupCount = rawKeys.length >= parallelThreshold
+            ? Math.min(parallelism, chunks.size()) : 1;
+        List<CompletableFuture<Void>> futures = new ArrayList<>(groupCount);
+        for (int group = 1; group < groupCount; group++) {
+            final List<int[]> groupChunks = groupChunks(chunks, group, groupCount);
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            multiGetChunks(groupChunks, rawKeys, rawValues);
+                            future.complete(null);
+                        }
+                        catch (Throwable e) {
+                            future.completeExceptionally(e);
+                        }
+                    }
+                });
+                futures.add(future);
+            }
+            catch (RejectedExecutionException e) {
+                // 线程池已满，在当前线程读取
+                multiGetChunks(groupChunks, rawKeys, rawValues);
+            }
+        }
+
+        multiGetChunks(groupChunks(chunks, 0, groupCount), rawKeys, rawValues);
+        for (CompletableFuture<Void> future : futures) {
+            InFlightRegistry.join(future);
+        }
+
+        return Arrays.asList(rawValues);
+    }
+
+    /**
+     * 把key切成每段最多batchSize个，每段是key在rawKeys中的下标，cluster下每段只包含同一个slot的key
+     */
+    private List<int[]> splitChunks(byte[][] rawKeys, boolean isCluster) {
+        List<int[]> chunks = new ArrayList<>(rawKeys.length / batchSize + 1);
+        if (!isCluster) {
+            for (int from = 0; from < rawKeys.length; from += batchSize) {
+                int[] chunk = new int[Math.min(batchSize, rawKeys.length - from)];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = from + i;
+                }
+                chunks.add(chunk);
+            }
+            return chunks;
+        }
+
+        Map<Integer, List<Integer>> slots = new LinkedHashMap<>();
+        for (int i = 0; i < rawKeys.length; i++) {
+            int slot = ClusterSlotHashUtil.calculateSlot(rawKeys[i]);
+            List<Integer> indexes = slots.get(slot);
+            if (indexes == null) {
+                indexes = new ArrayList<>();
+                slots.put(slot, indexes);
+            }
+            indexes.add(i);
+        }
+
+        for (List<Integer> indexes : slots.values()) {
+            for (int from = 0; from < indexes.size(); from += batchSize) {
+                int[] chunk = new int[Math.min(batchSize, indexes.size() - from)];
+                for (int i = 0; i < chunk.length; i++) {
+                    chunk[i] = indexes.get(from + i);
+                }
+                chunks.add(chunk);
+            }
+        }
+
+        return chunks;
+    }
+
+    /**
+     * 第group组包含的段，按段轮流分配到各组
+     */
+    private static List<int[]> groupChunks(List<int[]> chunks, int group, int groupCount) {
+        List<int[]> groupChunks = new ArrayList<>(chunks.size() / groupCount + 1);
+        for (int i = group; i < chunks.size(); i += groupCount) {
+            groupChunks.add(chunks.get(i));
+        }
+        return groupChunks;
+    }
+
+    /**
+     * 在一个连接上读取多段key，结果按下标写入rawValues，不同组的下标不重叠
+     */
+    private void multiGetChunks(final List<int[]> chunks, final byte[][] rawKeys,
+                                byte[][] rawValues) {
+        if (chunks.isEmpty()) {
+            return;
+        }
+
+        List<Object> results = execute(new BatchCallback() {
+            @Override
+            public void doInRedis(RedisConnection connection, List<Object> results) {
+                for (int[] chunk : chunks) {
+                    results.add(connection.mGet(chunkKeys(chunk, rawKeys)));
+                }
+            }
+        });
+
+        for (int c = 0; c < chunks.size(); c++) {
+            int[] chunk = chunks.get(c);
+            List<?> values = (List<?>) results.get(c);
+            for (int i = 0; i < chunk.length; i++) {
+                rawValues[chunk[i]] = (byte[]) values.get(i);
+            }
+        }
+    }
+
+    private static byte[][] chunkKeys(int[] chunk, byte[][] rawKeys) {
+        byte[][] chunkKeys = new byte[chunk.length][];
+        for (int i = 0; i < chunk.length; i++) {
+            chunkKeys[i] = rawKeys[chunk[i]];
+        }
+        return chunkKeys;
+    }
+
+    /**
+     * 在一个连接上发送一批命令的回调，见execute
+     */
+    interface BatchCallback {
+        void doInRedis(RedisConnection connection, List<Object> results);
+    }
+}
@@ -0,0 +1,59 @@
+package com.xinchang.common.cache;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * 使用redis发布订阅实现的失效通知传输方式
+ */
+public class RedisCacheInvalidationTransport implements CacheInvalidationTransport {
+    public static final String DEFAULT_CHANNEL = "CACHE_INVALIDATION";
+
+    private StringRedisTemplate           redisTemplate;
+
+    private String                        channel;
+
+    private RedisMessageListenerContainer listenerContainer;
+
+    public RedisCacheInvalidationTransport(RedisConnectionFactory connectionFactory) {
+        this(connectionFactory, DEFAULT_CHANNEL);
+    }
+
+    public RedisCacheInvalidationTransport(RedisConnectionFactory connectionFactory,
+                                           String channel) {
+        this.redisTemplate = new StringRedisTemplate(connectionFactory);
+        this.channel = channel;
+
+        this.listenerContainer = new RedisMessageListenerContainer();
+        this.listenerContainer.setConnectionFactory(connectionFactory);
+        this.listenerContainer.afterPropertiesSet();
+        this.listenerContainer.start();
+    }
+
+    @Override
+    public void publish(String message) {
+        redisTemplate.convertAndSend(channel, message);
+    }
+
+    @Override
+    public void subscribe(final Receiver receiver) {
+        listenerContainer.addMessageListener(new MessageListener() {
+            @Override
+            public void onMessage(Message message, byte[] pattern) {
+                receiver.onMessage(
+                    redisTemplate.getStringSerializer().deserialize(message.getBody()));
+            }
+        }, new ChannelTopic(channel));
+    }
+
+    @PreDestroy
+    public void destroy() throws Exception {
+        listenerContainer.destroy();
+    }
+}
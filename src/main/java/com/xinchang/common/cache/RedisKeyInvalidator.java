@@ -0,0 +1,165 @@
+package com.xinchang.common.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.Cursor;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * 批量删除redis中的key，不使用会阻塞redis的KEYS命令。
+ * 用SCAN/SSCAN逐步遍历，每攒够chunkSize个key用一次UNLINK删除（redis 4.0以下自动改用DEL），
+ * 删除前按keysPerSecond限速，避免一次清理把redis的延迟拉高。
+ * 注意：SCAN只遍历当前连接的节点，不支持redis cluster。
+ */
+class RedisKeyInvalidator {
+    private static final Logger logger = LoggerFactory.getLogger(RedisKeyInvalidator.class);
+
+    private static final byte[] UNLINK_SCRIPT = "return redis.call('UNLINK', unpack(KEYS))"
+        .getBytes(StandardCharsets.UTF_8);
+
+    private RedisTemplate<String, ?> redisTemplate;
+
+    private int chunkSize;
+
+    private RateLimiter rateLimiter;
+
+    /**
+     * redis不支持UNLINK时改为false，之后都使用DEL
+     */
+    private volatile boolean unlinkSupported = true;
+
+    RedisKeyInvalidator(RedisTemplate<String, ?> redisTemplate, int chunkSize,
+                        double keysPerSecond) {
+        this.redisTemplate = redisTemplate;
+        this.chunkSize = Math.max(chunkSize, 1);
+        this.rateLimiter = RateLimiter.create(keysPerSecond);
+    }
+
+    /**
+     * 删除匹配pattern（SCAN的MATCH语法）的所有key，返回删除的key数量
+     */
+    long deleteMatching(final String pattern, final DeletedKeysListener listener) {
+        return redisTemplate.execute(new RedisCallback<Long>() {
+            @Override
+            public Long doInRedis(RedisConnection connection) {
+                ScanOptions options = ScanOptions.scanOptions().match(pattern).count(chunkSize)
+                    .build();
+                return deleteAll(connection, connection.scan(options), listener);
+            }
+        });
+    }
+
+    /**
+     * 删除集合setKey中的所有成员对应的key，最后删除集合本身，返回删除的key数量（不包括集合本身）
+     */
+    long deleteMembers(final String setKey, final DeletedKeysListener listener) {
+        return redisTemplate.execute(new RedisCallback<Long>() {
+            @Override
+            public Long doInRedis(RedisConnection connection) {
+                byte[] rawSetKey = keySerializer().serialize(setKey);
+                long count = deleteAll(connection,
+                    connection.sScan(rawSetKey, ScanOptions.scanOptions().count(chunkSize).build()),
+                    listener);
+                unlink(connection, new byte[][] { rawSetKey });
+                return count;
+            }
+        });
+    }
+
+    private long deleteAll(RedisConnection connection, Cursor<byte[]> cursor,
+                           DeletedKeysListener listener) {
+        // 不关闭cursor：jedis的cursor关闭时会关闭所在的连接，连接由redisTemplate.execute统一释放
+        long count = 0;
+        List<byte[]> chunk = new ArrayList<>(chunkSize);
+        while (cursor.hasNext()) {
+            chunk.add(cursor.next());
+            if (chunk.size() >= chunkSize) {
+                count += deleteChunk(connection, chunk, listener);
+                chunk.clear();
+            }
+        }
+
+        if (!chunk.isEmpty()) {
+            count += deleteChunk(connection, chunk, listener);
+        }
+
+        return count;
+    }
+
+    private int deleteChunk(RedisConnection connection, List<byte[]> chunk,
+                            DeletedKeysListener listener) {
+        rateLimiter.acquire(chunk.size());
+        unlink(connection, chunk.toArray(new byte[chunk.size()][]));
+
+        if (listener != null) {
+            List<String> keys = new ArrayList<>(chunk.size());
+            for (byte[] rawKey : chunk) {
+                keys.add(keySerializer().deserialize(rawKey));
+            }
+            listener.onDeleted(keys);
+        }
+
+        return chunk.size();
+    }
+
+    private void unlink(RedisConnection connection, byte[][] rawKeys) {
+        if (unlinkSupported) {
+            try {
+                connection.eval(UNLINK_SCRIPT, ReturnType.INTEGER, rawKeys.length, rawKeys);
+                return;
+            }
+            catch (DataAccessException e) {
+                // redis 4.0以下没有UNLINK，其它错误（连接断开、超时等）直接抛出，不改用DEL
+                if (!isUnknownCommand(e)) {
+                    throw e;
+                }
+                logger.warn("UNLINK is not supported, fall back to DEL", e);
+                unlinkSupported = false;
+            }
+        }
+
+        connection.del(rawKeys);
+    }
+
+    /**
+     * 是否是redis不认识命令的错误，lua脚本中调用时是"Unknown Redis command"，直接调用时是"unknown command"
+     */
+    private static boolean isUnknownCommand(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            String message = cause.getMessage();
+            if (message != null) {
+                message = message.toLowerCase(Locale.ROOT);
+                if (message.contains("unknown command")
+                    || message.contains("unknown redis command")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private RedisSerializer<String> keySerializer() {
+        return (RedisSerializer<String>) redisTemplate.getKeySerializer();
+    }
+
+    interface DeletedKeysListener {
+        /**
+         * 一批key已经从redis中删除
+         */
+        void onDeleted(List<String> keys);
+    }
+}
@@ -0,0 +1,122 @@
+package com.xinchang.common.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands.SetOption;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import com.google.common.collect.Iterables;
+
+/**
+ * 影子key：写入数据时同时写入一个影子key，影子key比数据保留更长时间，从server加载失败时可以读到其中的旧数据。
+ * 影子key和标签一样放在key前缀加后缀下，不会被invalidatePrefix的数据匹配到。
+ * 同时记录正在后台重试加载的key，避免同一个key重复安排重试。
+ */
+class RedisStaleStore {
+    private RedisBatchOperations redisBatch;
+
+    private RedisSerializer<String> keySerializer;
+
+    private String keyPrefix;
+
+    private String staleKeyPrefix;
+
+    private int batchSize;
+
+    /**
+     * 返回了影子key中的旧数据、正在后台重试加载的key
+     */
+    private Set<String> retryingKeys = ConcurrentHashMap.newKeySet();
+
+    RedisStaleStore(RedisBatchOperations redisBatch, RedisSerializer<String> keySerializer,
+                    String keyPrefix, int batchSize) {
+        this.redisBatch = redisBatch;
+        this.keySerializer = keySerializer;
+        this.keyPrefix = keyPrefix;
+        this.staleKeyPrefix = keyPrefix + "_STALE";
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * 影子key的前缀
+     */
+    String getStaleKeyPrefix() {
+        return staleKeyPrefix;
+    }
+
+    String getStaleKey(String realKey) {
+        return staleKeyPrefix + realKey.substring(keyPrefix.length());
+    }
+
+    List<String> getStaleKeys(Collection<String> realKeys) {
+        List<String> staleKeys = new ArrayList<>(realKeys.size());
+        for (String realKey : realKeys) {
+            staleKeys.add(getStaleKey(realKey));
+        }
+        return staleKeys;
+    }
+
+    /**
+     * 读取realKeys的影子key，返回结果和realKeys的顺序一致，没有旧数据的key对应null
+     */
+    List<byte[]> get(List<String> realKeys) {
+        byte[][] rawKeys = new byte[realKeys.size()][];
+        for (int i = 0; i < rawKeys.length; i++) {
+            rawKeys[i] = keySerializer.serialize(getStaleKey(realKeys.get(i)));
+        }
+        return redisBatch.multiGet(rawKeys);
+    }
+
+    /**
+     * 把已经序列化的数据写入影子key，rawValues的key是数据的真实key，staleMillis是影子key的失效时间，单位毫秒
+     */
+    void set(Map<String, byte[]> rawValues, final long staleMillis) {
+        for (final List<Entry<String, byte[]>> entries : Iterables
+            .partition(rawValues.entrySet(), batchSize)) {
+            redisBatch.execute(new RedisBatchOperations.BatchCallback() {
+                @Override
+                public void doInRedis(RedisConnection connection, List<Object> results) {
+                    for (Entry<String, byte[]> entry : entries) {
+                        connection.set(keySerializer.serialize(getStaleKey(entry.getKey())),
+                            entry.getValue(), Expiration.milliseconds(staleMillis),
+                            SetOption.UPSERT);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * realKeys到影子key的映射，按租约写入时和数据在同一个脚本中写入影子key
+     */
+    Map<String, String> mapStaleKeys(Collection<String> realKeys) {
+        Map<String, String> staleKeys = new LinkedHashMap<>(realKeys.size() * 4 / 3 + 1);
+        for (String realKey : realKeys) {
+            staleKeys.put(realKey, getStaleKey(realKey));
+        }
+        return staleKeys;
+    }
+
+    /**
+     * 标记realKey正在后台重试加载，已经在重试中时返回false
+     */
+    boolean startRetry(String realKey) {
+        return retryingKeys.add(realKey);
+    }
+
+    /**
+     * 结束realKeys的后台重试
+     */
+    void finishRetry(Collection<String> realKeys) {
+        retryingKeys.removeAll(realKeys);
+    }
+}
@@ -0,0 +1,211 @@
+package com.xinchang.common.cache;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import com.google.common.collect.Lists;
+
+/**
+ * 写入租约：从server加载数据前在redis中放入租约标记，加载完成后只有租约标记没有变化时才写入加载结果，
+ * 加载期间如果有put、delete或数据过期，加载结果不会覆盖redis中更新的数据。
+ * 只有key不存在或者已经是其它线程的租约标记时才能取得租约；key中已经有数据说明加载前有并发的put，
+ * 这时不取得租约，加载结果不写入redis。
+ * 获取和写入都是每批key一次lua脚本调用（spring-data-redis 1.8不支持在pipeline中执行脚本），
+ * redis cluster连接不支持lua脚本，不能使用。
+ */
+class RedisWriteLease {
+    /**
+     * 租约标记的前缀，读到时按不存在处理
+     */
+    private static final byte[] LEASE_PREFIX = new byte[] { 0, 'L', 'E', 'A', 'S', 'E', ':' };
+
+    /**
+     * 获取写入租约：每个key不存在时放入租约标记，是租约标记时共用该标记，返回标记的sha1作为租约；
+     * key中是数据时返回nil，表示不取得租约
+     */
+    private static final byte[] ACQUIRE_SCRIPT = (
+        "local leases = {}\n"
+        + "for i, key in ipairs(KEYS) do\n"
+        + "  local v = redis.call('GET', key)\n"
+        + "  if not v then\n"
+        + "    v = ARGV[1]\n"
+        + "    redis.call('SET', key, v, 'PX', ARGV[2])\n"
+        + "  end\n"
+        + "  if string.sub(v, 1, string.len(ARGV[3])) == ARGV[3] then\n"
+        + "    leases[i] = redis.sha1hex(v)\n"
+        + "  else\n"
+        + "    leases[i] = false\n"
+        + "  end\n"
+        + "end\n"
+        + "return leases").getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 按租约写入：每个key对应ARGV中的租约、数据和失效时间三个参数，key当前内容的sha1和租约一致时才写入。
+     * ARGV[1]是影子key的失效时间，大于0时KEYS中每个key后面跟着它的影子key，写入成功时同时写入影子key
+     */
+    private static final byte[] SET_IF_LEASED_SCRIPT = (
+        "local staleMillis = tonumber(ARGV[1])\n"
+        + "local step = staleMillis > 0 and 2 or 1\n"
+        + "for i = 1, #KEYS / step do\n"
+        + "  local key = KEYS[(i - 1) * step + 1]\n"
+        + "  local n = i * 3 + 1\n"
+        + "  local v = redis.call('GET', key)\n"
+        + "  if v and redis.sha1hex(v) == ARGV[n - 2] then\n"
+        + "    if tonumber(ARGV[n]) > 0 then\n"
+        + "      redis.call('SET', key, ARGV[n - 1], 'PX', ARGV[n])\n"
+        + "    else\n"
+        + "      redis.call('SET', key, ARGV[n - 1])\n"
+        + "    end\n"
+        + "    if step == 2 then\n"
+        + "      redis.call('SET', KEYS[i * 2], ARGV[n - 1], 'PX', ARGV[1])\n"
+        + "    end\n"
+        + "  end\n"
+        + "end\n"
+        + "return 0").getBytes(StandardCharsets.UTF_8);
+
+    private RedisTemplate<String, ?> redisTemplate;
+
+    private int batchSize;
+
+    RedisWriteLease(RedisTemplate<String, ?> redisTemplate, int batchSize) {
+        this.redisTemplate = redisTemplate;
+        this.batchSize = Math.max(batchSize, 1);
+    }
+
+    /**
+     * 是否是租约标记
+     */
+    static boolean isLease(byte[] rawValue) {
+        if (rawValue.length <= LEASE_PREFIX.length) {
+            return false;
+        }
+
+        for (int i = 0; i < LEASE_PREFIX.length; i++) {
+            if (rawValue[i] != LEASE_PREFIX[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 取得realKeys的租约，返回取得了租约的key到租约的映射，leaseMillis是租约标记的失效时间，单位毫秒。
+     * 每batchSize个key一次脚本调用。
+     */
+    @SuppressWarnings("unchecked")
+    Map<String, byte[]> acquire(List<String> realKeys, long leaseMillis) {
+        final RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate
+            .getKeySerializer();
+        final byte[] rawLeaseMillis = String.valueOf(leaseMillis).getBytes(StandardCharsets.UTF_8);
+        Map<String, byte[]> leases = new HashMap<>(realKeys.size());
+        for (final List<String> keys : Lists.partition(realKeys, batchSize)) {
+            List<?> results = redisTemplate.execute(new RedisCallback<List<?>>() {
+                @Override
+                public List<?> doInRedis(RedisConnection connection) {
+                    byte[][] keysAndArgs = new byte[keys.size() + 3][];
+                    for (int i = 0; i < keys.size(); i++) {
+                        keysAndArgs[i] = keySerializer.serialize(keys.get(i));
+                    }
+                    keysAndArgs[keys.size()] = newLeaseMarker();
+                    keysAndArgs[keys.size() + 1] = rawLeaseMillis;
+                    keysAndArgs[keys.size() + 2] = LEASE_PREFIX;
+                    return connection.eval(ACQUIRE_SCRIPT, ReturnType.MULTI, keys.size(),
+                        keysAndArgs);
+                }
+            });
+
+            for (int i = 0; i < keys.size(); i++) {
+                Object result = results.get(i);
+                if (result == null) {
+                    // key中已经有数据，加载结果不写入
+                    continue;
+                }
+
+                leases.put(keys.get(i), result instanceof byte[] ? (byte[]) result
+                    : String.valueOf(result).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        return leases;
+    }
+
+    /**
+     * 按租约写入已经序列化的数据，没有租约或者租约已经失效的key不写入，每batchSize个key一次脚本调用。
+     * expireMillis是失效时间，单位毫秒，0表示不失效；jitterMillis大于0时失效时间再加上0到jitterMillis的随机值。
+     */
+    void setIfLeased(Map<String, byte[]> rawValues, Map<String, byte[]> leases,
+                     long expireMillis, long jitterMillis) {
+        setIfLeased(rawValues, leases, expireMillis, jitterMillis, null, 0);
+    }
+
+    /**
+     * 同上，staleKeys不为null时，写入成功的数据在同一个脚本中写入staleKeys中对应的影子key，
+     * 影子key的失效时间是staleMillis，单位毫秒。没有写入的数据（加载期间有put、delete）不会写入影子key
+     */
+    @SuppressWarnings("unchecked")
+    void setIfLeased(Map<String, byte[]> rawValues, Map<String, byte[]> leases,
+                     long expireMillis, long jitterMillis, Map<String, String> staleKeys,
+                     long staleMillis) {
+        final RedisSerializer<String> keySerializer = (RedisSerializer<String>) redisTemplate
+            .getKeySerializer();
+        List<Entry<String, byte[]>> leasedEntries = new ArrayList<>(rawValues.size());
+        for (Entry<String, byte[]> entry : rawValues.entrySet()) {
+            if (leases.containsKey(entry.getKey())) {
+                leasedEntries.add(entry);
+            }
+        }
+
+        boolean withStale = staleKeys != null && staleMillis > 0;
+        int step = withStale ? 2 : 1;
+        byte[] rawStaleMillis = String.valueOf(withStale ? staleMillis : 0)
+            .getBytes(StandardCharsets.UTF_8);
+        for (List<Entry<String, byte[]>> entries : Lists.partition(leasedEntries, batchSize)) {
+            final int keyCount = entries.size() * step;
+            final byte[][] keysAndArgs = new byte[keyCount + 1 + entries.size() * 3][];
+            keysAndArgs[keyCount] = rawStaleMillis;
+            for (int i = 0; i < entries.size(); i++) {
+                Entry<String, byte[]> entry = entries.get(i);
+                long ttl = expireMillis > 0 && jitterMillis > 0 ? expireMillis
+                    + ThreadLocalRandom.current().nextLong(jitterMillis + 1) : expireMillis;
+                keysAndArgs[i * step] = keySerializer.serialize(entry.getKey());
+                if (withStale) {
+                    keysAndArgs[i * step + 1] = keySerializer
+                        .serialize(staleKeys.get(entry.getKey()));
+                }
+
+                int arg = keyCount + 1 + i * 3;
+                keysAndArgs[arg] = leases.get(entry.getKey());
+                keysAndArgs[arg + 1] = entry.getValue();
+                keysAndArgs[arg + 2] = String.valueOf(ttl).getBytes(StandardCharsets.UTF_8);
+            }
+
+            redisTemplate.execute(new RedisCallback<Object>() {
+                @Override
+                public Object doInRedis(RedisConnection connection) {
+                    return connection.eval(SET_IF_LEASED_SCRIPT, ReturnType.INTEGER, keyCount,
+                        keysAndArgs);
+                }
+            });
+        }
+    }
+
+    private static byte[] newLeaseMarker() {
+        byte[] token = UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8);
+        byte[] marker = Arrays.copyOf(LEASE_PREFIX, LEASE_PREFIX.length + token.length);
+        System.arraycopy(token, 0, marker, LEASE_PREFIX.length, token.length);
+        return marker;
+    }
+}
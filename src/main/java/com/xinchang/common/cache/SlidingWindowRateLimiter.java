@@ -0,0 +1,66 @@
+package com.xinchang.common.cache;
+
+import java.util.List;
+import java.util.UUID;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * 滑动窗口限流：任意windowMillis时间内最多limit次，超过后拒绝，直到窗口内最早的一次滑出窗口。
+ * 适用于次数较少、需要精确计数的场景，例如验证码错误次数、登录失败次数，
+ * 每次获取的记录存放在redis的有序集合中，所以limit不宜过大。
+ */
+public class SlidingWindowRateLimiter extends AbstractRateLimiter {
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> SCRIPT = new DefaultRedisScript<>(
+        "local limit = tonumber(ARGV[1])\n"
+        + "local window = tonumber(ARGV[2])\n"
+        + "local now = tonumber(ARGV[3])\n"
+        + "local requested = tonumber(ARGV[4])\n"
+        + "redis.call('ZREMRANGEBYSCORE', KEYS[1], '-inf', now - window)\n"
+        + "local count = redis.call('ZCARD', KEYS[1])\n"
+        + "if count + requested <= limit then\n"
+        + "  for i = 1, requested do\n"
+        + "    redis.call('ZADD', KEYS[1], now, ARGV[5] .. ':' .. i)\n"
+        + "  end\n"
+        + "  redis.call('PEXPIRE', KEYS[1], window)\n"
+        + "  return {1, limit - count - requested, 0}\n"
+        + "end\n"
+        + "if requested > limit then\n"
+        + "  return {0, limit - count, -1}\n"
+        + "end\n"
+        + "local oldest = redis.call('ZRANGE', KEYS[1], count + requested - limit - 1, "
+        + "count + requested - limit - 1, 'WITHSCORES')\n"
+        + "return {0, limit - count, tonumber(oldest[2]) + window - now}\n",
+        List.class);
+
+    private final long limit;
+
+    private final long windowMillis;
+
+    /**
+     * @param name 限流的名称
+     * @param limit 窗口内允许的最大次数
+     * @param windowMillis 窗口大小，单位毫秒
+     */
+    public SlidingWindowRateLimiter(String name, long limit, long windowMillis) {
+        super(name, windowMillis);
+        this.limit = limit;
+        this.windowMillis = windowMillis;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected RedisScript<List> getScript() {
+        return SCRIPT;
+    }
+
+    @Override
+    protected String[] getScriptArgs(long now, int permits) {
+        // 同一毫秒内的多次获取需要不同的member
+        return new String[] { String.valueOf(limit), String.valueOf(windowMillis),
+                              String.valueOf(now), String.valueOf(permits),
+                              UUID.randomUUID().toString() };
+    }
+}
@@ -0,0 +1,73 @@
+package com.xinchang.common.cache;
+
+import java.util.List;
+
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+
+/**
+ * 令牌桶限流：桶中最多capacity个令牌，每秒补充ratePerSecond个，每次获取消耗令牌，令牌不足时拒绝。
+ * 适用于允许一定突发的接口限流，例如每个用户每秒最多调用若干次。
+ * 令牌数量和上次补充的时间存放在redis的hash中，一段时间不访问后自动失效。
+ */
+public class TokenBucketRateLimiter extends AbstractRateLimiter {
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> SCRIPT = new DefaultRedisScript<>(
+        "local capacity = tonumber(ARGV[1])\n"
+        + "local rate = tonumber(ARGV[2])\n"
+        + "local now = tonumber(ARGV[3])\n"
+        + "local requested = tonumber(ARGV[4])\n"
+        + "local ttl = tonumber(ARGV[5])\n"
+        + "local data = redis.call('HMGET', KEYS[1], 'tokens', 'ts')\n"
+        + "local tokens = tonumber(data[1])\n"
+        + "local ts = tonumber(data[2])\n"
+        + "if tokens == nil or ts == nil then tokens = capacity; ts = now end\n"
+        + "if now > ts then tokens = math.min(capacity, tokens + (now - ts) * rate); ts = now end\n"
+        + "local allowed = 0\n"
+        + "local wait = 0\n"
+        + "if tokens >= requested then\n"
+        + "  tokens = tokens - requested\n"
+        + "  allowed = 1\n"
+        + "elseif requested <= capacity then\n"
+        + "  wait = math.ceil((requested - tokens) / rate)\n"
+        + "else\n"
+        + "  wait = -1\n"
+        + "end\n"
+        + "redis.call('HMSET', KEYS[1], 'tokens', tostring(tokens), 'ts', tostring(ts))\n"
+        + "redis.call('PEXPIRE', KEYS[1], ttl)\n"
+        + "return {allowed, math.floor(tokens), wait}\n",
+        List.class);
+
+    private final long capacity;
+
+    /**
+     * 每毫秒补充的令牌数
+     */
+    private final double ratePerMillis;
+
+    /**
+     * @param name 限流的名称
+     * @param capacity 桶的容量，也就是允许的最大突发次数
+     * @param ratePerSecond 每秒补充的令牌数
+     */
+    public TokenBucketRateLimiter(String name, long capacity, double ratePerSecond) {
+        super(name, (long) Math.ceil(capacity * 1000 / ratePerSecond));
+        this.capacity = capacity;
+        this.ratePerMillis = ratePerSecond / 1000;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    protected RedisScript<List> getScript() {
+        return SCRIPT;
+    }
+
+    @Override
+    protected String[] getScriptArgs(long now, int permits) {
+        // 桶从空到满的时间之后，不再访问的key和满桶没有区别，可以失效
+        long ttl = (long) Math.ceil(capacity / ratePerMillis) + 1000;
+        return new String[] { String.valueOf(capacity), String.valueOf(ratePerMillis),
+                              String.valueOf(now), String.valueOf(permits),
+                              String.valueOf(ttl) };
+    }
+}
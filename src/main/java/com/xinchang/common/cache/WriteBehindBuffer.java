@@ -0,0 +1,187 @@
+package com.xinchang.common.cache;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * write-behind模式下等待写入server的数据。
+ * 同一个key在两次刷新之间的多次写入只保留最后一次，每隔flushIntervalMillis把积攒的数据按batchSize分批交给writer。
+ * 同一时间只有一次刷新在执行，刷新期间的新写入进入下一次刷新，所以同一个key写入server的顺序和put的顺序一致。
+ * 等待写入的key达到maxPending时，新key的写入最多阻塞maxBlockMillis等待刷新腾出空间，超时抛出RejectedExecutionException。
+ *
+ * @param <K> 缓存key的类型
+ * @param <V> 缓存value的类型
+ */
+class WriteBehindBuffer<K, V> {
+    private static final Logger logger = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private BatchWriter<K, V> writer;
+
+    private int batchSize;
+
+    private int maxPending;
+
+    private long maxBlockMillis;
+
+    private Executor executor;
+
+    private LinkedHashMap<K, V> pending = new LinkedHashMap<>();
+
+    private ReentrantLock flushLock = new ReentrantLock();
+
+    private ScheduledFuture<?> flushTask;
+
+    WriteBehindBuffer(BatchWriter<K, V> writer, long flushIntervalMillis, int batchSize,
+                      int maxPending, long maxBlockMillis, Executor executor) {
+        this.writer = writer;
+        this.batchSize = Math.max(batchSize, 1);
+        this.maxPending = Math.max(maxPending, 1);
+        this.maxBlockMillis = maxBlockMillis;
+        this.executor = executor;
+        this.flushTask = CacheExecutors.scheduler().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                requestFlush();
+            }
+        }, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 放入一条等待写入的数据，已经在等待中的key直接覆盖
+     */
+    void offer(K key, V value) {
+        synchronized (this) {
+            if (pending.size() >= maxPending && !pending.containsKey(key)) {
+                awaitSpace(key);
+            }
+
+            pending.put(key, value);
+        }
+    }
+
+    /**
+     * 等待中的key数量
+     */
+    synchronized int pendingSize() {
+        return pending.size();
+    }
+
+    /**
+     * 停止定时刷新，并在当前线程把剩余的数据全部写入server
+     */
+    void close() {
+        flushTask.cancel(false);
+        flushLock.lock();
+        try {
+            while (doFlush()) {
+                // 写完为止
+            }
+        }
+        finally {
+            flushLock.unlock();
+        }
+    }
+
+    private void awaitSpace(K key) {
+        long deadline = System.currentTimeMillis() + maxBlockMillis;
+        requestFlush();
+        while (pending.size() >= maxPending && !pending.containsKey(key)) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new RejectedExecutionException("write-behind queue is full: " + maxPending);
+            }
+
+            try {
+                wait(remaining);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(
+                    "interrupted while waiting for write-behind queue", e);
+            }
+        }
+    }
+
+    private void requestFlush() {
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+        }
+        catch (RejectedExecutionException e) {
+            // 线程池已满，等下一次定时刷新
+        }
+    }
+
+    private void flush() {
+        if (!flushLock.tryLock()) {
+            return;
+        }
+
+        try {
+            // 刷新期间又积攒满一批时继续刷新，不让阻塞中的写入等到下一个周期
+            while (doFlush() && pendingSize() >= batchSize) {
+                // 继续下一轮
+            }
+        }
+        finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 取出当前积攒的全部数据分批写入，没有数据时返回false
+     */
+    private boolean doFlush() {
+        Map<K, V> drained;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return false;
+            }
+
+            drained = pending;
+            pending = new LinkedHashMap<>();
+            notifyAll();
+        }
+
+        List<Entry<K, V>> entries = new ArrayList<>(drained.entrySet());
+        for (int from = 0; from < entries.size(); from += batchSize) {
+            Map<K, V> batch = new LinkedHashMap<>();
+            for (Entry<K, V> entry : entries.subList(from,
+                Math.min(from + batchSize, entries.size()))) {
+                batch.put(entry.getKey(), entry.getValue());
+            }
+
+            try {
+                writer.write(batch);
+            }
+            catch (Throwable e) {
+                // 允许丢失的数据不重试，避免一直失败的数据反复占用队列
+                logger.error("write-behind batch of " + batch.size() + " entries failed", e);
+            }
+        }
+
+        return true;
+    }
+
+    interface BatchWriter<K, V> {
+        /**
+         * 批量写入server
+         */
+        void write(Map<K, V> entries) throws Exception;
+    }
+}
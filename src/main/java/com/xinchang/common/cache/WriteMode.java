@@ -0,0 +1,22 @@
+package com.xinchang.common.cache;
+
+/**
+ * ICache.put时数据写入server（一般是数据库）的方式
+ */
+public enum WriteMode {
+    /**
+     * 只写缓存，由调用方自己写server，这是默认方式
+     */
+    CACHE_ONLY,
+
+    /**
+     * 先同步调用batchWriteToServer写server，成功后再写缓存，同一个key的写入在本节点上串行执行
+     */
+    WRITE_THROUGH,
+
+    /**
+     * 先写缓存，server的写入放入队列，同一个key的多次写入合并为最后一次，定时批量调用batchWriteToServer。
+     * 应用异常退出时队列中的数据会丢失，只适用于允许少量丢失的数据，例如浏览数、最后活跃时间
+     */
+    WRITE_BEHIND
+}
@@ -0,0 +1,88 @@
+package com.xinchang.common.web;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FastJsonRedisSerializer的压缩统计
+ */
+public class CompressionStats {
+    /**
+     * 超过阈值并且压缩后变小、以压缩格式写入的次数
+     */
+    private LongAdder compressedCount = new LongAdder();
+
+    /**
+     * 超过阈值但压缩后没有变小、仍以原始格式写入的次数
+     */
+    private LongAdder incompressibleCount = new LongAdder();
+
+    private LongAdder originalBytes = new LongAdder();
+
+    private LongAdder compressedBytes = new LongAdder();
+
+    private LongAdder compressNanos = new LongAdder();
+
+    private LongAdder decompressedCount = new LongAdder();
+
+    private LongAdder decompressNanos = new LongAdder();
+
+    void recordCompress(int originalLength, int compressedLength, long nanos) {
+        compressNanos.add(nanos);
+        if (compressedLength < originalLength) {
+            compressedCount.increment();
+            originalBytes.add(originalLength);
+            compressedBytes.add(compressedLength);
+        }
+        else {
+            incompressibleCount.increment();
+        }
+    }
+
+    void recordDecompress(long nanos) {
+        decompressedCount.increment();
+        decompressNanos.add(nanos);
+    }
+
+    public long getCompressedCount() {
+        return compressedCount.sum();
+    }
+
+    public long getIncompressibleCount() {
+        return incompressibleCount.sum();
+    }
+
+    /**
+     * 压缩后大小和原始大小的比例，只统计以压缩格式写入的数据
+     */
+    public double getCompressionRatio() {
+        long original = originalBytes.sum();
+        return original == 0 ? 1 : (double) compressedBytes.sum() / original;
+    }
+
+    public double getCompressMeanMicros() {
+        long count = compressedCount.sum() + incompressibleCount.sum();
+        return count == 0 ? 0 : (double) TimeUnit.NANOSECONDS.toMicros(compressNanos.sum()) / count;
+    }
+
+    public double getDecompressMeanMicros() {
+        long count = decompressedCount.sum();
+        return count == 0 ? 0
+            : (double) TimeUnit.NANOSECONDS.toMicros(decompressNanos.sum()) / count;
+    }
+
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("compressedCount", getCompressedCount());
+        snapshot.put("incompressibleCount", getIncompressibleCount());
+        snapshot.put("originalBytes", originalBytes.sum());
+        snapshot.put("compressedBytes", compressedBytes.sum());
+        snapshot.put("compressionRatio", getCompressionRatio());
+        snapshot.put("compressMeanMicros", getCompressMeanMicros());
+        snapshot.put("decompressedCount", decompressedCount.sum());
+        snapshot.put("decompressMeanMicros", getDecompressMeanMicros());
+        return snapshot;
+    }
+}
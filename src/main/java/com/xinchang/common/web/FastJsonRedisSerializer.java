@@ -1,5 +1,10 @@
 package com.xinchang.common.web;
 
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
 import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.data.redis.serializer.SerializationException;
 
@@ -7,19 +12,77 @@ import com.alibaba.fastjson.JSON;
 import com.alibaba.fastjson.JSONObject;
 
 /**
- * 使用fastjson作为redis中对象的序列化方式
+ * 使用fastjson作为redis中对象的序列化方式。
+ * 可以设置压缩阈值，序列化结果超过阈值时使用Deflate压缩，压缩数据以两个字节的标记开头，后面是4字节的原始长度。
+ * json不会以该标记开头，所以没有压缩的旧数据仍然可以正常读取。
+ * 注意：开启压缩前所有读取该数据的节点都需要升级到支持压缩的版本。
  *
  * @author chenxiang
  * @since $Revision:1.0.0, $Date: 2016年1月9日 上午11:19:00 $
  */
 public class FastJsonRedisSerializer<T> implements RedisSerializer<T> {
+    private static final byte MAGIC_0 = (byte) 0xDF;
+
+    private static final byte MAGIC_1 = 'Z';
+
+    private static final int HEADER_LENGTH = 6;
+
+    /**
+     * 原始数据的最大长度，和redis中value的上限一致
+     */
+    private static final int MAX_ORIGINAL_LENGTH = 512 * 1024 * 1024;
+
+    /**
+     * Deflate的最大压缩比约为1032:1，头部记录的原始长度超过压缩数据长度的这个倍数时说明数据已损坏
+     */
+    private static final int MAX_COMPRESSION_RATIO = 1032;
+
+    /**
+     * 序列化结果超过该字节数时压缩，Integer.MAX_VALUE表示不压缩
+     */
+    private int compressThreshold;
+
+    private int compressLevel;
+
+    private CompressionStats compressionStats = new CompressionStats();
+
+    public FastJsonRedisSerializer() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param compressThreshold 序列化结果超过该字节数时压缩
+     */
+    public FastJsonRedisSerializer(int compressThreshold) {
+        this(compressThreshold, Deflater.BEST_SPEED);
+    }
+
+    /**
+     * @param compressThreshold 序列化结果超过该字节数时压缩
+     * @param compressLevel Deflate压缩级别，1-9，越大压缩率越高、越慢
+     */
+    public FastJsonRedisSerializer(int compressThreshold, int compressLevel) {
+        this.compressThreshold = compressThreshold;
+        this.compressLevel = compressLevel;
+    }
 
     @Override
     public byte[] serialize(T t) throws SerializationException {
         if (t == null)
             return null;
 
-        return JSON.toJSONBytes(new ObjectWrapper(JSON.toJSONBytes(t), t.getClass()));
+        byte[] bytes = JSON.toJSONBytes(new ObjectWrapper(JSON.toJSONBytes(t), t.getClass()));
+        if (bytes.length <= compressThreshold) {
+            return bytes;
+        }
+
+        long start = System.nanoTime();
+        byte[] compressed = compress(bytes);
+        compressionStats.recordCompress(bytes.length, compressed.length,
+            System.nanoTime() - start);
+
+        // 压缩后没有变小的数据按原始格式写入
+        return compressed.length < bytes.length ? compressed : bytes;
     }
 
     @Override
@@ -27,6 +90,12 @@ public class FastJsonRedisSerializer<T> implements RedisSerializer<T> {
         if (bytes == null)
             return null;
 
+        if (isCompressed(bytes)) {
+            long start = System.nanoTime();
+            bytes = decompress(bytes);
+            compressionStats.recordDecompress(System.nanoTime() - start);
+        }
+
         Object data = JSON.parse(bytes);
         if (data instanceof JSONObject) {
             JSONObject jsonObject = (JSONObject) data;
@@ -45,4 +114,80 @@ public class FastJsonRedisSerializer<T> implements RedisSerializer<T> {
             return JSON.parseObject(bytes, data.getClass());
         }
     }
+
+    /**
+     * 压缩统计，每个序列化对象单独统计，需要按缓存统计时每个缓存使用单独的序列化对象
+     */
+    public CompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    private byte[] compress(byte[] bytes) {
+        Deflater deflater = new Deflater(compressLevel);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(
+                bytes.length / 2 + HEADER_LENGTH);
+            out.write(MAGIC_0);
+            out.write(MAGIC_1);
+            out.write(bytes.length >>> 24);
+            out.write(bytes.length >>> 16);
+            out.write(bytes.length >>> 8);
+            out.write(bytes.length);
+
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                out.write(buffer, 0, length);
+            }
+
+            return out.toByteArray();
+        }
+        finally {
+            deflater.end();
+        }
+    }
+
+    private static boolean isCompressed(byte[] bytes) {
+        return bytes.length > HEADER_LENGTH && bytes[0] == MAGIC_0 && bytes[1] == MAGIC_1;
+    }
+
+    private static byte[] decompress(byte[] bytes) {
+        int originalLength = ((bytes[2] & 0xFF) << 24) | ((bytes[3] & 0xFF) << 16)
+                             | ((bytes[4] & 0xFF) << 8) | (bytes[5] & 0xFF);
+        // 按头部记录的长度分配内存前先校验，避免损坏的数据导致分配超大数组
+        if (originalLength < 0 || originalLength > MAX_ORIGINAL_LENGTH
+            || originalLength > (long) (bytes.length - HEADER_LENGTH) * MAX_COMPRESSION_RATIO) {
+            throw new SerializationException(
+                "invalid original length " + originalLength + " of compressed data");
+        }
+        byte[] original = new byte[originalLength];
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, HEADER_LENGTH, bytes.length - HEADER_LENGTH);
+            int offset = 0;
+            while (offset < originalLength && !inflater.finished()) {
+                int length = inflater.inflate(original, offset, originalLength - offset);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                offset += length;
+            }
+
+            if (offset != originalLength) {
+                throw new SerializationException("truncated compressed data");
+            }
+
+            return original;
+        }
+        catch (DataFormatException e) {
+            throw new SerializationException("invalid compressed data", e);
+        }
+        finally {
+            inflater.end();
+        }
+    }
 }
@@ -0,0 +1,128 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class AsyncCacheTest {
+    private static final Executor REJECTING = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            throw new RejectedExecutionException("full");
+        }
+    };
+
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+    }
+
+    @Test
+    public void getAsyncAndGetAllAsyncLoadMissingKeys() throws Exception {
+        TestCache cache = newCache(0);
+
+        assertEquals("1", cache.getAsync("a").get(5, TimeUnit.SECONDS));
+        assertNull(cache.getAsync("missing").get(5, TimeUnit.SECONDS));
+
+        Map<String, String> values = cache.getAllAsync(Arrays.asList("a", "b", "missing"))
+            .get(5, TimeUnit.SECONDS);
+        assertEquals(2, values.size());
+        assertEquals("1", values.get("a"));
+        assertEquals("2", values.get("b"));
+        assertEquals("2", redisTemplate.opsForValue().get("test:b"));
+    }
+
+    @Test
+    public void localHitCompletesWithoutExecutor() throws Exception {
+        TestCache cache = newCache(100);
+        cache.get("a");
+        cache.asyncExecutor = REJECTING;
+
+        CompletableFuture<String> future = cache.getAsync("a");
+
+        assertTrue(future.isDone());
+        assertEquals("1", future.get());
+    }
+
+    @Test
+    public void fullExecutorFailsFuture() throws Exception {
+        TestCache cache = newCache(0);
+        cache.asyncExecutor = REJECTING;
+
+        assertFailedWith(RejectedExecutionException.class, cache.getAsync("a"));
+        assertFailedWith(RejectedExecutionException.class,
+            cache.getAllAsync(Arrays.asList("a", "b")));
+        assertEquals(0, cache.loads.get());
+    }
+
+    @Test
+    public void loadFailureFailsFuture() throws Exception {
+        TestCache cache = newCache(0);
+        cache.serverDown = true;
+
+        assertFailedWith(IllegalStateException.class, cache.getAsync("a"));
+    }
+
+    @Test
+    public void putAsyncAndDeleteAsyncWriteThrough() throws Exception {
+        TestCache cache = newCache(0);
+
+        cache.putAsync("a", "new").get(5, TimeUnit.SECONDS);
+        assertEquals("new", redisTemplate.opsForValue().get("test:a"));
+
+        cache.deleteAsync("a").get(5, TimeUnit.SECONDS);
+        assertFalse(redisTemplate.hasKey("test:a"));
+    }
+
+    private static TestCache newCache(int maximumSize) {
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.maximumSize = maximumSize;
+        cache.serverData.put("a", "1");
+        cache.serverData.put("b", "2");
+        return cache.init();
+    }
+
+    private static void assertFailedWith(Class<? extends Throwable> type,
+                                         CompletableFuture<?> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), type.isInstance(e.getCause()));
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class BatchLoadDispatcherTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    private final List<List<String>> batches = new CopyOnWriteArrayList<>();
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Test
+    public void keysSubmittedWithinWindowAreLoadedTogether() throws Exception {
+        BatchLoadDispatcher<String> dispatcher = newDispatcher(100, 100,
+            MoreExecutors.directExecutor(), false);
+
+        CompletableFuture<String> a = dispatcher.submit("a");
+        CompletableFuture<String> b = dispatcher.submit("b");
+        CompletableFuture<String> missing = dispatcher.submit("missing");
+
+        // 同一批中重复提交的key共用一个future
+        assertSame(a, dispatcher.submit("a"));
+        assertEquals("v-a", a.get(5, TimeUnit.SECONDS));
+        assertEquals("v-b", b.get(5, TimeUnit.SECONDS));
+        assertNull(missing.get(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(Arrays.asList("a", "b", "missing")), batches);
+    }
+
+    @Test
+    public void fullBatchIsLoadedWithoutWaitingForWindow() {
+        BatchLoadDispatcher<String> dispatcher = newDispatcher(60000, 2,
+            MoreExecutors.directExecutor(), false);
+
+        CompletableFuture<String> a = dispatcher.submit("a");
+        CompletableFuture<String> b = dispatcher.submit("b");
+
+        assertTrue(a.isDone());
+        assertEquals("v-b", b.join());
+        assertEquals(1, batches.size());
+    }
+
+    @Test
+    public void loadFailureFailsEveryKeyOfBatch() throws Exception {
+        BatchLoadDispatcher<String> dispatcher = newDispatcher(60000, 2,
+            MoreExecutors.directExecutor(), true);
+
+        CompletableFuture<String> a = dispatcher.submit("a");
+        CompletableFuture<String> b = dispatcher.submit("b");
+
+        assertFailedWith(IllegalStateException.class, a);
+        assertFailedWith(IllegalStateException.class, b);
+    }
+
+    @Test
+    public void rejectedBatchFailsWithoutBlocking() throws Exception {
+        BatchLoadDispatcher<String> dispatcher = newDispatcher(60000, 1, new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException("full");
+            }
+        }, false);
+
+        assertFailedWith(RejectedExecutionException.class, dispatcher.submit("a"));
+    }
+
+    @Test
+    public void cacheCoalescesAsyncGetMisses() throws Exception {
+        redis.flushAll();
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.batchGetMisses = true;
+        cache.getBatchWindowMillis = 200;
+        cache.serverData.put("a", "1");
+        cache.serverData.put("b", "2");
+        redisTemplate.opsForValue().set("test:c", "3");
+        cache.init();
+
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (String key : Arrays.asList("a", "b", "c", "d")) {
+            futures.add(cache.getAsync(key));
+        }
+
+        assertEquals("1", futures.get(0).get(5, TimeUnit.SECONDS));
+        assertEquals("2", futures.get(1).get(5, TimeUnit.SECONDS));
+        assertEquals("3", futures.get(2).get(5, TimeUnit.SECONDS));
+        assertNull(futures.get(3).get(5, TimeUnit.SECONDS));
+        // 一次multiGet，redis中没有的key合并成一次批量加载
+        assertEquals(1, cache.batchLoads.size());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "d")),
+            new HashSet<>(cache.batchLoads.get(0)));
+        assertEquals("1", redisTemplate.opsForValue().get("test:a"));
+    }
+
+    @Test
+    public void asyncGetServesHotKeysLocally() throws Exception {
+        redis.flushAll();
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.batchGetMisses = true;
+        cache.hotKeyThreshold = 2;
+        cache.serverData.put("a", "1");
+        cache.init();
+
+        assertEquals("1", cache.getAsync("a").get(5, TimeUnit.SECONDS));
+        assertEquals("1", cache.getAsync("a").get(5, TimeUnit.SECONDS));
+
+        // 已经是热点，不再读取redis
+        redisTemplate.opsForValue().set("test:a", "changed");
+        CompletableFuture<String> hot = cache.getAsync("a");
+        assertTrue(hot.isDone());
+        assertEquals("1", hot.get());
+        assertEquals("1", cache.get("a"));
+    }
+
+    private BatchLoadDispatcher<String> newDispatcher(long windowMillis, int maxBatchSize,
+                                                      Executor executor, final boolean fail) {
+        return new BatchLoadDispatcher<>(new BatchLoadDispatcher.BatchLoader<String>() {
+            @Override
+            public Map<String, String> load(List<String> keys) {
+                batches.add(new ArrayList<>(keys));
+                if (fail) {
+                    throw new IllegalStateException("load failed");
+                }
+
+                Map<String, String> values = new HashMap<>();
+                for (String key : keys) {
+                    if (!"missing".equals(key)) {
+                        values.put(key, "v-" + key);
+                    }
+                }
+                return values;
+            }
+        }, windowMillis, maxBatchSize, executor);
+    }
+
+    private static void assertFailedWith(Class<? extends Throwable> type,
+                                         CompletableFuture<String> future) throws Exception {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail();
+        }
+        catch (ExecutionException e) {
+            assertTrue(type.isInstance(e.getCause()));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class BufferedCountersTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static EmbeddedRedis redis;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Test
+    public void closeFlushesPendingIncrementsThroughPipeline() {
+        redis.flushAll();
+        RedisTemplate<String, String> redisTemplate = redis.newTemplate(new StringRedisSerializer());
+        BufferedCounters counters = newCounters(redisTemplate);
+
+        assertEquals(1, counters.increment("a", 1));
+        assertEquals(3, counters.increment("a", 2));
+        assertEquals(5, counters.increment("b", 5));
+        counters.close();
+
+        assertEquals("3", redisTemplate.opsForValue().get("a"));
+        assertEquals("5", redisTemplate.opsForValue().get("b"));
+    }
+
+    @Test
+    public void closeFlushesWithoutPipelineOnCluster() {
+        FakeRedisCluster cluster = new FakeRedisCluster();
+        RedisTemplate<String, String> redisTemplate = cluster
+            .newTemplate(new StringRedisSerializer());
+        BufferedCounters counters = newCounters(redisTemplate);
+
+        counters.increment("a", 1);
+        counters.increment("a", 2);
+        counters.increment("b", 5);
+        counters.close();
+
+        assertEquals("3", new String(cluster.get("a"), StandardCharsets.UTF_8));
+        assertEquals("5", new String(cluster.get("b"), StandardCharsets.UTF_8));
+        assertFalse(cluster.getCommands().contains("openPipeline"));
+        // 刷新后的基准值来自逐条执行的INCRBY结果
+        assertEquals(4, counters.increment("a", 1));
+    }
+
+    @Test
+    public void incrementAfterFailedWriteReseedsFromRedis() {
+        FakeRedisCluster cluster = new FakeRedisCluster();
+        RedisTemplate<String, String> redisTemplate = cluster
+            .newTemplate(new StringRedisSerializer());
+        final BufferedCounters counters = newCounters(redisTemplate);
+
+        assertEquals(1, counters.increment("a", 1));
+        assertEquals(3, counters.increment("a", 2));
+        // 同步写入期间计数单元被刷新移除，写入失败的增量放回到新建的计数单元中
+        cluster.failNext("incrBy", new Runnable() {
+            @Override
+            public void run() {
+                counters.close();
+            }
+        });
+        try {
+            counters.incrementExact("a", 5);
+            fail();
+        }
+        catch (QueryTimeoutException e) {
+            // expected
+        }
+
+        // 放回的增量没有基准值，下次自增同步写入redis，而不是返回0加上本地增量
+        assertEquals(4, counters.increment("a", 1));
+        assertEquals("4", new String(cluster.get("a"), StandardCharsets.UTF_8));
+        assertEquals(5, counters.increment("a", 1));
+    }
+
+    private static BufferedCounters newCounters(RedisTemplate<String, String> redisTemplate) {
+        RedisBatchOperations redisBatch = new RedisBatchOperations(redisTemplate, 100,
+            Integer.MAX_VALUE, 1, DIRECT);
+        return new BufferedCounters(redisTemplate, redisBatch, 60000, Long.MAX_VALUE, DIRECT);
+    }
+}
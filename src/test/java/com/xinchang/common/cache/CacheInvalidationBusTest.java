@@ -0,0 +1,112 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class CacheInvalidationBusTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    private CacheInvalidationBus busA;
+
+    private CacheInvalidationBus busB;
+
+    private TestCache nodeA;
+
+    private TestCache nodeB;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+        // 两个节点共用同一个进程内的传输方式，定时发送间隔足够长，由测试调用flush发送
+        InProcessCacheInvalidationTransport transport = new InProcessCacheInvalidationTransport();
+        busA = new CacheInvalidationBus(transport, 60000, 1000);
+        busB = new CacheInvalidationBus(transport, 60000, 1000);
+        nodeA = newNode(busA);
+        nodeB = newNode(busB);
+    }
+
+    @After
+    public void tearDown() {
+        busA.shutdown();
+        busB.shutdown();
+    }
+
+    @Test
+    public void putDropsOtherNodesLocalCopy() {
+        nodeA.serverData.put("a", "1");
+        assertEquals("1", nodeA.get("a"));
+        assertEquals("1", nodeB.get("a"));
+
+        nodeA.put("a", "2");
+        busA.flush();
+
+        assertNull(nodeB.cache.getIfPresent("test:a"));
+        assertEquals("2", nodeB.get("a"));
+        // 自己发出的消息被忽略，本地缓存中刚写入的数据保留
+        assertEquals("2", nodeA.cache.getIfPresent("test:a"));
+    }
+
+    @Test
+    public void deleteAndDeleteAllDropOtherNodesLocalCopies() {
+        nodeB.serverData.put("a", "1");
+        nodeB.serverData.put("b", "2");
+        nodeB.serverData.put("c", "3");
+        nodeB.getAll(Arrays.asList("a", "b", "c"));
+        assertEquals("1", nodeB.cache.getIfPresent("test:a"));
+
+        nodeA.delete("a");
+        busA.flush();
+        assertNull(nodeB.cache.getIfPresent("test:a"));
+        assertEquals("2", nodeB.cache.getIfPresent("test:b"));
+
+        nodeA.deleteAll(Arrays.asList("b", "c"));
+        busA.flush();
+        assertNull(nodeB.cache.getIfPresent("test:b"));
+        assertNull(nodeB.cache.getIfPresent("test:c"));
+    }
+
+    @Test
+    public void nodeIgnoresItsOwnMessages() {
+        nodeA.serverData.put("a", "1");
+        nodeA.get("a");
+        nodeB.get("a");
+
+        // 直接通过A的bus广播，只有B删除本地数据
+        busA.publish("test", Arrays.asList("test:a"));
+        busA.flush();
+
+        assertEquals("1", nodeA.cache.getIfPresent("test:a"));
+        assertNull(nodeB.cache.getIfPresent("test:a"));
+    }
+
+    private static TestCache newNode(CacheInvalidationBus bus) {
+        TestCache node = new TestCache();
+        node.redisTemplate = redisTemplate;
+        node.maximumSize = 100;
+        node.invalidationBus = bus;
+        return node.init();
+    }
+}
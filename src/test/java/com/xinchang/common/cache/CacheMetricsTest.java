@@ -0,0 +1,124 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class CacheMetricsTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Test
+    public void countersAndSnapshot() {
+        CacheMetrics metrics = new CacheMetrics("unit");
+        metrics.recordLocalRequests(5);
+        metrics.recordLocalMisses(2);
+        metrics.recordRedisHits(1);
+        metrics.recordRedisMisses(1);
+        metrics.recordLoad(System.nanoTime(), true);
+        metrics.recordLoad(System.nanoTime(), false);
+        metrics.recordEviction();
+        metrics.recordStaleServes(3);
+        metrics.recordBatchSize(4);
+
+        assertEquals(3, metrics.getLocalHits());
+        assertEquals(2, metrics.getLocalMisses());
+        assertEquals(2, metrics.getLoads());
+        assertEquals(1, metrics.getLoadFailures());
+        assertEquals(1, metrics.getEvictions());
+        assertEquals(3, metrics.getStaleServes());
+        assertEquals(4, metrics.getBatchSizeMax());
+
+        Map<String, Object> snapshot = metrics.snapshot();
+        assertEquals(Arrays.asList("localHits", "localMisses", "redisHits", "redisMisses",
+            "loads", "loadFailures", "evictions", "staleServes", "loadLatencyMillis",
+            "batchSize"), Arrays.asList(snapshot.keySet().toArray()));
+        assertEquals(3L, snapshot.get("localHits"));
+        // 没有本地缓存、热点key和压缩统计时不输出对应的指标
+        assertFalse(snapshot.containsKey("localSize"));
+        assertFalse(snapshot.containsKey("hotKeys"));
+    }
+
+    @Test
+    public void histogramReportsBucketUpperBounds() {
+        CacheMetrics.Histogram histogram = new CacheMetrics.Histogram();
+        for (int i = 0; i < 98; i++) {
+            histogram.record(3);
+        }
+        histogram.record(100);
+        histogram.record(1000);
+
+        assertEquals(100, histogram.count());
+        assertEquals(3, histogram.percentile(0.5));
+        assertEquals(127, histogram.percentile(0.99));
+        assertEquals(1000, histogram.percentile(1));
+        assertEquals(1000, histogram.max());
+        assertEquals((98 * 3 + 100 + 1000) / 100.0, histogram.mean(), 0.0001);
+    }
+
+    @Test
+    public void cacheRecordsRedisHitsMissesAndLoads() {
+        redis.flushAll();
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.keyPrefix = "metrics-redis";
+        cache.serverData.put("a", "1");
+        cache.init();
+
+        assertEquals("1", cache.get("a"));
+        assertEquals("1", cache.get("a"));
+
+        CacheMetrics metrics = CacheMetricsRegistry.get("metrics-redis");
+        assertSame(metrics, CacheMetricsRegistry.getOrCreate("metrics-redis"));
+        assertEquals(1, metrics.getRedisMisses());
+        assertEquals(1, metrics.getRedisHits());
+        assertEquals(1, metrics.getLoads());
+        assertEquals(0, metrics.getLoadFailures());
+        assertTrue(CacheMetricsRegistry.snapshot().containsKey("metrics-redis"));
+    }
+
+    @Test
+    public void cacheRecordsLocalHitsAndMisses() {
+        redis.flushAll();
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.keyPrefix = "metrics-local";
+        cache.maximumSize = 100;
+        cache.serverData.put("a", "1");
+        cache.serverData.put("b", "2");
+        cache.init();
+
+        cache.get("a");
+        cache.get("a");
+        cache.getAll(Arrays.asList("a", "b"));
+
+        CacheMetrics metrics = CacheMetricsRegistry.get("metrics-local");
+        assertEquals(2, metrics.getLocalHits());
+        assertEquals(2, metrics.getLocalMisses());
+        assertEquals(2, metrics.getLoads());
+        assertEquals(2, metrics.getLocalSize());
+        assertTrue(metrics.snapshot().containsKey("localSize"));
+    }
+}
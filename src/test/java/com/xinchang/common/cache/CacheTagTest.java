@@ -0,0 +1,79 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class CacheTagTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+    }
+
+    @Test
+    public void tagSetExpiresWhenDataNeverExpires() {
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.init();
+
+        cache.put("a", "1", Arrays.asList("t"));
+
+        assertEquals(-1L, (long) redisTemplate.getExpire("test:a"));
+        long ttl = redisTemplate.getExpire("test_TAG:t");
+        assertTrue(ttl > TimeUnit.DAYS.toSeconds(7) - 10 && ttl <= TimeUnit.DAYS.toSeconds(7));
+    }
+
+    @Test
+    public void tagSetOutlivesLongerDataExpire() {
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.redisExpireDuration = TimeUnit.DAYS.toSeconds(30);
+        cache.init();
+
+        cache.put("a", "1", Arrays.asList("t"));
+
+        assertTrue(redisTemplate.getExpire("test_TAG:t") >= redisTemplate.getExpire("test:a"));
+    }
+
+    @Test
+    public void invalidateTagDeletesMembersAndTagSet() {
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.init();
+        cache.put("a", "1", Arrays.asList("t"));
+        cache.put("b", "2", Arrays.asList("t"));
+        cache.put("c", "3");
+
+        assertEquals(2, cache.invalidateTag("t"));
+
+        assertFalse(redisTemplate.hasKey("test:a"));
+        assertFalse(redisTemplate.hasKey("test:b"));
+        assertFalse(redisTemplate.hasKey("test_TAG:t"));
+        assertTrue(redisTemplate.hasKey("test:c"));
+    }
+}
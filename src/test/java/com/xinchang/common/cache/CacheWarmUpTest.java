@@ -0,0 +1,103 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.xinchang.common.page.PageParam;
+
+public class CacheWarmUpTest {
+    private static final Executor executor = Executors.newFixedThreadPool(2);
+
+    @Test
+    public void loadsAllPagesAndReportsWarm() {
+        TestLoader loader = new TestLoader(7, -1);
+        CacheWarmUp<Integer> warmUp = new CacheWarmUp<>("warm-ok", loader, 3, 2, false, executor);
+
+        assertEquals(7, warmUp.execute());
+
+        assertEquals(7, loader.loaded.size());
+        assertEquals(CacheWarmUpRegistry.State.WARM, CacheWarmUpRegistry.getStates().get("warm-ok"));
+    }
+
+    @Test
+    public void failureIsNotReadyByDefault() throws Exception {
+        TestLoader loader = new TestLoader(7, 2);
+        CacheWarmUp<Integer> warmUp = new CacheWarmUp<>("warm-failed", loader, 3, 2, false,
+            executor);
+
+        assertEquals(-1, warmUp.execute());
+
+        assertEquals(CacheWarmUpRegistry.State.FAILED,
+            CacheWarmUpRegistry.getStates().get("warm-failed"));
+        assertFalse(CacheWarmUpRegistry.isReady());
+        assertFalse(CacheWarmUpRegistry.awaitReady(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void toleratedFailureIsDegraded() {
+        TestLoader loader = new TestLoader(7, 1);
+        CacheWarmUp<Integer> warmUp = new CacheWarmUp<>("warm-degraded", loader, 3, 2, true,
+            executor);
+
+        assertEquals(-1, warmUp.execute());
+
+        assertEquals(CacheWarmUpRegistry.State.DEGRADED,
+            CacheWarmUpRegistry.getStates().get("warm-degraded"));
+    }
+
+    @Test
+    public void startRunsInBackgroundExecutor() throws Exception {
+        TestLoader loader = new TestLoader(7, -1);
+        new CacheWarmUp<>("warm-started", loader, 3, 2, false, executor).start();
+
+        // 其它测试登记的FAILED会让awaitReady返回false，这里只用它等待预热结束
+        CacheWarmUpRegistry.awaitReady(10, TimeUnit.SECONDS);
+
+        assertEquals(CacheWarmUpRegistry.State.WARM,
+            CacheWarmUpRegistry.getStates().get("warm-started"));
+        assertEquals(7, loader.loaded.size());
+    }
+
+    /**
+     * 每页3个key，共total个key，第failedPage页（从1开始）加载出错，-1表示不出错
+     */
+    private static class TestLoader implements CacheWarmUp.PageLoader<Integer> {
+        private final List<Integer> loaded = new CopyOnWriteArrayList<>();
+
+        private final int total;
+
+        private final int failedPage;
+
+        TestLoader(int total, int failedPage) {
+            this.total = total;
+            this.failedPage = failedPage;
+        }
+
+        @Override
+        public List<Integer> keys(PageParam pageParam) {
+            List<Integer> keys = new ArrayList<>();
+            int first = (pageParam.getPageNum() - 1) * pageParam.getNumPerPage();
+            for (int i = first; i < Math.min(first + pageParam.getNumPerPage(), total); i++) {
+                keys.add(i);
+            }
+            return keys;
+        }
+
+        @Override
+        public void load(List<Integer> keys) {
+            if (failedPage > 0 && keys.get(0) / 3 + 1 == failedPage) {
+                throw new IllegalStateException("load failed");
+            }
+            loaded.addAll(keys);
+        }
+    }
+}
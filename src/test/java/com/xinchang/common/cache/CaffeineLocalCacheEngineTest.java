@@ -0,0 +1,149 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+public class CaffeineLocalCacheEngineTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    @Test
+    public void loadsMissingKeysThroughLoader() {
+        LocalCacheSpec spec = new LocalCacheSpec();
+        spec.setMaximumSize(100);
+        LocalCache<String> cache = CaffeineLocalCacheEngine.INSTANCE.build(spec,
+            new TestLoader(null));
+
+        assertEquals("v-a", cache.get("a"));
+        Map<String, String> values = cache.getAll(Arrays.asList("b", "c"));
+        assertEquals("v-b", values.get("b"));
+        assertEquals("v-c", values.get("c"));
+        assertEquals(3, cache.size());
+    }
+
+    @Test
+    public void refreshKeepsOldValueWhenReloadReturnsNull() throws Exception {
+        AtomicReference<String> reloaded = new AtomicReference<>();
+        LocalCacheSpec spec = new LocalCacheSpec();
+        spec.setMaximumSize(100);
+        spec.setRefreshAfterWriteDuration(1);
+        spec.setExecutor(DIRECT);
+        LocalCache<String> cache = CaffeineLocalCacheEngine.INSTANCE.build(spec,
+            new TestLoader(reloaded));
+
+        cache.put("a", "old");
+        Thread.sleep(1100);
+        // 刷新在读取时触发，这次读取仍然返回旧值
+        cache.get("a");
+        assertEquals("old", cache.getIfPresent("a"));
+
+        reloaded.set("new");
+        Thread.sleep(1100);
+        cache.get("a");
+        assertEquals("new", cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void weightedSizeTracksWeigher() {
+        LocalCacheSpec spec = new LocalCacheSpec();
+        spec.setMaximumWeight(1000);
+        spec.setExecutor(DIRECT);
+        spec.setWeigher(new LocalCacheSpec.Weigher() {
+            @Override
+            public int weigh(String key, Object value) {
+                return ((String) value).length();
+            }
+        });
+        LocalCache<String> cache = CaffeineLocalCacheEngine.INSTANCE.build(spec,
+            new TestLoader(null));
+
+        cache.put("a", "12345");
+        cache.put("b", "1234567890");
+        assertEquals(15, cache.weightedSize());
+
+        cache.invalidate("a");
+        assertEquals(10, cache.weightedSize());
+    }
+
+    @Test
+    public void weightedSizeIsNegativeWhenBoundedBySize() {
+        LocalCacheSpec spec = new LocalCacheSpec();
+        spec.setMaximumSize(10);
+        LocalCache<String> cache = CaffeineLocalCacheEngine.INSTANCE.build(spec,
+            new TestLoader(null));
+
+        cache.put("a", "1");
+        assertEquals(-1, cache.weightedSize());
+    }
+
+    @Test
+    public void notifiesEvictionListenerOnlyForEvictions() {
+        final List<String> evicted = new CopyOnWriteArrayList<>();
+        LocalCacheSpec spec = new LocalCacheSpec();
+        spec.setMaximumSize(10);
+        spec.setExecutor(DIRECT);
+        spec.setEvictionListener(new LocalCacheSpec.EvictionListener() {
+            @Override
+            public void onEviction(String key) {
+                evicted.add(key);
+            }
+        });
+        LocalCache<String> cache = CaffeineLocalCacheEngine.INSTANCE.build(spec,
+            new TestLoader(null));
+
+        cache.put("x", "1");
+        cache.invalidate("x");
+        assertTrue(evicted.isEmpty());
+
+        for (int i = 0; i < 100; i++) {
+            cache.put("k" + i, "v");
+        }
+        assertTrue(cache.size() <= 10);
+        assertTrue(!evicted.isEmpty());
+        assertNull(cache.getIfPresent("x"));
+    }
+
+    private static class TestLoader implements LocalCacheLoader<String> {
+        private AtomicReference<String> reloaded;
+
+        TestLoader(AtomicReference<String> reloaded) {
+            this.reloaded = reloaded;
+        }
+
+        @Override
+        public String load(String key) {
+            return "v-" + key;
+        }
+
+        @Override
+        public Map<String, String> loadAll(Collection<String> keys) {
+            Map<String, String> values = new HashMap<>();
+            for (String key : keys) {
+                values.put(key, "v-" + key);
+            }
+            return values;
+        }
+
+        @Override
+        public CompletableFuture<String> reload(String key, String oldValue) {
+            return CompletableFuture.completedFuture(reloaded == null ? null : reloaded.get());
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class DBErrorRetryTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+    }
+
+    @Test
+    public void retriesWaitBetweenAttempts() {
+        final TestCache cache = newCache(3, 40);
+        cache.serverData.put("a", "1");
+        recoverAfterLoads(cache, 3);
+
+        long start = System.nanoTime();
+        assertEquals("1", cache.get("a"));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 首次加载和两次重试失败，第三次重试成功；重试前分别至少等待40、80、160毫秒
+        assertEquals(4, cache.loads.get());
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 280);
+    }
+
+    @Test
+    public void batchRetriesWaitBetweenAttempts() {
+        TestCache cache = newCache(3, 40);
+        cache.serverData.put("a", "1");
+        recoverAfterLoads(cache, 2);
+
+        long start = System.nanoTime();
+        Map<String, String> values = cache.getAll(Arrays.asList("a"));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals("1", values.get("a"));
+        assertEquals(3, cache.loads.get());
+        assertTrue("elapsed " + elapsedMillis, elapsedMillis >= 120);
+    }
+
+    @Test
+    public void giveUpAfterRetryTimes() {
+        TestCache cache = newCache(2, 0);
+        cache.serverData.put("a", "1");
+        cache.serverDown = true;
+
+        assertNull(cache.get("a"));
+        assertEquals(3, cache.loads.get());
+    }
+
+    @Test
+    public void interruptStopsRetrying() {
+        TestCache cache = newCache(5, 1000);
+        cache.serverData.put("a", "1");
+        cache.serverDown = true;
+
+        Thread.currentThread().interrupt();
+        try {
+            assertNull(cache.get("a"));
+            assertEquals(1, cache.loads.get());
+            assertTrue(Thread.currentThread().isInterrupted());
+        }
+        finally {
+            Thread.interrupted();
+        }
+    }
+
+    private static void recoverAfterLoads(final TestCache cache, final int failedLoads) {
+        cache.serverDown = true;
+        cache.duringLoad = new Runnable() {
+            @Override
+            public void run() {
+                if (cache.loads.get() > failedLoads) {
+                    cache.serverDown = false;
+                }
+            }
+        };
+    }
+
+    private static TestCache newCache(final long retryTimes, long backoffMillis) {
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.dbErrorRetryBackoffMillis = backoffMillis;
+        cache.dbErrorStrategy = new DBErrorStrategy() {
+            @Override
+            public long retryTimes() {
+                return retryTimes;
+            }
+
+            @Override
+            public long nextRetryInterval() {
+                return 60;
+            }
+        };
+        return cache.init();
+    }
+}
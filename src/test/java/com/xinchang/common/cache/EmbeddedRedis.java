@@ -0,0 +1,70 @@
+package com.xinchang.common.cache;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.jedis.JedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import redis.embedded.RedisServer;
+
+/**
+ * 测试用的本地redis，每个测试类在@BeforeClass中启动，在@AfterClass中关闭
+ */
+class EmbeddedRedis {
+    private RedisServer server;
+
+    private JedisConnectionFactory connectionFactory;
+
+    static EmbeddedRedis start() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        EmbeddedRedis redis = new EmbeddedRedis();
+        redis.server = RedisServer.builder().port(port).setting("bind 127.0.0.1")
+            .setting("save \"\"").build();
+        redis.server.start();
+
+        redis.connectionFactory = new JedisConnectionFactory();
+        redis.connectionFactory.setHostName("127.0.0.1");
+        redis.connectionFactory.setPort(port);
+        redis.connectionFactory.afterPropertiesSet();
+        return redis;
+    }
+
+    JedisConnectionFactory getConnectionFactory() {
+        return connectionFactory;
+    }
+
+    /**
+     * key使用StringRedisSerializer，value使用valueSerializer的RedisTemplate
+     */
+    <V> RedisTemplate<String, V> newTemplate(RedisSerializer<?> valueSerializer) {
+        RedisTemplate<String, V> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setValueSerializer(valueSerializer);
+        redisTemplate.afterPropertiesSet();
+        return redisTemplate;
+    }
+
+    void flushAll() {
+        RedisConnection connection = connectionFactory.getConnection();
+        try {
+            connection.flushAll();
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    void stop() {
+        connectionFactory.destroy();
+        server.stop();
+    }
+}
@@ -0,0 +1,171 @@
+package com.xinchang.common.cache;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.data.redis.connection.ClusterSlotHashUtil;
+import org.springframework.data.redis.connection.RedisClusterConnection;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+/**
+ * 模拟spring-data-redis 1.8的JedisClusterConnection：不支持pipeline和eval，跨slot的MGET报错。
+ * 数据保存在内存中，不处理失效时间，记录收到的命令。
+ */
+class FakeRedisCluster implements InvocationHandler {
+    private final Map<String, byte[]> data = new ConcurrentHashMap<>();
+
+    private final List<String> commands = new CopyOnWriteArrayList<>();
+
+    private volatile String failingCommand;
+
+    private volatile Runnable beforeFailure;
+
+    <V> RedisTemplate<String, V> newTemplate(RedisSerializer<?> valueSerializer) {
+        final RedisClusterConnection connection = (RedisClusterConnection) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { RedisClusterConnection.class }, this);
+        RedisConnectionFactory connectionFactory = (RedisConnectionFactory) Proxy
+            .newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[] { RedisConnectionFactory.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("getConnection".equals(method.getName())
+                            || "getClusterConnection".equals(method.getName())) {
+                            return connection;
+                        }
+                        return defaultValue(method);
+                    }
+                });
+
+        RedisTemplate<String, V> redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(connectionFactory);
+        redisTemplate.setKeySerializer(new StringRedisSerializer());
+        redisTemplate.setValueSerializer(valueSerializer);
+        redisTemplate.afterPropertiesSet();
+        return redisTemplate;
+    }
+
+    /**
+     * 收到的命令名称，按收到的顺序
+     */
+    List<String> getCommands() {
+        return commands;
+    }
+
+    /**
+     * 下一次收到该命令时先执行beforeFailure，然后抛出异常，模拟命令执行期间出错
+     */
+    void failNext(String command, Runnable beforeFailure) {
+        this.beforeFailure = beforeFailure;
+        this.failingCommand = command;
+    }
+
+    byte[] get(String key) {
+        return data.get(key);
+    }
+
+    void set(String key, byte[] value) {
+        data.put(key, value);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) {
+        String name = method.getName();
+        if ("close".equals(name) || "isClosed".equals(name) || "isPipelined".equals(name)
+            || "isQueueing".equals(name) || "getNativeConnection".equals(name)) {
+            return defaultValue(method);
+        }
+
+        commands.add(name);
+        if (name.equals(failingCommand)) {
+            failingCommand = null;
+            beforeFailure.run();
+            throw new QueryTimeoutException("simulated failure of " + name);
+        }
+
+        switch (name) {
+            case "openPipeline":
+            case "closePipeline":
+                throw new UnsupportedOperationException(
+                    "Pipeline is currently not supported for JedisClusterConnection.");
+            case "eval":
+            case "evalSha":
+                throw new InvalidDataAccessApiUsageException(
+                    "Eval is not supported in cluster environment.");
+            case "get":
+                return data.get(key(args[0]));
+            case "pTtl":
+                return data.containsKey(key(args[0])) ? -1L : -2L;
+            case "mGet":
+                byte[][] keys = (byte[][]) args[0];
+                if (!ClusterSlotHashUtil.isSameSlotForAllKeys(keys)) {
+                    throw new InvalidDataAccessApiUsageException(
+                        "CROSSSLOT Keys in request don't hash to the same slot");
+                }
+                List<byte[]> values = new ArrayList<>(keys.length);
+                for (byte[] key : keys) {
+                    values.add(data.get(key(key)));
+                }
+                return values;
+            case "set":
+                data.put(key(args[0]), (byte[]) args[1]);
+                return null;
+            case "mSet":
+                @SuppressWarnings("unchecked")
+                Map<byte[], byte[]> tuples = (Map<byte[], byte[]>) args[0];
+                for (Entry<byte[], byte[]> tuple : tuples.entrySet()) {
+                    data.put(key(tuple.getKey()), tuple.getValue());
+                }
+                return null;
+            case "del":
+                long count = 0;
+                for (byte[] key : (byte[][]) args[0]) {
+                    if (data.remove(key(key)) != null) {
+                        count++;
+                    }
+                }
+                return count;
+            case "pExpire":
+                return data.containsKey(key(args[0]));
+            case "incrBy":
+                String counterKey = key(args[0]);
+                byte[] current = data.get(counterKey);
+                long value = (current == null ? 0
+                    : Long.parseLong(new String(current, StandardCharsets.UTF_8)))
+                             + (Long) args[1];
+                data.put(counterKey, String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+                return value;
+            case "sAdd":
+                return 1L;
+            default:
+                throw new UnsupportedOperationException(name + " is not simulated");
+        }
+    }
+
+    private static String key(Object rawKey) {
+        return new String((byte[]) rawKey, StandardCharsets.UTF_8);
+    }
+
+    private static Object defaultValue(Method method) {
+        Class<?> type = method.getReturnType();
+        if (type == boolean.class || type == Boolean.class) {
+            return false;
+        }
+        if (type == long.class || type == int.class) {
+            return 0;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,126 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.junit.Test;
+
+public class GuavaLocalCacheEngineTest {
+    @Test
+    public void weighsEachEntryOnceAndSubtractsRecordedWeight() {
+        // 每次调用返回不同的结果，删除时重新计算会让总权重漂移
+        CountingWeigher weigher = new CountingWeigher();
+        LocalCache<String> cache = GuavaLocalCacheEngine.INSTANCE.build(weightedSpec(1000, weigher),
+            new TestLoader());
+
+        cache.put("a", "12345");
+        cache.put("b", "1234567890");
+        assertEquals(2, weigher.calls.get());
+        assertEquals(5 + 1 + 10 + 2, cache.weightedSize());
+
+        cache.invalidate("a");
+        cache.put("b", "12");
+        assertEquals(2 + 3, cache.weightedSize());
+
+        cache.invalidateAll(Arrays.asList("b"));
+        assertEquals(0, cache.weightedSize());
+        assertEquals(3, weigher.calls.get());
+    }
+
+    @Test
+    public void evictionKeepsWeightedSizeConsistent() {
+        LocalCache<String> cache = GuavaLocalCacheEngine.INSTANCE.build(
+            weightedSpec(100, new LocalCacheSpec.Weigher() {
+                @Override
+                public int weigh(String key, Object value) {
+                    return ((String) value).length();
+                }
+            }), new TestLoader());
+
+        for (int i = 0; i < 50; i++) {
+            cache.put("k" + i, "0123456789");
+        }
+
+        assertTrue(cache.weightedSize() <= 100);
+        assertEquals(cache.size() * 10, cache.weightedSize());
+    }
+
+    @Test
+    public void returnsUnwrappedValuesWhenWeighted() {
+        LocalCache<String> cache = GuavaLocalCacheEngine.INSTANCE.build(
+            weightedSpec(1000, new CountingWeigher()), new TestLoader());
+
+        assertEquals("v-a", cache.get("a"));
+        assertEquals("v-a", cache.getIfPresent("a"));
+        Map<String, String> values = cache.getAll(Arrays.asList("a", "b"));
+        assertEquals("v-a", values.get("a"));
+        assertEquals("v-b", values.get("b"));
+
+        final Map<String, String> visited = new HashMap<>();
+        cache.forEach(new BiConsumer<String, String>() {
+            @Override
+            public void accept(String key, String value) {
+                visited.put(key, value);
+            }
+        });
+        assertEquals(values, visited);
+        assertNull(cache.getIfPresent("c"));
+    }
+
+    @Test
+    public void weightedSizeIsNegativeWhenBoundedBySize() {
+        LocalCacheSpec spec = new LocalCacheSpec();
+        spec.setMaximumSize(10);
+        LocalCache<String> cache = GuavaLocalCacheEngine.INSTANCE.build(spec, new TestLoader());
+
+        cache.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        assertEquals(-1, cache.weightedSize());
+    }
+
+    private static LocalCacheSpec weightedSpec(long maximumWeight, LocalCacheSpec.Weigher weigher) {
+        LocalCacheSpec spec = new LocalCacheSpec();
+        spec.setMaximumWeight(maximumWeight);
+        spec.setWeigher(weigher);
+        return spec;
+    }
+
+    private static class CountingWeigher implements LocalCacheSpec.Weigher {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @Override
+        public int weigh(String key, Object value) {
+            return ((String) value).length() + calls.incrementAndGet();
+        }
+    }
+
+    private static class TestLoader implements LocalCacheLoader<String> {
+        @Override
+        public String load(String key) {
+            return "c".equals(key) ? null : "v-" + key;
+        }
+
+        @Override
+        public Map<String, String> loadAll(Collection<String> keys) {
+            Map<String, String> values = new HashMap<>();
+            for (String key : keys) {
+                values.put(key, "v-" + key);
+            }
+            return values;
+        }
+
+        @Override
+        public CompletableFuture<String> reload(String key, String oldValue) {
+            return CompletableFuture.completedFuture(null);
+        }
+    }
+}
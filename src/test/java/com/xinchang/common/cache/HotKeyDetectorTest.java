@@ -0,0 +1,77 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HotKeyDetectorTest {
+    @Test
+    public void keyBecomesHotAtThreshold() {
+        HotKeyDetector<String> detector = new HotKeyDetector<>(5, 1, 60000, 60000, 10);
+
+        for (int i = 0; i < 4; i++) {
+            assertFalse(detector.record("a"));
+        }
+        assertTrue(detector.record("a"));
+        assertTrue(detector.record("a"));
+        assertFalse(detector.record("b"));
+    }
+
+    @Test
+    public void sampledRecordsAreScaledBySampleRate() {
+        HotKeyDetector<String> detector = new HotKeyDetector<>(100, 10, 60000, 60000, 10);
+
+        // 估算次数是采样次数乘以10，至少采样10次后才可能达到阈值
+        for (int i = 0; i < 9; i++) {
+            assertFalse(detector.record("a"));
+        }
+
+        int hot = 0;
+        for (int i = 0; i < 5000; i++) {
+            if (detector.record("a")) {
+                hot++;
+            }
+        }
+
+        // 没有被采样的访问不计数，也不返回热点
+        assertTrue(hot > 0);
+        assertTrue(hot < 1000);
+    }
+
+    @Test
+    public void countsResetWhenWindowRolls() throws Exception {
+        HotKeyDetector<String> detector = new HotKeyDetector<>(5, 1, 100, 60000, 10);
+        for (int i = 0; i < 4; i++) {
+            detector.record("a");
+        }
+
+        Thread.sleep(150);
+
+        for (int i = 0; i < 4; i++) {
+            assertFalse(detector.record("a"));
+        }
+        assertTrue(detector.record("a"));
+    }
+
+    @Test
+    public void promotedValueIsKeptUntilExpiredOrInvalidated() throws Exception {
+        HotKeyDetector<String> detector = new HotKeyDetector<>(1, 1, 60000, 100, 10);
+
+        detector.promote("a", "1");
+        detector.promote("a", "2");
+        detector.promote("b", "1");
+
+        // 已经存在时不覆盖
+        assertEquals("1", detector.getIfPresent("a"));
+        assertEquals(2, detector.getHotKeys().size());
+
+        detector.invalidate("b");
+        assertNull(detector.getIfPresent("b"));
+
+        Thread.sleep(150);
+        assertNull(detector.getIfPresent("a"));
+    }
+}
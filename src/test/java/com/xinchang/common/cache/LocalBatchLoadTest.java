@@ -0,0 +1,99 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class LocalBatchLoadTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    private TestCache cache;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+        cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.maximumSize = 100;
+        cache.noneDataStrategy = new NoneDataStrategy() {
+            @Override
+            public long nextRetryInterval() {
+                return 60;
+            }
+        };
+        cache.init();
+    }
+
+    @Test
+    public void getAllLoadsOnlyKeysMissingFromRedis() {
+        redisTemplate.opsForValue().set("test:a", "1");
+        setNoneData("test:b");
+        cache.serverData.put("b", "server-b");
+        cache.serverData.put("c", "3");
+
+        Map<String, String> values = cache.getAll(Arrays.asList("a", "b", "c", "d"));
+
+        assertEquals("1", values.get("a"));
+        assertFalse(values.containsKey("b"));
+        assertEquals("3", values.get("c"));
+        assertFalse(values.containsKey("d"));
+        assertEquals(1, cache.batchLoads.size());
+        assertEquals(new HashSet<>(Arrays.asList("c", "d")),
+            new HashSet<>(cache.batchLoads.get(0)));
+        assertEquals("3", redisTemplate.opsForValue().get("test:c"));
+        // 无效参数记录在本地，不再访问server
+        assertNull(cache.get("b"));
+        assertEquals(1, cache.loads.get());
+    }
+
+    @Test
+    public void deleteAllRemovesKeysFromLocalAndRedis() {
+        cache.serverData.put("a", "1");
+        cache.serverData.put("b", "2");
+        cache.getAll(Arrays.asList("a", "b"));
+
+        cache.deleteAll(Arrays.asList("a", "b"));
+
+        assertFalse(redisTemplate.hasKey("test:a"));
+        assertFalse(redisTemplate.hasKey("test:b"));
+        cache.serverData.put("a", "new");
+        assertEquals("new", cache.get("a"));
+    }
+
+    private static void setNoneData(String realKey) {
+        RedisConnection connection = redis.getConnectionFactory().getConnection();
+        try {
+            connection.set(realKey.getBytes(StandardCharsets.UTF_8),
+                new byte[] { 0, 'N', 'O', 'N', 'E' });
+        }
+        finally {
+            connection.close();
+        }
+    }
+}
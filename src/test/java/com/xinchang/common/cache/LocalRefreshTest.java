@@ -0,0 +1,70 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class LocalRefreshTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Test
+    public void expiredKeysAreRefreshedAsyncInOneBatch() throws Exception {
+        redis.flushAll();
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.maximumSize = 100;
+        cache.refreshAfterWriteDuration = 1;
+        cache.serverData.put("a", "1");
+        cache.serverData.put("b", "2");
+        cache.serverData.put("c", "3");
+        cache.init();
+        cache.getAll(Arrays.asList("a", "b", "c"));
+
+        // redis和server中的数据都已变化，刷新时从server批量加载
+        redisTemplate.delete(Arrays.asList("test:a", "test:b", "test:c"));
+        cache.serverData.put("a", "1-new");
+        cache.serverData.put("b", "2-new");
+        cache.serverData.put("c", "3-new");
+        Thread.sleep(1100);
+
+        // 到期后的读取继续返回旧值，刷新在后台进行
+        assertEquals("1", cache.get("a"));
+        assertEquals("2", cache.get("b"));
+        assertEquals("3", cache.get("c"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"3-new".equals(cache.getIfPresent("c"))
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("1-new", cache.getIfPresent("a"));
+        assertEquals("2-new", cache.getIfPresent("b"));
+        assertEquals("3-new", cache.getIfPresent("c"));
+
+        // 第一次是getAll的加载，三个key的刷新合并成第二次批量加载
+        assertEquals(2, cache.batchLoads.size());
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")),
+            new HashSet<>(cache.batchLoads.get(1)));
+        assertEquals("1-new", redisTemplate.opsForValue().get("test:a"));
+    }
+}
@@ -0,0 +1,149 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class LocalSnapshotStoreTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+        file = new File(folder.getRoot(), "test.snapshot");
+    }
+
+    @Test
+    public void roundTripRestoresEntriesOfThisCache() {
+        LocalCache<String> source = newLocalCache();
+        source.put("test:a", "1");
+        source.put("test:b", "22");
+        source.put("other:c", "3");
+        newStore(source).write();
+
+        LocalCache<String> target = newLocalCache();
+        LocalSnapshotStore.Restored restored = newStore(target).load();
+
+        assertEquals(2, restored.keys.size());
+        assertEquals("1", target.getIfPresent("test:a"));
+        assertEquals("22", target.getIfPresent("test:b"));
+        assertNull(target.getIfPresent("other:c"));
+    }
+
+    @Test
+    public void validateDropsEntriesChangedOrMissingInRedis() {
+        LocalCache<String> source = newLocalCache();
+        source.put("test:a", "1");
+        source.put("test:b", "2");
+        source.put("test:c", "3");
+        newStore(source).write();
+        redisTemplate.opsForValue().set("test:a", "1");
+        redisTemplate.opsForValue().set("test:b", "changed");
+
+        LocalCache<String> target = newLocalCache();
+        LocalSnapshotStore<String> store = newStore(target);
+
+        assertEquals(2, store.validate(store.load()));
+
+        assertEquals("1", target.getIfPresent("test:a"));
+        assertNull(target.getIfPresent("test:b"));
+        assertNull(target.getIfPresent("test:c"));
+    }
+
+    @Test
+    public void restoreValidatesInBackground() throws Exception {
+        LocalCache<String> source = newLocalCache();
+        source.put("test:a", "1");
+        source.put("test:b", "2");
+        newStore(source).write();
+        redisTemplate.opsForValue().set("test:a", "1");
+
+        LocalCache<String> target = newLocalCache();
+        newStore(target).restore();
+
+        // 比对在CacheExecutors.backgroundExecutor中执行，redis中没有的test:b稍后被删除
+        long deadline = System.currentTimeMillis() + 5000;
+        while (target.getIfPresent("test:b") != null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertNull(target.getIfPresent("test:b"));
+        assertEquals("1", target.getIfPresent("test:a"));
+    }
+
+    @Test
+    public void corruptedSnapshotRestoresNothing() throws Exception {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[] { 1, 2, 3 });
+        }
+
+        LocalCache<String> target = newLocalCache();
+
+        assertNull(newStore(target).load());
+        assertEquals(0, target.size());
+        assertTrue(file.isFile());
+    }
+
+    private LocalSnapshotStore<String> newStore(LocalCache<String> cache) {
+        RedisBatchOperations redisBatch = new RedisBatchOperations(redisTemplate, 2,
+            Integer.MAX_VALUE, 1, MoreExecutors.directExecutor());
+        return new LocalSnapshotStore<>(file, "test:", cache, new StringRedisSerializer(),
+            redisBatch, new StringRedisSerializer(), 2);
+    }
+
+    private static LocalCache<String> newLocalCache() {
+        LocalCacheSpec spec = new LocalCacheSpec();
+        spec.setMaximumSize(100);
+        return GuavaLocalCacheEngine.INSTANCE.build(spec, new LocalCacheLoader<String>() {
+            @Override
+            public String load(String key) {
+                return null;
+            }
+
+            @Override
+            public Map<String, String> loadAll(Collection<String> keys) {
+                return Collections.emptyMap();
+            }
+
+            @Override
+            public CompletableFuture<String> reload(String key, String oldValue) {
+                return CompletableFuture.completedFuture(oldValue);
+            }
+        });
+    }
+}
@@ -0,0 +1,252 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import org.junit.Test;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class OffHeapLocalCacheEngineTest {
+    /**
+     * 16个段，每段100字节
+     */
+    private static final OffHeapLocalCacheEngine engine = new OffHeapLocalCacheEngine(1600);
+
+    @Test
+    public void storesAndOverwritesValues() {
+        LocalCache<String> cache = engine.build(spec(1000), new TestLoader());
+
+        cache.put("a", "12345");
+        cache.put("b", "xyz");
+        cache.put("a", "1");
+
+        assertEquals("1", cache.getIfPresent("a"));
+        assertEquals("xyz", cache.getIfPresent("b"));
+        assertEquals(2, cache.size());
+        assertEquals(1 + 3, cache.weightedSize());
+
+        cache.invalidate("a");
+        assertNull(cache.getIfPresent("a"));
+        assertEquals(3, cache.weightedSize());
+    }
+
+    @Test
+    public void ringWrapEvictsEldestEntriesOfSegment() {
+        final List<String> evicted = new ArrayList<>();
+        LocalCacheSpec spec = spec(1000);
+        spec.setEvictionListener(new LocalCacheSpec.EvictionListener() {
+            @Override
+            public void onEviction(String key) {
+                evicted.add(key);
+            }
+        });
+        LocalCache<String> cache = engine.build(spec, new TestLoader());
+        List<String> keys = sameSegmentKeys(4);
+
+        // 每条40字节，段内只能放下两条，第三条写到开头覆盖第一条
+        cache.put(keys.get(0), repeat('0', 40));
+        cache.put(keys.get(1), repeat('1', 40));
+        cache.put(keys.get(2), repeat('2', 40));
+
+        assertEquals(Arrays.asList(keys.get(0)), evicted);
+        assertNull(cache.getIfPresent(keys.get(0)));
+        assertEquals(repeat('1', 40), cache.getIfPresent(keys.get(1)));
+        assertEquals(repeat('2', 40), cache.getIfPresent(keys.get(2)));
+
+        // 覆盖第二条的区域
+        cache.put(keys.get(3), repeat('3', 40));
+
+        assertEquals(Arrays.asList(keys.get(0), keys.get(1)), evicted);
+        assertEquals(repeat('3', 40), cache.getIfPresent(keys.get(3)));
+        assertEquals(80, cache.weightedSize());
+    }
+
+    @Test
+    public void maximumSizeLimitsEntriesPerSegment() {
+        // 每段最多1条
+        LocalCache<String> cache = engine.build(spec(16), new TestLoader());
+        List<String> keys = sameSegmentKeys(2);
+
+        cache.put(keys.get(0), "a");
+        cache.put(keys.get(1), "b");
+
+        assertNull(cache.getIfPresent(keys.get(0)));
+        assertEquals("b", cache.getIfPresent(keys.get(1)));
+    }
+
+    @Test
+    public void valueLargerThanSegmentIsNotCached() {
+        LocalCache<String> cache = engine.build(spec(1000), new TestLoader());
+        cache.put("a", "old");
+
+        cache.put("a", repeat('x', 101));
+
+        assertNull(cache.getIfPresent("a"));
+        assertEquals(0, cache.weightedSize());
+    }
+
+    @Test
+    public void loadsMissingAndVisitsLiveEntries() {
+        LocalCache<String> cache = engine.build(spec(1000), new TestLoader());
+        cache.put("a", "1");
+
+        assertEquals("v-b", cache.get("b"));
+        Map<String, String> values = cache.getAll(Arrays.asList("a", "c", "d"));
+        assertEquals("1", values.get("a"));
+        assertEquals("v-d", values.get("d"));
+        assertEquals(2, values.size());
+
+        final Map<String, String> visited = new HashMap<>();
+        cache.forEach(new BiConsumer<String, String>() {
+            @Override
+            public void accept(String key, String value) {
+                visited.put(key, value);
+            }
+        });
+        assertEquals(3, visited.size());
+        assertEquals("v-b", visited.get("b"));
+    }
+
+    @Test
+    public void concurrentReadsTriggerOneRefresh() throws Exception {
+        LocalCacheSpec spec = spec(1000);
+        spec.setRefreshAfterWriteDuration(1);
+        final PendingReloadLoader loader = new PendingReloadLoader();
+        final LocalCache<String> cache = engine.build(spec, loader);
+        cache.put("a", "old");
+        Thread.sleep(1100);
+
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    }
+                    catch (InterruptedException e) {
+                        return;
+                    }
+                    cache.getIfPresent("a");
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        start.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertEquals(1, loader.reloads.get());
+        assertEquals("old", cache.getIfPresent("a"));
+
+        loader.pending.complete("new");
+        assertEquals("new", cache.getIfPresent("a"));
+    }
+
+    @Test
+    public void refreshDoesNotResurrectInvalidatedEntry() throws Exception {
+        LocalCacheSpec spec = spec(1000);
+        spec.setRefreshAfterWriteDuration(1);
+        PendingReloadLoader loader = new PendingReloadLoader();
+        LocalCache<String> cache = engine.build(spec, loader);
+        cache.put("a", "old");
+        cache.put("b", "old");
+        Thread.sleep(1100);
+        assertEquals("old", cache.getIfPresent("a"));
+        assertEquals(1, loader.reloads.get());
+
+        // 刷新期间数据被删除，刷新结果不能写回
+        cache.invalidate("a");
+        loader.pending.complete("stale");
+        assertNull(cache.getIfPresent("a"));
+
+        // 刷新期间数据被覆盖，保留新写入的值
+        loader.pending = new CompletableFuture<>();
+        assertEquals("old", cache.getIfPresent("b"));
+        cache.put("b", "written");
+        loader.pending.complete("stale");
+        assertEquals("written", cache.getIfPresent("b"));
+    }
+
+    private static LocalCacheSpec spec(long maximumSize) {
+        LocalCacheSpec spec = new LocalCacheSpec();
+        spec.setMaximumSize(maximumSize);
+        spec.setValueSerializer(new StringRedisSerializer());
+        return spec;
+    }
+
+    /**
+     * 和OffHeapLocalCache按同样的hash落在同一个段的key
+     */
+    private static List<String> sameSegmentKeys(int count) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; keys.size() < count; i++) {
+            String key = "k" + i;
+            int hash = key.hashCode();
+            hash ^= hash >>> 16;
+            if ((hash & 15) == 0) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    /**
+     * reload返回一个由测试控制何时完成的future
+     */
+    private static class PendingReloadLoader extends TestLoader {
+        private final AtomicInteger reloads = new AtomicInteger();
+
+        private volatile CompletableFuture<String> pending = new CompletableFuture<>();
+
+        @Override
+        public CompletableFuture<String> reload(String key, String oldValue) {
+            reloads.incrementAndGet();
+            return pending;
+        }
+    }
+
+    private static class TestLoader implements LocalCacheLoader<String> {
+        @Override
+        public String load(String key) {
+            return "c".equals(key) ? null : "v-" + key;
+        }
+
+        @Override
+        public Map<String, String> loadAll(Collection<String> keys) {
+            Map<String, String> values = new HashMap<>();
+            for (String key : keys) {
+                String value = load(key);
+                if (value != null) {
+                    values.put(key, value);
+                }
+            }
+            return values;
+        }
+
+        @Override
+        public CompletableFuture<String> reload(String key, String oldValue) {
+            return CompletableFuture.completedFuture(load(key));
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class RateLimiterTest {
+    private static EmbeddedRedis redis;
+
+    /**
+     * 和业务中注入的RedisTemplate<String, Object>一样使用默认的jdk序列化方式
+     */
+    private static RedisTemplate<String, Object> redisTemplate;
+
+    private static StringRedisTemplate stringRedisTemplate;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = new RedisTemplate<>();
+        redisTemplate.setConnectionFactory(redis.getConnectionFactory());
+        redisTemplate.afterPropertiesSet();
+        stringRedisTemplate = new StringRedisTemplate(redis.getConnectionFactory());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+    }
+
+    @Test
+    public void tokenBucketAllowsBurstThenRejects() {
+        RateLimiter limiter = inject(new TokenBucketRateLimiter("bucket", 3, 1));
+
+        for (int i = 2; i >= 0; i--) {
+            RateLimitResult result = limiter.acquire("u1", 1);
+            assertTrue(result.isAllowed());
+            assertEquals(i, result.getRemaining());
+        }
+
+        RateLimitResult rejected = limiter.acquire("u1", 1);
+        assertFalse(rejected.isAllowed());
+        assertTrue(rejected.getRetryAfterMillis() > 0 && rejected.getRetryAfterMillis() <= 1000);
+        // 其它key不受影响
+        assertTrue(limiter.tryAcquire("u2"));
+    }
+
+    @Test
+    public void tokenBucketRejectsRequestLargerThanCapacity() {
+        RateLimiter limiter = inject(new TokenBucketRateLimiter("bucket", 3, 1));
+
+        RateLimitResult result = limiter.acquire("u1", 4);
+
+        assertFalse(result.isAllowed());
+        assertEquals(-1, result.getRetryAfterMillis());
+        assertTrue(limiter.acquire("u1", 3).isAllowed());
+    }
+
+    @Test
+    public void slidingWindowRejectsUntilOldestLeavesWindow() {
+        RateLimiter limiter = inject(new SlidingWindowRateLimiter("window", 2, 60000));
+
+        assertTrue(limiter.tryAcquire("u1"));
+        assertTrue(limiter.tryAcquire("u1"));
+        RateLimitResult rejected = limiter.acquire("u1", 1);
+
+        assertFalse(rejected.isAllowed());
+        assertTrue(rejected.getRetryAfterMillis() > 59000
+                   && rejected.getRetryAfterMillis() <= 60000);
+    }
+
+    @Test
+    public void rejectionIsServedLocallyUntilRetryAfter() {
+        RateLimiter limiter = inject(new SlidingWindowRateLimiter("window", 1, 60000));
+        assertTrue(limiter.tryAcquire("u1"));
+        assertFalse(limiter.tryAcquire("u1"));
+
+        // 其它节点清除了redis中的记录，本地的拒绝记录还在
+        stringRedisTemplate.delete(AbstractRateLimiter.CACHE_PREFIX + "window:u1");
+
+        assertFalse(limiter.tryAcquire("u1"));
+    }
+
+    @Test
+    public void resetDeletesKeyWrittenByScript() {
+        RateLimiter limiter = inject(new SlidingWindowRateLimiter("window", 1, 60000));
+        assertTrue(limiter.tryAcquire("u1"));
+        assertFalse(limiter.tryAcquire("u1"));
+        assertTrue(stringRedisTemplate.hasKey(AbstractRateLimiter.CACHE_PREFIX + "window:u1"));
+
+        limiter.reset("u1");
+
+        assertFalse(stringRedisTemplate.hasKey(AbstractRateLimiter.CACHE_PREFIX + "window:u1"));
+        assertTrue(limiter.tryAcquire("u1"));
+    }
+
+    private static <T extends AbstractRateLimiter> T inject(T limiter) {
+        ReflectionTestUtils.setField(limiter, "redisTemplate", redisTemplate);
+        return limiter;
+    }
+}
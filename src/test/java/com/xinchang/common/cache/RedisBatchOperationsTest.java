@@ -0,0 +1,175 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class RedisBatchOperationsTest {
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+        for (int i = 0; i < 50; i++) {
+            if (i % 3 != 0) {
+                redisTemplate.opsForValue().set("k" + i, "v" + i);
+            }
+        }
+    }
+
+    @Test
+    public void multiGetKeepsKeyOrderAcrossChunks() {
+        RedisBatchOperations batch = new RedisBatchOperations(redisTemplate, 4, Integer.MAX_VALUE,
+            4, DIRECT);
+
+        assertValues(batch.multiGet(rawKeys(50)));
+    }
+
+    @Test
+    public void multiGetSpreadsChunksOverExecutor() {
+        final AtomicInteger submitted = new AtomicInteger();
+        Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                submitted.incrementAndGet();
+                new Thread(command).start();
+            }
+        };
+        RedisBatchOperations batch = new RedisBatchOperations(redisTemplate, 4, 10, 3, executor);
+
+        assertValues(batch.multiGet(rawKeys(50)));
+        // 第一组在当前线程读取
+        assertEquals(2, submitted.get());
+    }
+
+    @Test
+    public void multiGetRunsRejectedGroupsInline() {
+        Executor rejecting = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        RedisBatchOperations batch = new RedisBatchOperations(redisTemplate, 4, 10, 3, rejecting);
+
+        assertValues(batch.multiGet(rawKeys(50)));
+    }
+
+    @Test
+    public void multiGetOnClusterSendsSameSlotChunksWithoutPipeline() {
+        FakeRedisCluster cluster = new FakeRedisCluster();
+        for (int i = 0; i < 50; i++) {
+            if (i % 3 != 0) {
+                cluster.set("k" + i, ("v" + i).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        RedisTemplate<String, String> clusterTemplate = cluster
+            .newTemplate(new StringRedisSerializer());
+
+        RedisBatchOperations batch = new RedisBatchOperations(clusterTemplate, 4, 10, 3, DIRECT);
+
+        // 跨slot的MGET和pipeline都会报错
+        assertValues(batch.multiGet(rawKeys(50)));
+        assertFalse(cluster.getCommands().contains("openPipeline"));
+    }
+
+    @Test
+    public void executeReturnsPipelineResults() {
+        RedisBatchOperations batch = new RedisBatchOperations(redisTemplate, 4, 10, 3, DIRECT);
+
+        List<Object> results = batch.execute(new RedisBatchOperations.BatchCallback() {
+            @Override
+            public void doInRedis(RedisConnection connection, List<Object> results) {
+                results.add(connection.get(rawKey("k1")));
+                results.add(connection.del(rawKey("k1"), rawKey("k2"), rawKey("k3")));
+            }
+        });
+
+        assertEquals(2, results.size());
+        assertArrayEquals(rawKey("v1"), (byte[]) results.get(0));
+        assertEquals(2L, results.get(1));
+    }
+
+    @Test
+    public void executeRunsCommandsOneByOneOnCluster() {
+        FakeRedisCluster cluster = new FakeRedisCluster();
+        cluster.set("k1", rawKey("v1"));
+        RedisTemplate<String, String> clusterTemplate = cluster
+            .newTemplate(new StringRedisSerializer());
+        RedisBatchOperations batch = new RedisBatchOperations(clusterTemplate, 4, 10, 3, DIRECT);
+
+        List<Object> results = batch.execute(new RedisBatchOperations.BatchCallback() {
+            @Override
+            public void doInRedis(RedisConnection connection, List<Object> results) {
+                results.add(connection.get(rawKey("k1")));
+                connection.set(rawKey("k2"), rawKey("v2"));
+                results.add(connection.del(rawKey("k1"), rawKey("k3")));
+            }
+        });
+
+        assertEquals(2, results.size());
+        assertArrayEquals(rawKey("v1"), (byte[]) results.get(0));
+        assertEquals(1L, results.get(1));
+        assertArrayEquals(rawKey("v2"), cluster.get("k2"));
+        assertFalse(cluster.getCommands().contains("openPipeline"));
+    }
+
+    private static byte[] rawKey(String key) {
+        return key.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[][] rawKeys(int count) {
+        byte[][] rawKeys = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            rawKeys[i] = ("k" + i).getBytes(StandardCharsets.UTF_8);
+        }
+        return rawKeys;
+    }
+
+    private static void assertValues(List<byte[]> values) {
+        assertEquals(50, values.size());
+        for (int i = 0; i < 50; i++) {
+            if (i % 3 == 0) {
+                assertNull(values.get(i));
+            }
+            else {
+                assertArrayEquals(("v" + i).getBytes(StandardCharsets.UTF_8), values.get(i));
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class RedisExpireTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+    }
+
+    @Test
+    public void jitterSpreadsExpireTimes() {
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.redisExpireDuration = 100;
+        cache.redisExpireJitter = 100;
+        List<String> loadedKeys = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            cache.serverData.put("loaded" + i, "v");
+            loadedKeys.add("loaded" + i);
+        }
+        cache.init();
+
+        for (int i = 0; i < 50; i++) {
+            cache.put("put" + i, "v");
+        }
+        cache.getAll(loadedKeys);
+
+        assertSpread("put");
+        assertSpread("loaded");
+    }
+
+    @Test
+    public void refreshDecisionFollowsXFetch() {
+        // 没有失效时间或key不存在时不提前刷新
+        assertFalse(AbstractCache.shouldRefreshEarly(null, 100, 1, 0.5));
+        assertFalse(AbstractCache.shouldRefreshEarly(-1L, 100, 1, 0.5));
+        // -100 * 1 * ln(1/e) = 100
+        assertTrue(AbstractCache.shouldRefreshEarly(100L, 100, 1, Math.exp(-1)));
+        assertFalse(AbstractCache.shouldRefreshEarly(101L, 100, 1, Math.exp(-1)));
+        // beta越大越倾向于提前刷新
+        assertTrue(AbstractCache.shouldRefreshEarly(200L, 100, 2, Math.exp(-1)));
+        // 随机数为1时只有已经到期的key才刷新
+        assertFalse(AbstractCache.shouldRefreshEarly(1L, 100, 1, 1));
+        // 没有加载耗时记录时不提前刷新
+        assertFalse(AbstractCache.shouldRefreshEarly(1L, 0, 1, 0.001));
+    }
+
+    @Test
+    public void getRefreshesInBackgroundBeforeExpire() throws Exception {
+        final TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.redisExpireDuration = 10;
+        // 加载耗时约20ms，beta足够大时几乎每次读取都会提前刷新
+        cache.earlyExpirationBeta = 1e9;
+        cache.duringLoad = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        cache.serverData.put("a", "1");
+        cache.init();
+        assertEquals("1", cache.get("a"));
+
+        cache.serverData.put("a", "2");
+        // 提前刷新在后台执行，这次读取仍然返回redis中的旧值
+        assertEquals("1", cache.get("a"));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"2".equals(redisTemplate.opsForValue().get("test:a"))
+               && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("2", redisTemplate.opsForValue().get("test:a"));
+        assertEquals(2, cache.loads.get());
+    }
+
+    /**
+     * 失效时间都在[100, 200]秒之间，并且没有集中在同一时刻
+     */
+    private static void assertSpread(String keyPrefix) {
+        long min = Long.MAX_VALUE;
+        long max = Long.MIN_VALUE;
+        for (int i = 0; i < 50; i++) {
+            long ttl = redisTemplate.getExpire("test:" + keyPrefix + i, TimeUnit.MILLISECONDS);
+            assertTrue(ttl > TimeUnit.SECONDS.toMillis(99));
+            assertTrue(ttl <= TimeUnit.SECONDS.toMillis(200));
+            min = Math.min(min, ttl);
+            max = Math.max(max, ttl);
+        }
+        assertTrue(max - min > TimeUnit.SECONDS.toMillis(10));
+    }
+}
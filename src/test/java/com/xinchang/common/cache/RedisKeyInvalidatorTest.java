@@ -0,0 +1,96 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.RedisConnectionFailureException;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class RedisKeyInvalidatorTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+    }
+
+    @Test
+    public void fallsBackToDelWhenUnlinkIsUnknown() {
+        // 测试用的redis是2.8，没有UNLINK
+        for (int i = 0; i < 5; i++) {
+            redisTemplate.opsForValue().set("p:" + i, "v");
+        }
+        redisTemplate.opsForValue().set("q:0", "v");
+        RedisKeyInvalidator invalidator = new RedisKeyInvalidator(redisTemplate, 2, 10000);
+
+        assertEquals(5, invalidator.deleteMatching("p:*", null));
+
+        assertEquals(0, redisTemplate.keys("p:*").size());
+        assertEquals(1, redisTemplate.keys("q:*").size());
+        assertFalse((Boolean) ReflectionTestUtils.getField(invalidator, "unlinkSupported"));
+    }
+
+    @Test
+    public void otherErrorsAreRethrownWithoutFallingBack() {
+        RedisKeyInvalidator invalidator = new RedisKeyInvalidator(redisTemplate, 2, 10000);
+        final RedisConnectionFailureException failure = new RedisConnectionFailureException(
+            "Connection reset");
+        final List<String> commands = new ArrayList<>();
+        RedisConnection connection = (RedisConnection) Proxy.newProxyInstance(
+            getClass().getClassLoader(), new Class<?>[] { RedisConnection.class },
+            new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) {
+                    if (method.getDeclaringClass() == Object.class) {
+                        return method.getName().equals("toString") ? "connection" : null;
+                    }
+                    commands.add(method.getName());
+                    if (method.getName().equals("eval")) {
+                        throw failure;
+                    }
+                    return null;
+                }
+            });
+
+        try {
+            ReflectionTestUtils.invokeMethod(invalidator, "unlink", connection,
+                new byte[][] { "k".getBytes() });
+            fail();
+        }
+        catch (RedisConnectionFailureException e) {
+            assertSame(failure, e);
+        }
+
+        assertEquals(1, commands.size());
+        assertEquals("eval", commands.get(0));
+        assertEquals(Boolean.TRUE, ReflectionTestUtils.getField(invalidator, "unlinkSupported"));
+    }
+}
@@ -0,0 +1,121 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class RedisWriteLeaseTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    private RedisWriteLease writeLease;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+        writeLease = new RedisWriteLease(redisTemplate, 2);
+    }
+
+    @Test
+    public void acquirePutsMarkerOnMissingKeyAndWritesWhenUnchanged() {
+        Map<String, byte[]> leases = writeLease.acquire(Arrays.asList("a", "b", "c"), 10000);
+
+        assertEquals(3, leases.size());
+        assertTrue(RedisWriteLease.isLease(rawValue("a")));
+
+        writeLease.setIfLeased(Collections.singletonMap("a", bytes("loaded")), leases, 60000, 0);
+        assertEquals("loaded", redisTemplate.opsForValue().get("a"));
+        long ttl = redisTemplate.getExpire("a");
+        assertTrue(ttl > 0 && ttl <= 60);
+    }
+
+    @Test
+    public void acquireSkipsKeyThatAlreadyHasData() {
+        redisTemplate.opsForValue().set("a", "fresh");
+
+        Map<String, byte[]> leases = writeLease.acquire(Arrays.asList("a", "b"), 10000);
+
+        assertFalse(leases.containsKey("a"));
+        assertNotNull(leases.get("b"));
+        writeLease.setIfLeased(Collections.singletonMap("a", bytes("stale")), leases, 0, 0);
+        assertEquals("fresh", redisTemplate.opsForValue().get("a"));
+    }
+
+    @Test
+    public void putDuringLoadWinsOverLoadedValue() {
+        Map<String, byte[]> leases = writeLease.acquire(Arrays.asList("a"), 10000);
+        redisTemplate.opsForValue().set("a", "fresh");
+
+        writeLease.setIfLeased(Collections.singletonMap("a", bytes("stale")), leases, 0, 0);
+
+        assertEquals("fresh", redisTemplate.opsForValue().get("a"));
+    }
+
+    @Test
+    public void putBeforeSecondLoaderAcquiresIsNotOverwritten() {
+        // 第一个加载线程放入了租约标记，put写入新数据后，第二个加载线程读到的是数据，不能取得租约
+        writeLease.acquire(Arrays.asList("a"), 10000);
+        redisTemplate.opsForValue().set("a", "fresh");
+
+        Map<String, byte[]> leases = writeLease.acquire(Arrays.asList("a"), 10000);
+        writeLease.setIfLeased(Collections.singletonMap("a", bytes("stale")), leases, 0, 0);
+
+        assertTrue(leases.isEmpty());
+        assertEquals("fresh", redisTemplate.opsForValue().get("a"));
+    }
+
+    @Test
+    public void concurrentLoadersShareMarkerAndOnlyFirstWriteWins() {
+        Map<String, byte[]> first = writeLease.acquire(Arrays.asList("a"), 10000);
+        Map<String, byte[]> second = writeLease.acquire(Arrays.asList("a"), 10000);
+
+        assertNotNull(second.get("a"));
+        writeLease.setIfLeased(Collections.singletonMap("a", bytes("first")), first, 0, 0);
+        writeLease.setIfLeased(Collections.singletonMap("a", bytes("second")), second, 0, 0);
+
+        assertEquals("first", redisTemplate.opsForValue().get("a"));
+    }
+
+    @Test
+    public void deleteDuringLoadDropsLoadedValue() {
+        Map<String, byte[]> leases = writeLease.acquire(Arrays.asList("a"), 10000);
+        redisTemplate.delete("a");
+
+        writeLease.setIfLeased(Collections.singletonMap("a", bytes("stale")), leases, 0, 0);
+
+        assertNull(redisTemplate.opsForValue().get("a"));
+    }
+
+    private static byte[] rawValue(String key) {
+        return redis.getConnectionFactory().getConnection().get(bytes(key));
+    }
+
+    private static byte[] bytes(String value) {
+        return new StringRedisSerializer().serialize(value);
+    }
+}
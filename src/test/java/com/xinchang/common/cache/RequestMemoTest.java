@@ -0,0 +1,143 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+
+public class RequestMemoTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    private TestCache cache;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+        cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.useRequestMemo = true;
+        cache.init();
+        cache.serverData.put("a", "1");
+        cache.serverData.put("b", "2");
+    }
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.resetRequestAttributes();
+    }
+
+    @Test
+    public void repeatedGetInRequestIsServedFromMemo() {
+        startRequest();
+        assertEquals("1", cache.get("a"));
+
+        // 其它节点的修改在本请求内看不到
+        redisTemplate.opsForValue().set("test:a", "changed");
+        assertEquals("1", cache.get("a"));
+
+        startRequest();
+        assertEquals("changed", cache.get("a"));
+    }
+
+    @Test
+    public void missingKeyIsLoadedOncePerRequest() {
+        startRequest();
+
+        assertNull(cache.get("x"));
+        assertNull(cache.get("x"));
+
+        assertEquals(1, cache.loads.get());
+    }
+
+    @Test
+    public void putInRequestForgetsMemoizedValue() {
+        startRequest();
+        assertEquals("1", cache.get("a"));
+
+        cache.put("a", "3");
+
+        assertEquals("3", cache.get("a"));
+    }
+
+    @Test
+    public void getAllLoadsOnlyKeysNotSeenInRequest() {
+        startRequest();
+        assertEquals("1", cache.get("a"));
+
+        Map<String, String> values = cache.getAll(Arrays.asList("a", "b", "b"));
+
+        assertEquals("1", values.get("a"));
+        assertEquals("2", values.get("b"));
+        assertEquals(Arrays.asList(Arrays.asList("b")), cache.batchLoads);
+    }
+
+    @Test
+    public void asyncGetSharesMemoOfCallingRequest() throws Exception {
+        startRequest();
+        // 读取在其它线程中执行，结果仍然放入本请求的memo
+        assertEquals("1", cache.getAsync("a").get(5, TimeUnit.SECONDS));
+
+        redisTemplate.opsForValue().set("test:a", "changed");
+        assertEquals("1", cache.get("a"));
+        CompletableFuture<String> memoized = cache.getAsync("a");
+        assertTrue(memoized.isDone());
+        assertEquals("1", memoized.get());
+    }
+
+    @Test
+    public void asyncGetAllSharesMemoOfCallingRequest() throws Exception {
+        startRequest();
+        assertEquals("1", cache.get("a"));
+        redisTemplate.opsForValue().set("test:a", "changed");
+
+        Map<String, String> values = cache.getAllAsync(Arrays.asList("a", "b")).get(5,
+            TimeUnit.SECONDS);
+
+        assertEquals("1", values.get("a"));
+        assertEquals("2", values.get("b"));
+        assertEquals(Arrays.asList(Arrays.asList("b")), cache.batchLoads);
+        redisTemplate.opsForValue().set("test:b", "changed");
+        assertEquals("2", cache.get("b"));
+    }
+
+    @Test
+    public void memoIsNotUsedOutsideRequest() {
+        assertEquals("1", cache.get("a"));
+        redisTemplate.opsForValue().set("test:a", "changed");
+
+        assertEquals("changed", cache.get("a"));
+    }
+
+    private static void startRequest() {
+        RequestContextHolder
+            .setRequestAttributes(new ServletRequestAttributes(new MockHttpServletRequest()));
+    }
+}
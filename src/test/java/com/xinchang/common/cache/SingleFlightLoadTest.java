@@ -0,0 +1,178 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class SingleFlightLoadTest {
+    private static final int THREADS = 8;
+
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    private ExecutorService executor;
+
+    private TestCache cache;
+
+    /**
+     * 从server加载时等待该latch，用于让所有线程在加载完成前到达
+     */
+    private CountDownLatch release;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+        executor = Executors.newFixedThreadPool(THREADS);
+        release = new CountDownLatch(1);
+
+        cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.duringLoad = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        cache.init();
+    }
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentMissesLoadOnce() throws Exception {
+        cache.serverData.put("a", "1");
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    return cache.get("a");
+                }
+            }));
+        }
+        waitUntilWaiting();
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("1", result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, cache.loads.get());
+    }
+
+    @Test
+    public void failedLoadReachesEveryWaiter() throws Exception {
+        cache.serverDown = true;
+
+        List<Future<String>> results = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(new Callable<String>() {
+                @Override
+                public String call() {
+                    try {
+                        cache.get("a");
+                        return "no error";
+                    }
+                    catch (IllegalStateException e) {
+                        return e.getMessage();
+                    }
+                }
+            }));
+        }
+        waitUntilWaiting();
+        release.countDown();
+
+        for (Future<String> result : results) {
+            assertEquals("server down", result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, cache.loads.get());
+    }
+
+    @Test
+    public void overlappingGetAllJoinWithoutDeadlock() throws Exception {
+        cache.serverData.put("a", "1");
+        cache.serverData.put("b", "2");
+        cache.serverData.put("c", "3");
+
+        // 两次getAll的key有重叠，顺序相反
+        Future<Map<String, String>> first = getAllAsync(Arrays.asList("a", "b", "c"));
+        Future<Map<String, String>> second = getAllAsync(Arrays.asList("c", "b", "a"));
+        waitUntilWaiting();
+        release.countDown();
+
+        assertEquals(3, first.get(10, TimeUnit.SECONDS).size());
+        assertEquals(3, second.get(10, TimeUnit.SECONDS).size());
+
+        // 每个key只被加载一次
+        Set<String> loadedKeys = new HashSet<>();
+        int loadedCount = 0;
+        for (List<String> keys : cache.batchLoads) {
+            loadedKeys.addAll(keys);
+            loadedCount += keys.size();
+        }
+        assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), loadedKeys);
+        assertEquals(3, loadedCount);
+        assertTrue(cache.loads.get() <= 2);
+    }
+
+    private Future<Map<String, String>> getAllAsync(final List<String> keys) {
+        return executor.submit(new Callable<Map<String, String>>() {
+            @Override
+            public Map<String, String> call() {
+                return cache.getAll(keys);
+            }
+        });
+    }
+
+    /**
+     * 第一个加载已经开始并阻塞，给其它线程时间到达并等待加载结果
+     */
+    private void waitUntilWaiting() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (cache.loads.get() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(200);
+    }
+}
@@ -0,0 +1,123 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
+
+public class StaleFallbackTest {
+    private static EmbeddedRedis redis;
+
+    private static RedisTemplate<String, String> redisTemplate;
+
+    @BeforeClass
+    public static void startRedis() throws Exception {
+        redis = EmbeddedRedis.start();
+        redisTemplate = redis.newTemplate(new StringRedisSerializer());
+    }
+
+    @AfterClass
+    public static void stopRedis() {
+        redis.stop();
+    }
+
+    @Before
+    public void setUp() {
+        redis.flushAll();
+    }
+
+    @Test
+    public void loadFailureServesValueFromShadowKey() {
+        TestCache cache = newCache(false);
+        cache.serverData.put("a", "1");
+        assertEquals("1", cache.get("a"));
+        assertEquals("1", redisTemplate.opsForValue().get("test_STALE:a"));
+
+        // 数据失效后数据库不可用
+        redisTemplate.delete("test:a");
+        cache.serverDown = true;
+
+        assertEquals("1", cache.get("a"));
+    }
+
+    @Test
+    public void batchLoadFailureServesValuesFromShadowKeys() {
+        TestCache cache = newCache(false);
+        cache.serverData.put("a", "1");
+        cache.getAll(Arrays.asList("a"));
+        redisTemplate.delete("test:a");
+        cache.serverDown = true;
+
+        Map<String, String> values = cache.getAll(Arrays.asList("a"));
+
+        assertEquals("1", values.get("a"));
+    }
+
+    @Test
+    public void leasedLoadWritesShadowKeyWithData() {
+        TestCache cache = newCache(true);
+        cache.serverData.put("a", "1");
+
+        assertEquals("1", cache.get("a"));
+
+        assertEquals("1", redisTemplate.opsForValue().get("test:a"));
+        assertEquals("1", redisTemplate.opsForValue().get("test_STALE:a"));
+        assertTrue(redisTemplate.getExpire("test_STALE:a") > 0);
+    }
+
+    @Test
+    public void rejectedLeasedLoadDoesNotWriteShadowKey() {
+        TestCache cache = newCache(true);
+        cache.serverData.put("a", "old");
+        cache.duringLoad = new Runnable() {
+            @Override
+            public void run() {
+                // 加载期间数据被删除，租约失效
+                redisTemplate.delete("test:a");
+            }
+        };
+
+        assertEquals("old", cache.get("a"));
+
+        assertNull(redisTemplate.opsForValue().get("test:a"));
+        assertFalse(redisTemplate.hasKey("test_STALE:a"));
+    }
+
+    @Test
+    public void rejectedBatchLeasedLoadDoesNotWriteShadowKeys() {
+        TestCache cache = newCache(true);
+        cache.serverData.put("a", "old");
+        cache.serverData.put("b", "old");
+        cache.duringLoad = new Runnable() {
+            @Override
+            public void run() {
+                redisTemplate.opsForValue().set("test:a", "fresh");
+            }
+        };
+
+        cache.getAll(Arrays.asList("a", "b"));
+
+        assertEquals("fresh", redisTemplate.opsForValue().get("test:a"));
+        assertFalse(redisTemplate.hasKey("test_STALE:a"));
+        assertEquals("old", redisTemplate.opsForValue().get("test_STALE:b"));
+    }
+
+    private static TestCache newCache(boolean useWriteLease) {
+        TestCache cache = new TestCache();
+        cache.redisTemplate = redisTemplate;
+        cache.staleGraceSeconds = 60;
+        cache.redisExpireDuration = 60;
+        cache.useWriteLease = useWriteLease;
+        return cache.init();
+    }
+}
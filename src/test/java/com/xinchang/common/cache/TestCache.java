@@ -0,0 +1,212 @@
+package com.xinchang.common.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * 测试用的缓存，数据从serverData加载，各个开关通过字段设置，设置完成后调用init
+ */
+class TestCache extends AbstractCache<String, String> {
+    final Map<String, String> serverData = new ConcurrentHashMap<>();
+
+    final AtomicInteger loads = new AtomicInteger();
+
+    /**
+     * 每次batchLoadFromServer的参数
+     */
+    final List<List<String>> batchLoads = new CopyOnWriteArrayList<>();
+
+    volatile boolean serverDown;
+
+    /**
+     * 从server加载时执行，用于模拟加载期间的并发操作
+     */
+    volatile Runnable duringLoad;
+
+    RedisTemplate<String, String> redisTemplate;
+
+    String keyPrefix = "test";
+
+    int maximumSize;
+
+    long staleGraceSeconds;
+
+    boolean useWriteLease;
+
+    long redisExpireDuration;
+
+    long refreshAfterWriteDuration;
+
+    long redisExpireJitter;
+
+    double earlyExpirationBeta;
+
+    boolean batchGetMisses;
+
+    long getBatchWindowMillis = 5;
+
+    long hotKeyThreshold;
+
+    int hotKeySampleRate = 1;
+
+    DBErrorStrategy dbErrorStrategy;
+
+    NoneDataStrategy noneDataStrategy;
+
+    long dbErrorRetryBackoffMillis = 50;
+
+    boolean useRequestMemo;
+
+    CacheInvalidationBus invalidationBus;
+
+    /**
+     * 执行异步api的线程池，null表示使用默认的线程池
+     */
+    Executor asyncExecutor;
+
+    TestCache init() {
+        ReflectionTestUtils.invokeMethod(this, "initCache");
+        return this;
+    }
+
+    @Override
+    protected RedisTemplate<String, String> getRedisTemplate() {
+        return redisTemplate;
+    }
+
+    @Override
+    protected String getKeyPrefix() {
+        return keyPrefix;
+    }
+
+    @Override
+    protected int getMaximumSize() {
+        return maximumSize;
+    }
+
+    @Override
+    protected String restoreToOriginalKey(String strKey) {
+        return strKey;
+    }
+
+    @Override
+    protected long staleGraceSeconds() {
+        return staleGraceSeconds;
+    }
+
+    @Override
+    protected boolean useWriteLease() {
+        return useWriteLease;
+    }
+
+    @Override
+    protected long redisExpireDuration() {
+        return redisExpireDuration;
+    }
+
+    @Override
+    protected long redisExpireJitter() {
+        return redisExpireJitter;
+    }
+
+    @Override
+    protected double earlyExpirationBeta() {
+        return earlyExpirationBeta;
+    }
+
+    @Override
+    protected boolean batchGetMisses() {
+        return batchGetMisses;
+    }
+
+    @Override
+    protected long getBatchWindowMillis() {
+        return getBatchWindowMillis;
+    }
+
+    @Override
+    protected long hotKeyThreshold() {
+        return hotKeyThreshold;
+    }
+
+    @Override
+    protected int hotKeySampleRate() {
+        return hotKeySampleRate;
+    }
+
+    @Override
+    public long refreshAfterWriteDuration() {
+        return refreshAfterWriteDuration;
+    }
+
+    @Override
+    protected DBErrorStrategy getDBErrorStrategy() {
+        return dbErrorStrategy;
+    }
+
+    @Override
+    protected long dbErrorRetryBackoffMillis() {
+        return dbErrorRetryBackoffMillis;
+    }
+
+    @Override
+    protected boolean useRequestMemo() {
+        return useRequestMemo;
+    }
+
+    @Override
+    protected Executor asyncExecutor() {
+        return asyncExecutor == null ? super.asyncExecutor() : asyncExecutor;
+    }
+
+    @Override
+    protected CacheInvalidationBus getInvalidationBus() {
+        return invalidationBus;
+    }
+
+    @Override
+    protected NoneDataStrategy getNoneDataStrategy() {
+        return noneDataStrategy;
+    }
+
+    @Override
+    protected String loadFromServer(String key) {
+        loads.incrementAndGet();
+        beforeLoad();
+        return serverData.get(key);
+    }
+
+    @Override
+    protected Map<String, String> batchLoadFromServer(List<String> keys) {
+        loads.incrementAndGet();
+        batchLoads.add(new ArrayList<>(keys));
+        beforeLoad();
+        Map<String, String> values = new HashMap<>();
+        for (String key : keys) {
+            String value = serverData.get(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+        return values;
+    }
+
+    private void beforeLoad() {
+        Runnable action = duringLoad;
+        if (action != null) {
+            action.run();
+        }
+        if (serverDown) {
+            throw new IllegalStateException("server down");
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.xinchang.common.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Test;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class WriteBehindBufferTest {
+    /**
+     * 测试中不依赖定时刷新
+     */
+    private static final long NEVER = 3600 * 1000L;
+
+    private static final Executor rejecting = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            throw new RejectedExecutionException();
+        }
+    };
+
+    @Test
+    public void closeWritesLatestValuePerKeyInBatches() {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindBuffer<String, String> buffer = new WriteBehindBuffer<>(writer, NEVER, 2, 100,
+            0, rejecting);
+
+        buffer.offer("a", "1");
+        buffer.offer("b", "1");
+        buffer.offer("a", "2");
+        buffer.offer("c", "1");
+        assertEquals(3, buffer.pendingSize());
+
+        buffer.close();
+
+        assertEquals(2, writer.batches.size());
+        assertEquals(map("a", "2", "b", "1"), writer.batches.get(0));
+        assertEquals(map("c", "1"), writer.batches.get(1));
+        assertEquals(0, buffer.pendingSize());
+    }
+
+    @Test
+    public void fullBufferFlushesBeforeAcceptingNewKey() {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindBuffer<String, String> buffer = new WriteBehindBuffer<>(writer, NEVER, 10, 2,
+            1000, MoreExecutors.directExecutor());
+
+        buffer.offer("a", "1");
+        buffer.offer("b", "1");
+        buffer.offer("c", "1");
+
+        assertEquals(Arrays.asList(map("a", "1", "b", "1")), writer.batches);
+        assertEquals(1, buffer.pendingSize());
+        buffer.close();
+    }
+
+    @Test
+    public void fullBufferRejectsNewKeyAfterMaxBlock() {
+        RecordingWriter writer = new RecordingWriter();
+        WriteBehindBuffer<String, String> buffer = new WriteBehindBuffer<>(writer, NEVER, 10, 2,
+            50, rejecting);
+        buffer.offer("a", "1");
+        buffer.offer("b", "1");
+
+        // 已经在等待中的key直接覆盖，不阻塞
+        buffer.offer("a", "2");
+
+        long start = System.currentTimeMillis();
+        try {
+            buffer.offer("c", "1");
+            fail();
+        }
+        catch (RejectedExecutionException e) {
+            assertTrue(System.currentTimeMillis() - start >= 50);
+        }
+
+        assertEquals(2, buffer.pendingSize());
+        assertTrue(writer.batches.isEmpty());
+        buffer.close();
+    }
+
+    @Test
+    public void failedBatchIsDroppedAndLaterBatchesStillWritten() {
+        RecordingWriter writer = new RecordingWriter();
+        writer.failOnKey = "a";
+        WriteBehindBuffer<String, String> buffer = new WriteBehindBuffer<>(writer, NEVER, 1, 100,
+            0, rejecting);
+        buffer.offer("a", "1");
+        buffer.offer("b", "1");
+
+        buffer.close();
+
+        assertEquals(Arrays.asList(map("b", "1")), writer.batches);
+        assertEquals(0, buffer.pendingSize());
+    }
+
+    private static Map<String, String> map(String... keysAndValues) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            map.put(keysAndValues[i], keysAndValues[i + 1]);
+        }
+        return map;
+    }
+
+    private static class RecordingWriter implements WriteBehindBuffer.BatchWriter<String, String> {
+        private final List<Map<String, String>> batches = new CopyOnWriteArrayList<>();
+
+        private volatile String failOnKey;
+
+        @Override
+        public void write(Map<String, String> entries) throws Exception {
+            if (failOnKey != null && entries.containsKey(failOnKey)) {
+                throw new IllegalStateException("server down");
+            }
+            batches.add(new LinkedHashMap<>(entries));
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.xinchang.common.web;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.springframework.data.redis.serializer.SerializationException;
+
+public class FastJsonRedisSerializerTest {
+    private static final String LARGE_VALUE = repeat("cache-value-", 200);
+
+    @Test
+    public void compressesLargeValuesAndReadsThemBack() {
+        FastJsonRedisSerializer<String> serializer = new FastJsonRedisSerializer<>(100);
+
+        byte[] bytes = serializer.serialize(LARGE_VALUE);
+
+        assertEquals((byte) 0xDF, bytes[0]);
+        assertEquals('Z', bytes[1]);
+        assertTrue(bytes.length < LARGE_VALUE.length() / 2);
+        assertEquals(LARGE_VALUE, serializer.deserialize(bytes));
+        assertEquals(1, serializer.getCompressionStats().getCompressedCount());
+    }
+
+    @Test
+    public void valuesBelowThresholdAreNotCompressed() {
+        FastJsonRedisSerializer<String> serializer = new FastJsonRedisSerializer<>(100000);
+
+        byte[] bytes = serializer.serialize(LARGE_VALUE);
+
+        assertArrayEquals(new FastJsonRedisSerializer<String>().serialize(LARGE_VALUE), bytes);
+        assertEquals(LARGE_VALUE, serializer.deserialize(bytes));
+        assertEquals(0, serializer.getCompressionStats().getCompressedCount());
+    }
+
+    @Test
+    public void incompressibleValuesAreWrittenUncompressed() {
+        // 很短的数据压缩后加上头部比原始数据更长
+        FastJsonRedisSerializer<String> serializer = new FastJsonRedisSerializer<>(0);
+
+        byte[] bytes = serializer.serialize("x");
+
+        assertArrayEquals(new FastJsonRedisSerializer<String>().serialize("x"), bytes);
+        assertEquals("x", serializer.deserialize(bytes));
+        assertEquals(1, serializer.getCompressionStats().getIncompressibleCount());
+    }
+
+    @Test
+    public void readsValuesWrittenBeforeCompression() {
+        byte[] legacy = new FastJsonRedisSerializer<Long>().serialize(42L);
+
+        FastJsonRedisSerializer<Long> serializer = new FastJsonRedisSerializer<>(0);
+
+        assertEquals(Long.valueOf(42), serializer.deserialize(legacy));
+    }
+
+    @Test
+    public void rejectsCorruptOriginalLength() {
+        FastJsonRedisSerializer<String> serializer = new FastJsonRedisSerializer<>(100);
+        byte[] bytes = serializer.serialize(LARGE_VALUE);
+
+        assertRejected(serializer, withOriginalLength(bytes, -1));
+        assertRejected(serializer, withOriginalLength(bytes, Integer.MAX_VALUE));
+        // 不超过上限，但超过了压缩数据可能解压出的最大长度
+        assertRejected(serializer, withOriginalLength(bytes, (bytes.length - 6) * 1033));
+    }
+
+    private static void assertRejected(FastJsonRedisSerializer<String> serializer, byte[] bytes) {
+        try {
+            serializer.deserialize(bytes);
+            fail();
+        }
+        catch (SerializationException e) {
+            // expected
+        }
+    }
+
+    private static byte[] withOriginalLength(byte[] bytes, int originalLength) {
+        byte[] corrupt = Arrays.copyOf(bytes, bytes.length);
+        corrupt[2] = (byte) (originalLength >>> 24);
+        corrupt[3] = (byte) (originalLength >>> 16);
+        corrupt[4] = (byte) (originalLength >>> 8);
+        corrupt[5] = (byte) originalLength;
+        return corrupt;
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+}